@@ -0,0 +1,70 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import dk.statsbiblioteket.medieplatform.autonomous.Batch;
+import dk.statsbiblioteket.medieplatform.autonomous.Event;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Synthetic data for the benchmarks.
+ */
+final class BenchmarkData {
+
+    private static final String[] EVENT_IDS = {"Metadata_Archived", "Data_Archived", "Batch_Structure_Checked",
+            "Schema_Validated", "JPylyzed", "Statistics_Generated", "Metadata_Checked", "Manual_QA_Flagged"};
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @return properties for a component alerting after 20 days.
+     */
+    static Properties properties() {
+        Properties properties = new Properties();
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES, "foo@bar.com, bar@bar.com");
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_DAYS, "20");
+        return properties;
+    }
+
+    /**
+     * Create a roundtrip with a Data_Received event followed by other events.
+     * @param eventCount the total number of events.
+     * @param receivedDaysAgo the number of days since data was received.
+     * @return the roundtrip.
+     */
+    static Batch batch(int eventCount, int receivedDaysAgo) {
+        long received = System.currentTimeMillis() - receivedDaysAgo * 24 * 3600 * 1000L;
+        List<Event> events = new ArrayList<>(eventCount);
+        Event dataReceived = new Event();
+        dataReceived.setEventID("Data_Received");
+        dataReceived.setDate(new Date(received));
+        events.add(dataReceived);
+        for (int i = 1; i < eventCount; i++) {
+            Event event = new Event();
+            event.setEventID(EVENT_IDS[i % EVENT_IDS.length]);
+            event.setDate(new Date(received + i * 60000L));
+            events.add(event);
+        }
+        Batch batch = new Batch();
+        batch.setEventList(events);
+        batch.setBatchID("B400022028241");
+        batch.setRoundTripNumber(1);
+        return batch;
+    }
+
+    /**
+     * A mailer which does not send anything.
+     */
+    static class NullMailer extends SimpleMailer {
+        NullMailer() {
+            super("me@test.com", "localhost", "25", 0, 0L);
+        }
+
+        @Override
+        public void sendMail(List<String> to, String subject, String text) {
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * A benchmark of the cost of a run started from cron which has nothing to do. Every iteration starts the component
+ * in a new JVM, as cron does, with a state file recording a recent complete run and no deadlines, and measures the
+ * wall time until the JVM has exited. The component logs the time of each phase of its startup up to the decision
+ * to skip the run, which is kept in the log file given.
+ *
+ * Run it with
+ *
+ *     java -cp target/benchmarks.jar dk.statsbiblioteket.newspaper.delayalerter.ColdStartBenchmark [runs] [log]
+ */
+public class ColdStartBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        File logFile = new File(args.length > 1 ? args[1] : "coldstart.log");
+
+        File stateFile = File.createTempFile("coldstart", ".state");
+        File configFile = File.createTempFile("coldstart", ".properties");
+        try {
+            DeadlineIndex index = new DeadlineIndex();
+            index.beginRun(System.currentTimeMillis());
+            index.endRun();
+            index.save(stateFile);
+
+            Properties properties = BenchmarkData.properties();
+            properties.setProperty(DelayAlerterConfigConstants.SMTP_HOST, "localhost");
+            properties.setProperty(DelayAlerterConfigConstants.EMAIL_FROM_ADDRESS, "me@test.com");
+            properties.setProperty(DelayAlerterConfigConstants.FULL_SCAN_INTERVAL, "3600000");
+            properties.setProperty(DelayAlerterConfigConstants.STATE_FILE, stateFile.getAbsolutePath());
+            try (OutputStream out = new FileOutputStream(configFile)) {
+                properties.store(out, "ColdStartBenchmark");
+            }
+
+            String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+            long[] millis = new long[runs];
+            for (int i = 0; i < runs; i++) {
+                ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        DelayAlerterComponent.class.getName(), "-c", configFile.getAbsolutePath());
+                builder.redirectErrorStream(true);
+                builder.redirectOutput(ProcessBuilder.Redirect.appendTo(logFile));
+                long start = System.nanoTime();
+                int exit = builder.start().waitFor();
+                millis[i] = (System.nanoTime() - start) / 1000000;
+                if (exit != 0) {
+                    throw new IOException("Run " + i + " exited with " + exit + ", see " + logFile);
+                }
+            }
+            Arrays.sort(millis);
+            System.out.println(String.format(Locale.ROOT, "runs=%d min=%d ms median=%d ms max=%d ms", runs,
+                    millis[0], millis[runs / 2], millis[runs - 1]));
+            System.out.println("Startup phases are logged in " + logFile);
+        } finally {
+            stateFile.delete();
+            configFile.delete();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import dk.statsbiblioteket.medieplatform.autonomous.Batch;
+import dk.statsbiblioteket.medieplatform.autonomous.ResultCollector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the work done by the component on a single roundtrip, with a mailer that sends nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DoWorkOnItemBenchmark {
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int eventCount;
+
+    @Param({"false", "true"})
+    public boolean overdue;
+
+    private DelayAlerterComponent component;
+    private Batch batch;
+
+    @Setup
+    public void setUp() {
+        component = new DelayAlerterComponent(BenchmarkData.properties(), new BenchmarkData.NullMailer());
+        batch = BenchmarkData.batch(eventCount, overdue ? 30 : 10);
+    }
+
+    @Benchmark
+    public ResultCollector doWorkOnItem() throws Exception {
+        ResultCollector resultCollector = new ResultCollector("benchmark", "1");
+        component.doWorkOnItem(batch, resultCollector);
+        return resultCollector;
+    }
+}
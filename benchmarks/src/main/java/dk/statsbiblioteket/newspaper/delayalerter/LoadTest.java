@@ -0,0 +1,130 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import dk.statsbiblioteket.medieplatform.autonomous.Batch;
+import dk.statsbiblioteket.medieplatform.autonomous.ResultCollector;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A load test of a whole run of the component over a large number of synthetic roundtrips. The roundtrips are handed
+ * to the component by a thread pool shaped like the one of the autonomous component framework, with
+ * autonomous.maxThreads threads and a queue of autonomous.workQueueSize roundtrips, and alerts are sent to an
+ * in-process GreenMail smtp server. Wall time, throughput and the heap high-water mark are reported.
+ *
+ * Run it with
+ *
+ *     java -cp target/benchmarks.jar dk.statsbiblioteket.newspaper.delayalerter.LoadTest [roundtrips] [threads] [seed] [smtp]
+ *
+ * where smtp is false to count the alerts instead of sending them, which keeps GreenMail from holding every mail in
+ * memory in runs with a million roundtrips. Any delay.alert.* system properties are passed to the component, so
+ * for example -Ddelay.alert.digest.enabled=true runs the load test in digest mode.
+ */
+public class LoadTest {
+
+    private static final int PORT = 40031;
+
+    public static void main(String[] args) throws Exception {
+        int roundtrips = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42L;
+        boolean smtp = args.length <= 3 || Boolean.parseBoolean(args[3]);
+
+        Properties properties = BenchmarkData.properties();
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("delay.alert.")) {
+                properties.setProperty(name, System.getProperty(name));
+            }
+        }
+        GreenMail greenMail = null;
+        SimpleMailer mailer;
+        final AtomicInteger counted = new AtomicInteger();
+        if (smtp) {
+            greenMail = new GreenMail(new ServerSetup(PORT, ServerSetup.SMTP.getBindAddress(),
+                    ServerSetup.SMTP.getProtocol()));
+            greenMail.start();
+            DelayAlerterConfig config = new DelayAlerterConfig(properties);
+            mailer = new SimpleMailer("me@test.com", "localhost", "" + PORT, config.getSmtpPoolSize(),
+                    config.getSmtpPoolIdleTimeout());
+        } else {
+            mailer = new BenchmarkData.NullMailer() {
+                @Override
+                public void sendMail(List<String> to, String subject, String text) {
+                    counted.incrementAndGet();
+                }
+            };
+        }
+        final DelayAlerterComponent component = new DelayAlerterComponent(properties, mailer);
+        mailer.setMetrics(component.getMetrics());
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads), new ThreadPoolExecutor.CallerRunsPolicy());
+        final AtomicInteger failures = new AtomicInteger();
+        System.gc();
+        resetHeapPeak();
+        long start = System.nanoTime();
+        component.beginRun();
+        for (final Batch batch : new SyntheticRoundtrips(roundtrips, seed)) {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        component.doWorkOnItem(batch, new ResultCollector("LoadTest", "1"));
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.DAYS);
+        component.close();
+        component.endRun(true);
+        long wallNanos = System.nanoTime() - start;
+        long heapPeak = heapPeak();
+
+        int alerts = smtp ? greenMail.getReceivedMessages().length : counted.get();
+        System.out.println(String.format(Locale.ROOT,
+                "roundtrips=%d threads=%d seed=%d smtp=%s%nwall=%.3f s throughput=%.1f roundtrips/s%n"
+                        + "alerts=%d failures=%d heapPeak=%.1f MB",
+                roundtrips, threads, seed, smtp, wallNanos / 1e9, roundtrips / (wallNanos / 1e9),
+                alerts, failures.get(), heapPeak / (1024.0 * 1024.0)));
+        System.out.println(component.getMetrics().summary());
+        mailer.close();
+        if (greenMail != null) {
+            greenMail.stop();
+        }
+    }
+
+    private static void resetHeapPeak() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * @return the sum of the peak usage of the heap pools since they were reset. The pools peak at different times,
+     * so this is an upper bound of the heap high-water mark.
+     */
+    private static long heapPeak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
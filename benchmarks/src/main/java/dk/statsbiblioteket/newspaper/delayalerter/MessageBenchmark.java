@@ -0,0 +1,92 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.mail.internet.MimeMessage;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of building and encoding an alert message, without sending it, and of rendering a digest of thousands
+ * of roundtrips from the templates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+
+    private static final OutputStream NULL_STREAM = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private SimpleMailer mailer;
+    private List<String> recipients;
+    private String subject;
+    private String text;
+    private AlertRenderer renderer;
+    private Map<String, Object> digestValues;
+
+    @Setup
+    public void setUp() throws Exception {
+        mailer = new SimpleMailer("me@test.com", "localhost", "25", 0, 0L);
+        recipients = Arrays.asList("foo@bar.com", "bar@bar.com");
+        subject = "[Newspaper Delay Alert]B400022028241-RT1";
+        text = "Batch roundtrip B400022028241-RT1 was received at " + new Date()
+                + "\n but has not yet been approved or rejected.";
+        renderer = new AlertRenderer(null, "en", false, "http://doms/{{batchId}}");
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("roundtrip", "B4000220" + i + "-RT1");
+            row.put("batchId", "B4000220" + i);
+            row.put("received", new Date());
+            renderer.addLink(row);
+            rows.add(row);
+        }
+        digestValues = new HashMap<>();
+        digestValues.put("count", rows.size());
+        digestValues.put("rows", rows);
+    }
+
+    @Benchmark
+    public MimeMessage createMessage() throws Exception {
+        return mailer.createMessage(recipients, subject, text, null);
+    }
+
+    @Benchmark
+    public AlertMessage renderDigest() {
+        return renderer.renderDigest(digestValues);
+    }
+
+    @Benchmark
+    public MimeMessage createAndEncodeMessage() throws Exception {
+        MimeMessage message = mailer.createMessage(recipients, subject, text, null);
+        message.saveChanges();
+        message.writeTo(NULL_STREAM);
+        return message;
+    }
+}
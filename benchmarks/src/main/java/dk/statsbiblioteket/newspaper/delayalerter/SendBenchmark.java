@@ -0,0 +1,62 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of sending alert mails end-to-end to an in-process GreenMail smtp server, with and without pooled
+ * smtp connections. GreenMail keeps every mail in memory, so it is restarted for every iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SendBenchmark {
+
+    private static final int PORT = 40030;
+
+    @Param({"0", "2"})
+    public int poolSize;
+
+    private GreenMail greenMail;
+    private SimpleMailer mailer;
+    private List<String> recipients = Arrays.asList("foo@bar.com");
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        greenMail = new GreenMail(new ServerSetup(PORT, ServerSetup.SMTP.getBindAddress(), ServerSetup.SMTP.getProtocol()));
+        greenMail.start();
+        mailer = new SimpleMailer("me@test.com", "localhost", "" + PORT, poolSize, 60000L);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        mailer.close();
+        greenMail.stop();
+    }
+
+    @Benchmark
+    public void sendMail() throws Exception {
+        mailer.sendMail(recipients, "[Newspaper Delay Alert]B400022028241-RT1",
+                "Batch roundtrip B400022028241-RT1 was received long ago\n but has not yet been approved or rejected.");
+    }
+}
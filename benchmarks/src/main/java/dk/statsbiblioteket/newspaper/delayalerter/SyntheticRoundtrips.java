@@ -0,0 +1,99 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import dk.statsbiblioteket.medieplatform.autonomous.Batch;
+import dk.statsbiblioteket.medieplatform.autonomous.Event;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * A seeded, reproducible stream of unapproved roundtrips with event histories like those found in SBOI: a
+ * Data_Received event, sometimes repeated, followed by the events of the automatic and manual checks. Roundtrips are
+ * generated one at a time, so even a million of them only take the memory of the roundtrips being worked on.
+ */
+final class SyntheticRoundtrips implements Iterable<Batch> {
+
+    private static final String[] EVENT_IDS = {"Metadata_Archived", "Data_Archived", "Batch_Structure_Checked",
+            "Schema_Validated", "JPylyzed", "Statistics_Generated", "Metadata_Checked", "Manual_QA_Flagged"};
+
+    private static final long DAY = 24 * 3600 * 1000L;
+
+    private final int count;
+    private final long seed;
+    private final long now;
+
+    /**
+     * Constructor for this class.
+     * @param count the number of roundtrips.
+     * @param seed the seed of the random generator. The same seed gives the same roundtrips.
+     */
+    SyntheticRoundtrips(int count, long seed) {
+        this.count = count;
+        this.seed = seed;
+        this.now = System.currentTimeMillis();
+    }
+
+    @Override
+    public Iterator<Batch> iterator() {
+        final Random random = new Random(seed);
+        return new Iterator<Batch>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public Batch next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return roundtrip(random, next++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Generate a roundtrip. Most roundtrips were received recently, a fifth of them are overdue by up to 100 days,
+     * one in twenty has had data received twice, and the number of other events varies from 5 to 40.
+     */
+    private Batch roundtrip(Random random, int index) {
+        long received;
+        if (random.nextInt(5) == 0) {
+            received = now - 20 * DAY - (long) (random.nextDouble() * 100 * DAY);
+        } else {
+            received = now - (long) (random.nextDouble() * 20 * DAY);
+        }
+        int otherEvents = 5 + random.nextInt(36);
+        List<Event> events = new ArrayList<>(otherEvents + 2);
+        events.add(event("Data_Received", received));
+        for (int i = 0; i < otherEvents; i++) {
+            events.add(event(EVENT_IDS[random.nextInt(EVENT_IDS.length)], received + (i + 1) * 3600000L));
+        }
+        if (random.nextInt(20) == 0) {
+            events.add(event("Data_Received", received + (otherEvents + 1) * 3600000L));
+        }
+        Batch batch = new Batch();
+        batch.setEventList(events);
+        batch.setBatchID(String.format("B4000%08d", index / 3));
+        batch.setRoundTripNumber(index % 3 + 1);
+        return batch;
+    }
+
+    private static Event event(String eventID, long time) {
+        Event event = new Event();
+        event.setEventID(eventID);
+        event.setDate(new Date(time));
+        return event;
+    }
+}
@@ -0,0 +1,233 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A persistent set of the alerts which have been sent, so an alert is not sent again if its event could not be
+ * recorded, or if another instance alerted the roundtrip. Alerts are remembered for a time to live, after which they
+ * may be sent again.
+ *
+ * An alert is identified by a 64 bit hash of its key, and the set is an open addressing table of hashes and send
+ * times, so a million alerts take 32 MB at most. A collision of hashes only suppresses an alert for the time to live,
+ * and is unlikely with fewer than billions of alerts.
+ *
+ * The file is a sequence of records of the hash and send time of an alert, appended and synced to disk for every
+ * alert, so an alert sent just before a crash is remembered. The file is compacted, by rewriting it with only the
+ * alerts still remembered, when most of its records are obsolete.
+ */
+public class AlertDedupStore {
+
+    private static Logger log = LoggerFactory.getLogger(AlertDedupStore.class);
+
+    private static final int RECORD_SIZE = 16;
+    private static final int COMPACT_MIN_RECORDS = 1000;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final File file;
+    private final long ttl;
+    private long[] hashes = new long[64];
+    private long[] times = new long[64];
+    private int size = 0;
+    private FileChannel channel;
+    private int records = 0;
+
+    /**
+     * Constructor for this class. Alerts already in the file which have not expired are loaded.
+     * @param file the file to keep the alerts in.
+     * @param ttl the number of milliseconds an alert is remembered.
+     * @throws IOException if the file could not be read or opened.
+     */
+    public AlertDedupStore(File file, long ttl) throws IOException {
+        this.file = file;
+        this.ttl = ttl;
+        load(System.currentTimeMillis());
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        log.info("Loaded {} sent alerts from {}", size, file);
+    }
+
+    /**
+     * Check whether an alert has been sent within the time to live.
+     * @param key the key of the alert.
+     * @param now the current time.
+     * @return true if the alert has been sent and should not be sent again.
+     */
+    public synchronized boolean contains(String key, long now) {
+        int slot = find(hash(key));
+        return hashes[slot] != 0 && times[slot] + ttl > now;
+    }
+
+    /**
+     * Remember that an alert has been sent.
+     * @param key the key of the alert.
+     * @param time the time the alert was sent.
+     * @throws IOException if the alert could not be written to the file.
+     */
+    public synchronized void add(String key, long time) throws IOException {
+        long hash = hash(key);
+        put(hash, time);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        buffer.putLong(hash).putLong(time).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        records++;
+    }
+
+    /**
+     * Forget the alerts which have expired, and compact the file if most of its records are obsolete.
+     * @param now the current time.
+     * @throws IOException if the file could not be compacted.
+     */
+    public synchronized void purge(long now) throws IOException {
+        long[] oldHashes = hashes;
+        long[] oldTimes = times;
+        hashes = new long[oldHashes.length];
+        times = new long[oldTimes.length];
+        size = 0;
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldHashes[i] != 0 && oldTimes[i] + ttl > now) {
+                put(oldHashes[i], oldTimes[i]);
+            }
+        }
+        if (records < COMPACT_MIN_RECORDS || records < 2 * size) {
+            return;
+        }
+        File compacted = new File(file.getPath() + ".compact");
+        try (OutputStream stream = Files.newOutputStream(compacted.toPath());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            for (int i = 0; i < hashes.length; i++) {
+                if (hashes[i] != 0) {
+                    out.writeLong(hashes[i]);
+                    out.writeLong(times[i]);
+                }
+            }
+        }
+        channel.close();
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        log.debug("Compacted sent alerts {} from {} to {} records", file, records, size);
+        records = size;
+    }
+
+    /**
+     * @return the number of alerts remembered, including any which have expired since the last purge.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Close the file.
+     */
+    public synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error("Failed to close sent alerts " + file, e);
+        }
+    }
+
+    private void put(long hash, long time) {
+        int slot = find(hash);
+        if (hashes[slot] == 0) {
+            hashes[slot] = hash;
+            size++;
+            if (2 * size > hashes.length) {
+                grow();
+                slot = find(hash);
+            }
+        }
+        times[slot] = Math.max(times[slot], time);
+    }
+
+    /**
+     * Find the slot of a hash by linear probing.
+     * @return the slot holding the hash, or the empty slot where it should be added.
+     */
+    private int find(long hash) {
+        int mask = hashes.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (hashes[slot] != 0 && hashes[slot] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldHashes = hashes;
+        long[] oldTimes = times;
+        hashes = new long[oldHashes.length * 2];
+        times = new long[oldTimes.length * 2];
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldHashes[i] != 0) {
+                int slot = find(oldHashes[i]);
+                hashes[slot] = oldHashes[i];
+                times[slot] = oldTimes[i];
+            }
+        }
+    }
+
+    private void load(long now) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (InputStream stream = Files.newInputStream(file.toPath());
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            while (true) {
+                long hash;
+                long time;
+                try {
+                    hash = in.readLong();
+                    time = in.readLong();
+                } catch (EOFException e) {
+                    //The end of the file, or a record cut short by a crash
+                    break;
+                }
+                records++;
+                if (time + ttl > now) {
+                    put(hash, time);
+                }
+            }
+        }
+        if (file.length() != (long) records * RECORD_SIZE) {
+            log.warn("Ignoring a record cut short at the end of sent alerts {}", file);
+            try (FileChannel truncating = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                truncating.truncate((long) records * RECORD_SIZE);
+            }
+        }
+    }
+
+    /**
+     * The 64 bit FNV-1a hash of a key. 0 marks an empty slot, so it is never returned.
+     */
+    static long hash(String key) {
+        long hash = FNV_OFFSET;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+}
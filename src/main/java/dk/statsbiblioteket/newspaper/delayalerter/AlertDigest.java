@@ -0,0 +1,195 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.mail.MessagingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects delayed roundtrips into digest mails, so that many delayed roundtrips result in a single mail rather than
+ * a mail each. A digest is sent when it holds the maximum number of entries or when the linger time has passed since
+ * its first entry was added, whichever comes first.
+ *
+ * Every entry is given a future which completes when the digest holding it has been sent, so the caller can decide
+ * whether to record that the alert was sent. An entry can also be given a callback which is run once the digest
+ * holding it has been sent, so the caller need not wait for it.
+ *
+ * The digest mails are rendered by an {@link AlertRenderer}, with the values of every roundtrip in the list rows and
+ * the number of roundtrips in count.
+ */
+public class AlertDigest {
+
+    private static Logger log = LoggerFactory.getLogger(AlertDigest.class);
+
+    private final SimpleMailer mailer;
+    private final AlertRenderer renderer;
+    private final List<String> recipients;
+    private final int maxEntries;
+    private final long lingerMillis;
+    private final ScheduledExecutorService executor;
+
+    private Digest current;
+
+    /**
+     * Constructor for this class.
+     * @param mailer the mailer used to send the digests.
+     * @param renderer the renderer of the digest mails.
+     * @param recipients the recipients of the digests.
+     * @param maxEntries the maximum number of roundtrips in a single digest.
+     * @param lingerMillis the number of milliseconds to wait for more entries before a digest is sent.
+     */
+    public AlertDigest(SimpleMailer mailer, AlertRenderer renderer, List<String> recipients, int maxEntries,
+                       long lingerMillis) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Max entries must be positive, was " + maxEntries);
+        }
+        this.mailer = mailer;
+        this.renderer = renderer;
+        this.recipients = recipients;
+        this.maxEntries = maxEntries;
+        this.lingerMillis = lingerMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "AlertDigest");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Add a delayed roundtrip to the current digest.
+     * @param values the values of the roundtrip for the digest templates.
+     * @return a future which completes when the digest holding the roundtrip has been sent, or fails with the
+     * exception from sending it.
+     */
+    public Future<Void> add(Map<String, Object> values) {
+        return add(values, null);
+    }
+
+    /**
+     * Add a delayed roundtrip to the current digest.
+     * @param values the values of the roundtrip for the digest templates.
+     * @param onSent run on the digest thread once the digest holding the roundtrip has been sent, or null.
+     * @return a future which completes when the digest holding the roundtrip has been sent, or fails with the
+     * exception from sending it.
+     */
+    public Future<Void> add(Map<String, Object> values, Runnable onSent) {
+        final Digest digest;
+        boolean full;
+        synchronized (this) {
+            if (current == null) {
+                current = new Digest();
+                final Digest lingering = current;
+                executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        send(lingering);
+                    }
+                }, lingerMillis, TimeUnit.MILLISECONDS);
+            }
+            digest = current;
+            digest.entries.add(values);
+            if (onSent != null) {
+                digest.onSent.add(onSent);
+            }
+            full = digest.entries.size() >= maxEntries;
+            if (full) {
+                //Start a new digest at once, so no more entries are added to this one before it is sent
+                current = null;
+            }
+        }
+        if (full) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    send(digest);
+                }
+            });
+        }
+        return digest.delivery;
+    }
+
+    /**
+     * Send the current digest immediately, if it holds any entries.
+     */
+    public void flush() {
+        Digest digest;
+        synchronized (this) {
+            digest = current;
+        }
+        if (digest != null) {
+            send(digest);
+        }
+    }
+
+    /**
+     * Send the current digest and stop the digest thread.
+     */
+    public void close() {
+        flush();
+        executor.shutdown();
+    }
+
+    private void send(Digest digest) {
+        synchronized (this) {
+            if (current == digest) {
+                current = null;
+            }
+        }
+        //Running a FutureTask which has already run does nothing, so a digest is only sent once
+        digest.delivery.run();
+    }
+
+    /**
+     * A single digest mail and the future of its delivery.
+     */
+    private class Digest {
+        private final List<Map<String, Object>> entries = new ArrayList<>();
+        private final List<Runnable> onSent = new ArrayList<>();
+        private final FutureTask<Void> delivery = new FutureTask<>(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                List<Map<String, Object>> sending;
+                List<Runnable> callbacks;
+                synchronized (AlertDigest.this) {
+                    sending = new ArrayList<>(entries);
+                    callbacks = new ArrayList<>(onSent);
+                }
+                Map<String, Object> values = new HashMap<>();
+                values.put("count", sending.size());
+                values.put("rows", sending);
+                if (!sending.isEmpty()) {
+                    values.put("tier", sending.get(0).get("tier"));
+                }
+                log.debug("Sending digest of {} roundtrips to {}", sending.size(), recipients);
+                try {
+                    renderer.renderDigest(values).send(mailer, recipients);
+                } catch (MessagingException | RuntimeException e) {
+                    log.error("Failed to send digest of " + sending.size() + " roundtrips to " + recipients, e);
+                    throw e;
+                }
+                for (Runnable callback : callbacks) {
+                    try {
+                        callback.run();
+                    } catch (RuntimeException e) {
+                        log.warn("Failed to handle the delivery of a digest entry", e);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+}
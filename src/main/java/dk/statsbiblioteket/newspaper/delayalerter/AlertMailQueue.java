@@ -0,0 +1,117 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded queue of outgoing mails, sent by dedicated sender threads. Callers get a future for each mail which
+ * completes when the mail has been sent. When the queue is full, callers wait for room in the queue.
+ */
+public class AlertMailQueue {
+
+    private static Logger log = LoggerFactory.getLogger(AlertMailQueue.class);
+
+    private final SimpleMailer mailer;
+    private final BlockingQueue<FutureTask<Void>> queue;
+    private final List<Thread> senders = new ArrayList<>();
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor for this class. The sender threads are started immediately.
+     * @param mailer the mailer used to send the mails.
+     * @param capacity the maximum number of mails waiting to be sent.
+     * @param senderCount the number of sender threads.
+     */
+    public AlertMailQueue(SimpleMailer mailer, int capacity, int senderCount) {
+        if (capacity < 1 || senderCount < 1) {
+            throw new IllegalArgumentException("Capacity and sender count must be positive, was "
+                    + capacity + " and " + senderCount);
+        }
+        this.mailer = mailer;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < senderCount; i++) {
+            Thread sender = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            }, "AlertMailQueue-" + i);
+            sender.setDaemon(true);
+            sender.start();
+            senders.add(sender);
+        }
+    }
+
+    /**
+     * Queue a mail for sending, waiting for room in the queue if it is full.
+     * @param to the recipients.
+     * @param message the mail.
+     * @return a future which completes when the mail has been sent, or fails with the exception from sending it.
+     * @throws InterruptedException if interrupted while waiting for room in the queue.
+     */
+    public Future<Void> submit(final List<String> to, final AlertMessage message) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("Mail queue has been closed");
+        }
+        FutureTask<Void> task = new FutureTask<>(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                message.send(mailer, to);
+                return null;
+            }
+        });
+        queue.put(task);
+        return task;
+    }
+
+    /**
+     * Stop accepting mails, send the mails already queued and stop the sender threads.
+     * @param timeout the maximum number of milliseconds to wait for the queued mails to be sent.
+     */
+    public void close(long timeout) {
+        closed = true;
+        long deadline = System.currentTimeMillis() + timeout;
+        for (Thread sender : senders) {
+            try {
+                sender.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (!queue.isEmpty()) {
+            log.warn("Mail queue closed with {} mails not sent", queue.size());
+            FutureTask<Void> task;
+            while ((task = queue.poll()) != null) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            FutureTask<Void> task;
+            try {
+                task = closed ? queue.poll() : queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task == null) {
+                if (closed) {
+                    return;
+                }
+                continue;
+            }
+            task.run();
+        }
+    }
+}
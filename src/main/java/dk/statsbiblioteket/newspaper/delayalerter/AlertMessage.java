@@ -0,0 +1,55 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import javax.mail.MessagingException;
+import java.util.List;
+
+/**
+ * A rendered alert mail: a subject, a plain text body and optionally an HTML body.
+ */
+public final class AlertMessage {
+
+    private final String subject;
+    private final String text;
+    private final String html;
+
+    /**
+     * Constructor for this class.
+     * @param subject the subject.
+     * @param text the plain text body.
+     * @param html the HTML body, or null for a plain text mail.
+     */
+    public AlertMessage(String subject, String text, String html) {
+        this.subject = subject;
+        this.text = text;
+        this.html = html;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return the HTML body, or null if the mail is plain text only.
+     */
+    public String getHtml() {
+        return html;
+    }
+
+    /**
+     * Send the message, as a plain text mail or as a multipart mail with both bodies if there is an HTML body.
+     * @param mailer the mailer to send it with.
+     * @param to the recipients.
+     * @throws MessagingException if the mail could not be sent.
+     */
+    public void send(SimpleMailer mailer, List<String> to) throws MessagingException {
+        if (html == null) {
+            mailer.sendMail(to, subject, text);
+        } else {
+            mailer.sendMail(to, subject, text, html);
+        }
+    }
+}
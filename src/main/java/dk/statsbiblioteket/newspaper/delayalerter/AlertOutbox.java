@@ -0,0 +1,481 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A durable outbox of alert mails which could not be sent. The outbox is an append-only file of records, one per
+ * line, so alerts survive a crash or a restart. A retry thread resends pending alerts with exponential backoff and
+ * jitter, and the alerts which are due are also resent when the outbox is started and when it is closed. An alert
+ * sent by the retry thread is marked as delivered, so the next run over the roundtrip can record the event without
+ * sending the mail again, after which the alert is removed from the outbox.
+ *
+ * Alerts do not stay in the outbox forever. An alert older than the time to live is dropped, whether it was delivered
+ * or not, and after a complete run the alerts of roundtrips which were not found by the run, as they are no longer
+ * open, are dropped by {@link #retainAll(Set)}.
+ *
+ * Appends are synced to disk in batches of syncEvery records, and by the retry thread when it runs. The file is
+ * compacted, by rewriting it with only the live alerts, when most of its records are obsolete.
+ */
+public class AlertOutbox {
+
+    /**
+     * The state of an alert in the outbox.
+     */
+    public enum State {
+        /** The alert is not in the outbox. */
+        ABSENT,
+        /** The alert is waiting to be sent. */
+        PENDING,
+        /** The alert has been sent by the outbox, but the event has not yet been recorded. */
+        DELIVERED
+    }
+
+    private static Logger log = LoggerFactory.getLogger(AlertOutbox.class);
+
+    private static final String PENDING = "P";
+    private static final String DELIVERED = "D";
+    private static final String REMOVED = "R";
+    private static final int COMPACT_MIN_RECORDS = 1000;
+
+    private final File file;
+    private final SimpleMailer mailer;
+    private final long retryInterval;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final long ttl;
+    private final int syncEvery;
+    private final Random random = new Random();
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final ScheduledExecutorService retrier;
+    private FileChannel channel;
+    private int records = 0;
+    private int unsynced = 0;
+
+    /**
+     * Constructor for this class. Alerts already in the outbox file are loaded and will be retried.
+     * @param file the outbox file.
+     * @param mailer the mailer used to resend alerts.
+     * @param retryInterval the number of milliseconds between checks for alerts due for a retry.
+     * @param initialBackoff the number of milliseconds before the first retry of an alert.
+     * @param maxBackoff the maximum number of milliseconds between retries of an alert.
+     * @param syncEvery the number of records to append before the file is synced to disk.
+     * @param ttl the number of milliseconds an alert is kept in the outbox after it was added.
+     * @throws IOException if the outbox file could not be read or opened.
+     */
+    public AlertOutbox(File file, SimpleMailer mailer, long retryInterval, long initialBackoff, long maxBackoff,
+                       int syncEvery, long ttl) throws IOException {
+        this.file = file;
+        this.mailer = mailer;
+        this.retryInterval = retryInterval;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.ttl = ttl;
+        this.syncEvery = Math.max(1, syncEvery);
+        load();
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.retrier = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "AlertOutbox");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        log.info("Loaded {} alerts from outbox {}", entries.size(), file);
+    }
+
+    /**
+     * Start retrying pending alerts. The alerts already due, such as those loaded from the file, are resent at once,
+     * so a run started from cron, which may end before the first retry interval, still resends them and can record
+     * their events.
+     */
+    public void start() {
+        retryDue();
+        retrier.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                retryDue();
+            }
+        }, retryInterval, retryInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the state of the alert for a roundtrip.
+     * @param fullID the full ID of the roundtrip.
+     * @return the state of the alert.
+     */
+    public synchronized State getState(String fullID) {
+        Entry entry = entries.get(fullID);
+        if (entry == null) {
+            return State.ABSENT;
+        }
+        return entry.delivered ? State.DELIVERED : State.PENDING;
+    }
+
+    /**
+     * Add an alert which could not be sent. It will be retried after the initial backoff.
+     * @param fullID the full ID of the roundtrip.
+     * @param to the recipients.
+     * @param subject the subject of the mail.
+     * @param text the text of the mail.
+     * @throws IOException if the alert could not be written to the outbox file.
+     */
+    public synchronized void add(String fullID, List<String> to, String subject, String text) throws IOException {
+        if (entries.containsKey(fullID)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(to, subject, text, now);
+        entry.nextAttempt = now + backoff(0);
+        entries.put(fullID, entry);
+        append(PENDING, fullID, join(to), subject, text, "" + now);
+    }
+
+    /**
+     * Remove the alert for a roundtrip once its event has been recorded.
+     * @param fullID the full ID of the roundtrip.
+     * @throws IOException if the removal could not be written to the outbox file.
+     */
+    public synchronized void remove(String fullID) throws IOException {
+        if (entries.remove(fullID) != null) {
+            append(REMOVED, fullID);
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * Drop the alerts of roundtrips which are no longer open. This is called after a complete run, which has found
+     * every open roundtrip, with the alerts checked in the run. The alerts of the other roundtrips would otherwise
+     * stay in the outbox, as no run looks for them again.
+     * @param keys the alerts checked in the run.
+     * @throws IOException if the removals could not be written to the outbox file.
+     */
+    public synchronized void retainAll(Set<String> keys) throws IOException {
+        int dropped = 0;
+        for (Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (!keys.contains(entry.getKey())) {
+                iterator.remove();
+                append(REMOVED, entry.getKey());
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            log.info("Dropped {} alerts of roundtrips no longer open from the outbox", dropped);
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * Stop retrying, resend the alerts which are due a last time, and close the outbox file, syncing it to disk.
+     */
+    public void close() {
+        retrier.shutdown();
+        try {
+            retrier.awaitTermination(retryInterval, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        retryDue();
+        synchronized (this) {
+            try {
+                channel.force(false);
+                channel.close();
+            } catch (IOException e) {
+                log.error("Failed to close outbox " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Resend the pending alerts which are due for a retry.
+     */
+    void retryDue() {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, Entry>> due = new ArrayList<>();
+        synchronized (this) {
+            try {
+                expire(now);
+            } catch (IOException e) {
+                log.error("Failed to drop expired alerts from outbox " + file, e);
+            }
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if (!entry.getValue().delivered && entry.getValue().nextAttempt <= now) {
+                    due.add(entry);
+                }
+            }
+        }
+        for (Map.Entry<String, Entry> entry : due) {
+            Entry alert = entry.getValue();
+            try {
+                mailer.sendMail(alert.to, alert.subject, alert.text);
+                synchronized (this) {
+                    alert.delivered = true;
+                    if (entries.get(entry.getKey()) == alert) {
+                        append(DELIVERED, entry.getKey());
+                    }
+                }
+                log.info("Resent alert for {} from the outbox", entry.getKey());
+            } catch (Exception e) {
+                synchronized (this) {
+                    alert.attempts++;
+                    alert.nextAttempt = System.currentTimeMillis() + backoff(alert.attempts);
+                }
+                log.warn("Failed to resend alert for " + entry.getKey() + ", attempt " + alert.attempts, e);
+            }
+        }
+        synchronized (this) {
+            try {
+                sync();
+            } catch (IOException e) {
+                log.error("Failed to sync outbox " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Drop the alerts older than the time to live. A pending alert has then failed for so long that it is given up,
+     * and will be sent again by a run which finds its roundtrip still overdue. A delivered alert whose roundtrip has
+     * not been found by a run since is most likely no longer open.
+     * @param now the current time.
+     * @throws IOException if the removals could not be written to the outbox file.
+     */
+    private void expire(long now) throws IOException {
+        int expired = 0;
+        for (Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (now - entry.getValue().created >= ttl) {
+                iterator.remove();
+                append(REMOVED, entry.getKey());
+                if (!entry.getValue().delivered) {
+                    log.warn("Giving up on alert {} after {} attempts", entry.getKey(), entry.getValue().attempts);
+                }
+                expired++;
+            }
+        }
+        if (expired > 0) {
+            log.info("Dropped {} expired alerts from the outbox", expired);
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * The backoff before the next attempt, doubling with every attempt up to the maximum backoff. Half of the backoff
+     * is random, so alerts that failed together are not all retried at the same time.
+     * @param attempts the number of failed retries so far.
+     * @return the number of milliseconds until the next attempt.
+     */
+    private long backoff(int attempts) {
+        long backoff = initialBackoff;
+        for (int i = 0; i < attempts && backoff < maxBackoff; i++) {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, maxBackoff);
+        return backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+    }
+
+    private void append(String... fields) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                line.append('\t');
+            }
+            line.append(escape(fields[i]));
+        }
+        line.append('\n');
+        ByteBuffer buffer = ByteBuffer.wrap(line.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        records++;
+        if (++unsynced >= syncEvery) {
+            sync();
+        }
+    }
+
+    private void sync() throws IOException {
+        if (unsynced > 0) {
+            channel.force(false);
+            unsynced = 0;
+        }
+    }
+
+    /**
+     * Rewrite the outbox file with only the live alerts, if most of the records in it are obsolete.
+     * @throws IOException if the file could not be rewritten.
+     */
+    private void compactIfNeeded() throws IOException {
+        if (records < COMPACT_MIN_RECORDS || records < 2 * entries.size()) {
+            return;
+        }
+        File compacted = new File(file.getPath() + ".compact");
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry alert = entry.getValue();
+            lines.add(escape(PENDING) + '\t' + escape(entry.getKey()) + '\t' + escape(join(alert.to)) + '\t'
+                    + escape(alert.subject) + '\t' + escape(alert.text) + '\t' + escape("" + alert.created));
+            if (alert.delivered) {
+                lines.add(escape(DELIVERED) + '\t' + escape(entry.getKey()));
+            }
+        }
+        Files.write(compacted.toPath(), lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+        channel.force(false);
+        channel.close();
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        log.debug("Compacted outbox {} from {} to {} records", file, records, lines.size());
+        records = lines.size();
+        unsynced = 0;
+    }
+
+    private void load() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                records++;
+                String[] fields = line.split("\t", -1);
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = unescape(fields[i]);
+                }
+                if (fields[0].equals(PENDING) && (fields.length == 5 || fields.length == 6)) {
+                    //Alerts written before they had a creation time expire one time to live after loading
+                    Entry entry = new Entry(split(fields[2]), fields[3], fields[4],
+                            fields.length == 6 ? parseTime(fields[5], now) : now);
+                    entry.nextAttempt = now;
+                    entries.put(fields[1], entry);
+                } else if (fields[0].equals(DELIVERED) && fields.length == 2 && entries.containsKey(fields[1])) {
+                    entries.get(fields[1]).delivered = true;
+                } else if (fields[0].equals(REMOVED) && fields.length == 2) {
+                    entries.remove(fields[1]);
+                } else {
+                    //Most likely the last line, cut short by a crash
+                    log.warn("Ignoring malformed record in outbox {}: {}", file, line);
+                }
+            }
+        }
+    }
+
+    private static long parseTime(String value, long otherwise) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return otherwise;
+        }
+    }
+
+    private static String join(List<String> values) {
+        StringBuilder joined = new StringBuilder();
+        for (String value : values) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(value);
+        }
+        return joined.toString();
+    }
+
+    private static List<String> split(String joined) {
+        return Arrays.asList(joined.split(","));
+    }
+
+    static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                case '\t':
+                    escaped.append("\\t");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    escaped.append("\\r");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    static String unescape(String value) {
+        StringBuilder unescaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                switch (next) {
+                    case 't':
+                        unescaped.append('\t');
+                        break;
+                    case 'n':
+                        unescaped.append('\n');
+                        break;
+                    case 'r':
+                        unescaped.append('\r');
+                        break;
+                    default:
+                        unescaped.append(next);
+                }
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+
+    /**
+     * An alert in the outbox.
+     */
+    private static class Entry {
+        private final List<String> to;
+        private final String subject;
+        private final String text;
+        private final long created;
+        private boolean delivered = false;
+        private int attempts = 0;
+        private long nextAttempt;
+
+        private Entry(List<String> to, String subject, String text, long created) {
+            this.to = to;
+            this.subject = subject;
+            this.text = text;
+            this.created = created;
+        }
+    }
+}
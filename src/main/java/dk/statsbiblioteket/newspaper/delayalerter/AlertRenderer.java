@@ -0,0 +1,126 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+/**
+ * Renders alert and digest mails from templates which are loaded and compiled once.
+ *
+ * A template named for example alert.text is looked for as alert_&lt;locale&gt;.text and then alert.text, in the
+ * template directory if one is configured, or else under templates/ on the classpath, which includes the conf
+ * directory of an installation. If neither is found, a built-in default is used. The templates are alert.subject,
+ * alert.text, alert.html, digest.subject, digest.text and digest.html. The HTML templates are only used if HTML mails
+ * are enabled, and have no built-in default.
+ */
+public class AlertRenderer {
+
+    static final String DEFAULT_ALERT_SUBJECT = "[Newspaper Delay Alert]{{roundtrip}}";
+
+    static final String DEFAULT_ALERT_TEXT = "Batch roundtrip {{roundtrip}} was received at {{received}}\n"
+            + " but has not yet been approved or rejected.";
+
+    static final String DEFAULT_DIGEST_SUBJECT = "[Newspaper Delay Alert] {{count}} delayed batch roundtrip(s)";
+
+    static final String DEFAULT_DIGEST_TEXT = "The following batch roundtrips have been received but not yet approved "
+            + "or rejected:\n\n{{#rows}}{{roundtrip}} received at {{received}}\n{{/rows}}";
+
+    private final AlertTemplate alertSubject;
+    private final AlertTemplate alertText;
+    private final AlertTemplate alertHtml;
+    private final AlertTemplate digestSubject;
+    private final AlertTemplate digestText;
+    private final AlertTemplate digestHtml;
+    private final AlertTemplate link;
+
+    /**
+     * Load and compile the templates.
+     * @param directory the template directory, or null to only look on the classpath.
+     * @param locale the locale of the templates, for example da or en.
+     * @param html whether to render HTML bodies.
+     * @param link a template for a link to a roundtrip, made available to the other templates as link, or null.
+     * @throws IOException if a template could not be read.
+     * @throws IllegalArgumentException if a template could not be compiled.
+     */
+    public AlertRenderer(File directory, String locale, boolean html, String link) throws IOException {
+        alertSubject = AlertTemplate.compile(load(directory, locale, "alert", "subject", DEFAULT_ALERT_SUBJECT).trim(),
+                false);
+        alertText = AlertTemplate.compile(load(directory, locale, "alert", "text", DEFAULT_ALERT_TEXT), false);
+        digestSubject = AlertTemplate.compile(
+                load(directory, locale, "digest", "subject", DEFAULT_DIGEST_SUBJECT).trim(), false);
+        digestText = AlertTemplate.compile(load(directory, locale, "digest", "text", DEFAULT_DIGEST_TEXT), false);
+        alertHtml = html ? compileHtml(directory, locale, "alert") : null;
+        digestHtml = html ? compileHtml(directory, locale, "digest") : null;
+        this.link = link == null || link.trim().isEmpty() ? null : AlertTemplate.compile(link.trim(), false);
+    }
+
+    /**
+     * Render the mail for a single roundtrip.
+     * @param values the values for the templates. The link is added to them.
+     * @return the rendered mail.
+     */
+    public AlertMessage renderAlert(Map<String, Object> values) {
+        addLink(values);
+        return new AlertMessage(alertSubject.render(values), alertText.render(values),
+                alertHtml == null ? null : alertHtml.render(values));
+    }
+
+    /**
+     * Render a digest mail.
+     * @param values the values for the templates, with the roundtrips in the list rows.
+     * @return the rendered mail.
+     */
+    public AlertMessage renderDigest(Map<String, Object> values) {
+        return new AlertMessage(digestSubject.render(values), digestText.render(values),
+                digestHtml == null ? null : digestHtml.render(values));
+    }
+
+    /**
+     * Add the link to a roundtrip to its values, if a link template is configured.
+     * @param values the values of the roundtrip.
+     */
+    public void addLink(Map<String, Object> values) {
+        if (link != null && !values.containsKey("link")) {
+            values.put("link", link.render(values));
+        }
+    }
+
+    private static AlertTemplate compileHtml(File directory, String locale, String name) throws IOException {
+        String source = load(directory, locale, name, "html", null);
+        return source == null ? null : AlertTemplate.compile(source, true);
+    }
+
+    private static String load(File directory, String locale, String name, String extension, String defaultSource)
+            throws IOException {
+        String[] fileNames = {name + "_" + locale + "." + extension, name + "." + extension};
+        for (String fileName : fileNames) {
+            if (directory != null) {
+                File file = new File(directory, fileName);
+                if (file.isFile()) {
+                    return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+                }
+            } else {
+                try (InputStream in = AlertRenderer.class.getClassLoader().getResourceAsStream("templates/" + fileName)) {
+                    if (in != null) {
+                        return read(in);
+                    }
+                }
+            }
+        }
+        return defaultSource;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
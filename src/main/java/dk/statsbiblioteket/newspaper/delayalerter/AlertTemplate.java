@@ -0,0 +1,225 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A template for the subject or body of an alert mail, compiled once so rendering a message does no parsing.
+ *
+ * The syntax is a small subset of Mustache: {{name}} is replaced by the value of name, and {{#name}}...{{/name}}
+ * renders its content once for every map in the list name, looking up names in the map before the outer values. If
+ * name is not a list, the content is rendered once unless the value is missing, false or empty. Missing values render
+ * as nothing. In HTML templates the values are escaped.
+ */
+public final class AlertTemplate {
+
+    private final List<Part> parts;
+    private final boolean html;
+
+    private AlertTemplate(List<Part> parts, boolean html) {
+        this.parts = parts;
+        this.html = html;
+    }
+
+    /**
+     * Compile a template.
+     * @param source the template.
+     * @param html whether values should be escaped for HTML.
+     * @return the compiled template.
+     * @throws IllegalArgumentException if a tag is not closed or sections are not properly nested.
+     */
+    public static AlertTemplate compile(String source, boolean html) {
+        Deque<Section> sections = new ArrayDeque<>();
+        List<Part> parts = new ArrayList<>();
+        int position = 0;
+        while (position < source.length()) {
+            int open = source.indexOf("{{", position);
+            if (open < 0) {
+                parts.add(new Literal(source.substring(position)));
+                break;
+            }
+            int close = source.indexOf("}}", open + 2);
+            if (close < 0) {
+                throw new IllegalArgumentException("Tag at position " + open + " is not closed");
+            }
+            String tag = source.substring(open + 2, close).trim();
+            int literalEnd = open;
+            int next = close + 2;
+            if (tag.startsWith("#") || tag.startsWith("/")) {
+                //A section tag alone on its line does not leave an empty line behind
+                int lineStart = source.lastIndexOf('\n', open - 1) + 1;
+                int lineEnd = source.indexOf('\n', next);
+                if (lineEnd < 0) {
+                    lineEnd = source.length();
+                }
+                if (lineStart >= position && isBlank(source, lineStart, open) && isBlank(source, next, lineEnd)) {
+                    literalEnd = lineStart;
+                    next = Math.min(lineEnd + 1, source.length());
+                }
+            }
+            if (literalEnd > position) {
+                parts.add(new Literal(source.substring(position, literalEnd)));
+            }
+            if (tag.startsWith("#")) {
+                Section section = new Section(tag.substring(1).trim(), parts);
+                sections.push(section);
+                parts = section.parts;
+            } else if (tag.startsWith("/")) {
+                String name = tag.substring(1).trim();
+                if (sections.isEmpty() || !sections.peek().name.equals(name)) {
+                    throw new IllegalArgumentException("Section end " + name + " at position " + open
+                            + " does not match a section start");
+                }
+                Section section = sections.pop();
+                parts = section.enclosing;
+                parts.add(section);
+            } else {
+                parts.add(new Variable(tag));
+            }
+            position = next;
+        }
+        if (!sections.isEmpty()) {
+            throw new IllegalArgumentException("Section " + sections.peek().name + " is not ended");
+        }
+        return new AlertTemplate(parts, html);
+    }
+
+    private static boolean isBlank(String source, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!Character.isWhitespace(source.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Render the template.
+     * @param values the values of the names in the template.
+     * @return the rendered text.
+     */
+    public String render(Map<String, ?> values) {
+        StringBuilder out = new StringBuilder();
+        render(parts, new Scope(values, null), out);
+        return out.toString();
+    }
+
+    private void render(List<Part> parts, Scope scope, StringBuilder out) {
+        for (Part part : parts) {
+            part.render(this, scope, out);
+        }
+    }
+
+    private void append(Object value, StringBuilder out) {
+        if (value == null) {
+            return;
+        }
+        String text = value.toString();
+        if (!html) {
+            out.append(text);
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '"':
+                    out.append("&quot;");
+                    break;
+                case '\'':
+                    out.append("&#39;");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+
+    /**
+     * The values visible while rendering, innermost section first.
+     */
+    private static final class Scope {
+        private final Map<String, ?> values;
+        private final Scope outer;
+
+        private Scope(Map<String, ?> values, Scope outer) {
+            this.values = values;
+            this.outer = outer;
+        }
+
+        private Object get(String name) {
+            for (Scope scope = this; scope != null; scope = scope.outer) {
+                Object value = scope.values.get(name);
+                if (value != null) {
+                    return value;
+                }
+            }
+            return null;
+        }
+    }
+
+    private interface Part {
+        void render(AlertTemplate template, Scope scope, StringBuilder out);
+    }
+
+    private static final class Literal implements Part {
+        private final String text;
+
+        private Literal(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void render(AlertTemplate template, Scope scope, StringBuilder out) {
+            out.append(text);
+        }
+    }
+
+    private static final class Variable implements Part {
+        private final String name;
+
+        private Variable(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void render(AlertTemplate template, Scope scope, StringBuilder out) {
+            template.append(scope.get(name), out);
+        }
+    }
+
+    private static final class Section implements Part {
+        private final String name;
+        private final List<Part> enclosing;
+        private final List<Part> parts = new ArrayList<>();
+
+        private Section(String name, List<Part> enclosing) {
+            this.name = name;
+            this.enclosing = enclosing;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void render(AlertTemplate template, Scope scope, StringBuilder out) {
+            Object value = scope.get(name);
+            if (value instanceof Iterable) {
+                for (Object row : (Iterable<?>) value) {
+                    template.render(parts, new Scope((Map<String, ?>) row, scope), out);
+                }
+            } else if (value != null && !Boolean.FALSE.equals(value) && !"".equals(value)) {
+                template.render(parts, scope, out);
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import java.util.List;
+
+/**
+ * A level of escalation for delayed roundtrips: after how many days a roundtrip is alerted, to whom, and which event
+ * records that the alert has been sent.
+ */
+public final class AlertTier {
+
+    private final String name;
+    private final int delayDays;
+    private final long alertPeriod;
+    private final List<String> recipients;
+    private final String eventID;
+
+    /**
+     * Constructor for this class.
+     * @param name the name of the tier.
+     * @param delayDays the number of days from receiving a roundtrip until it is alerted in this tier.
+     * @param recipients the recipients of alerts in this tier.
+     * @param eventID the event recording that a roundtrip has been alerted in this tier.
+     */
+    public AlertTier(String name, int delayDays, List<String> recipients, String eventID) {
+        this.name = name;
+        this.delayDays = delayDays;
+        this.alertPeriod = delayDays * 24 * 3600 * 1000L;
+        this.recipients = recipients;
+        this.eventID = eventID;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getDelayDays() {
+        return delayDays;
+    }
+
+    /**
+     * @return the number of milliseconds from receiving a roundtrip until it is alerted in this tier.
+     */
+    public long getAlertPeriod() {
+        return alertPeriod;
+    }
+
+    public List<String> getRecipients() {
+        return recipients;
+    }
+
+    public String getEventID() {
+        return eventID;
+    }
+
+    @Override
+    public String toString() {
+        return name + "(" + delayDays + " days, " + eventID + ")";
+    }
+}
@@ -0,0 +1,253 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timers, counters and gauges for the phases of a run of the delay alerter. All metrics are cumulative over the
+ * lifetime of the JVM, like Prometheus counters, except the gauge for the oldest unapproved roundtrip, which is
+ * taken from the latest completed run.
+ */
+public class AlerterMetrics {
+
+    /**
+     * The upper bounds of the histogram buckets of the timers, in milliseconds.
+     */
+    static final long[] BUCKETS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000,
+            300000, 3600000};
+
+    private final Timer run = new Timer("delay_alerter_run_seconds",
+            "Time for a whole run, including SBOI paging, locking and writing events");
+    private final Timer work = new Timer("delay_alerter_work_seconds",
+            "Time for the work on a single roundtrip");
+    private final Timer evaluate = new Timer("delay_alerter_evaluate_seconds",
+            "Time for evaluating and alerting a roundtrip found to have data received");
+    private final Timer send = new Timer("delay_alerter_send_seconds",
+            "Time for sending a single mail");
+    private final AtomicLong overdue = new AtomicLong();
+    private final AtomicLong notOverdue = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong duplicate = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong notOwned = new AtomicLong();
+    private final AtomicLong shortCircuited = new AtomicLong();
+    private final AtomicLong runOldestReceived = new AtomicLong(Long.MAX_VALUE);
+    private volatile long oldestReceived = Long.MAX_VALUE;
+    private volatile long oldestMeasured = 0;
+
+    public Timer getRun() {
+        return run;
+    }
+
+    public Timer getWork() {
+        return work;
+    }
+
+    public Timer getEvaluate() {
+        return evaluate;
+    }
+
+    public Timer getSend() {
+        return send;
+    }
+
+    public void incrementOverdue() {
+        overdue.incrementAndGet();
+    }
+
+    public void incrementNotOverdue() {
+        notOverdue.incrementAndGet();
+    }
+
+    public void incrementSent() {
+        sent.incrementAndGet();
+    }
+
+    public void incrementFailed() {
+        failed.incrementAndGet();
+    }
+
+    public void incrementDuplicate() {
+        duplicate.incrementAndGet();
+    }
+
+    public void incrementRateLimited() {
+        rateLimited.incrementAndGet();
+    }
+
+    public void incrementNotOwned() {
+        notOwned.incrementAndGet();
+    }
+
+    public void incrementShortCircuited() {
+        shortCircuited.incrementAndGet();
+    }
+
+    /**
+     * Record the time data was received for an unapproved roundtrip seen in the current run.
+     * @param receivedTime the time data was received.
+     */
+    public void recordReceived(long receivedTime) {
+        long oldest = runOldestReceived.get();
+        while (receivedTime < oldest && !runOldestReceived.compareAndSet(oldest, receivedTime)) {
+            oldest = runOldestReceived.get();
+        }
+    }
+
+    /**
+     * Start tracking the oldest unapproved roundtrip for a new run.
+     */
+    public void beginRun() {
+        runOldestReceived.set(Long.MAX_VALUE);
+    }
+
+    /**
+     * Publish the oldest unapproved roundtrip seen in the run which has just completed.
+     */
+    public void endRun() {
+        oldestReceived = runOldestReceived.get();
+        oldestMeasured = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the age in milliseconds of the oldest unapproved roundtrip in the latest completed run, or 0 if there
+     * was none.
+     */
+    public long getOldestUnapprovedAge() {
+        long oldest = oldestReceived;
+        return oldest == Long.MAX_VALUE ? 0 : oldestMeasured - oldest;
+    }
+
+    /**
+     * @return a short summary of the metrics, for logging.
+     */
+    public String summary() {
+        return "overdue=" + overdue.get() + " notOverdue=" + notOverdue.get() + " sent=" + sent.get()
+                + " failed=" + failed.get() + " " + work.summary("work") + " " + send.summary("send");
+    }
+
+    /**
+     * @return the metrics in the Prometheus text exposition format.
+     */
+    public String toPrometheusText() {
+        StringBuilder text = new StringBuilder();
+        run.write(text);
+        work.write(text);
+        evaluate.write(text);
+        send.write(text);
+        writeCounter(text, "delay_alerter_overdue_total", "Roundtrips found overdue", overdue.get());
+        writeCounter(text, "delay_alerter_not_overdue_total", "Roundtrips found not yet overdue", notOverdue.get());
+        writeCounter(text, "delay_alerter_sent_total", "Roundtrips alerted", sent.get());
+        writeCounter(text, "delay_alerter_failed_total", "Roundtrips which could not be alerted", failed.get());
+        writeCounter(text, "delay_alerter_duplicate_total", "Roundtrips not alerted again as the alert had been sent",
+                duplicate.get());
+        writeCounter(text, "delay_alerter_rate_limited_total", "Roundtrips held back by the rate limit of every recipient",
+                rateLimited.get());
+        writeCounter(text, "delay_alerter_not_owned_total", "Roundtrips skipped as their batch belongs to another node",
+                notOwned.get());
+        writeCounter(text, "delay_alerter_short_circuited_total", "Mails failed at once as the smtp host was down",
+                shortCircuited.get());
+        text.append("# HELP delay_alerter_oldest_unapproved_age_seconds Age of the oldest unapproved roundtrip in the latest run\n");
+        text.append("# TYPE delay_alerter_oldest_unapproved_age_seconds gauge\n");
+        text.append("delay_alerter_oldest_unapproved_age_seconds ").append(seconds(getOldestUnapprovedAge())).append('\n');
+        return text.toString();
+    }
+
+    private static void writeCounter(StringBuilder text, String name, String help, long value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" counter\n");
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long millis) {
+        return String.format(Locale.ROOT, "%.3f", millis / 1000.0);
+    }
+
+    /**
+     * A timer with a fixed-bucket histogram of durations.
+     */
+    public static class Timer {
+        private final String name;
+        private final String help;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        private Timer(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        /**
+         * Record a duration.
+         * @param nanos the duration in nanoseconds.
+         */
+        public void record(long nanos) {
+            long millis = nanos / 1000000L;
+            int bucket = 0;
+            while (bucket < BUCKETS.length && millis > BUCKETS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+        }
+
+        /**
+         * Record the time since a start time.
+         * @param startNanos the start time, from System.nanoTime().
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Estimate a percentile of the recorded durations as the upper bound of the bucket holding it.
+         * @param quantile the quantile, between 0 and 1.
+         * @return the estimated duration in milliseconds, or -1 if nothing has been recorded or it is above the
+         * largest bucket.
+         */
+        public long percentile(double quantile) {
+            long total = count.get();
+            if (total == 0) {
+                return -1;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return BUCKETS[i];
+                }
+            }
+            return -1;
+        }
+
+        private String summary(String label) {
+            return label + "[count=" + count.get() + " p50<=" + percentile(0.5) + "ms p95<=" + percentile(0.95)
+                    + "ms p99<=" + percentile(0.99) + "ms]";
+        }
+
+        private void write(StringBuilder text) {
+            text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            text.append("# TYPE ").append(name).append(" histogram\n");
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += buckets.get(i);
+                text.append(name).append("_bucket{le=\"").append(seconds(BUCKETS[i])).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            cumulative += buckets.get(BUCKETS.length);
+            text.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+            text.append(name).append("_sum ")
+                    .append(String.format(Locale.ROOT, "%.6f", totalNanos.get() / 1e9)).append('\n');
+            text.append(name).append("_count ").append(count.get()).append('\n');
+        }
+    }
+}
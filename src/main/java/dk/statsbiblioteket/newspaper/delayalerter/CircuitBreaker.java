@@ -0,0 +1,86 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+/**
+ * A circuit breaker around the smtp host. After a number of consecutive failures the breaker opens, and sends fail at
+ * once instead of each waiting for the timeouts of a host which is down. When the breaker has been open for a while
+ * it is half open: a single send is let through as a probe, and the breaker closes if it succeeds or opens again if
+ * it fails.
+ */
+public class CircuitBreaker {
+
+    /**
+     * The states of the breaker.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openTime;
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openedAt;
+    private boolean probing = false;
+
+    /**
+     * Constructor for this class.
+     * @param failureThreshold the number of consecutive failures which opens the breaker.
+     * @param openTime the number of milliseconds the breaker stays open before a probe is let through.
+     */
+    public CircuitBreaker(int failureThreshold, long openTime) {
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+    }
+
+    /**
+     * Ask whether a send may be attempted. If this returns true, either {@link #success()} or
+     * {@link #failure(long)} must be called when the send is done.
+     * @param now the current time.
+     * @return true if the send may be attempted, false if it should fail at once.
+     */
+    public synchronized boolean allow(long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - openedAt < openTime) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probing = true;
+                return true;
+            default:
+                if (probing) {
+                    return false;
+                }
+                probing = true;
+                return true;
+        }
+    }
+
+    /**
+     * Record a send which succeeded, closing the breaker.
+     */
+    public synchronized void success() {
+        state = State.CLOSED;
+        failures = 0;
+        probing = false;
+    }
+
+    /**
+     * Record a send which failed, opening the breaker if it was a probe or the threshold has been reached.
+     * @param now the current time.
+     */
+    public synchronized void failure(long now) {
+        failures++;
+        probing = false;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = now;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
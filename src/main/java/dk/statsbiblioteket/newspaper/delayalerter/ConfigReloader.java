@@ -0,0 +1,57 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Reloads the configuration of a component when the properties file has changed. Only the settings in
+ * {@link DelayAlerterConfig} are reloaded; the properties for the autonomous component framework are read once at
+ * startup. An invalid configuration is logged and ignored, so the component keeps running with the last valid one.
+ */
+public class ConfigReloader {
+
+    private static Logger log = LoggerFactory.getLogger(ConfigReloader.class);
+
+    private final File file;
+    private final DelayAlerterComponent component;
+    private long lastModified;
+
+    /**
+     * Constructor for this class.
+     * @param file the properties file to watch.
+     * @param component the component to give the reloaded configuration.
+     */
+    public ConfigReloader(File file, DelayAlerterComponent component) {
+        this.file = file;
+        this.component = component;
+        this.lastModified = file.lastModified();
+    }
+
+    /**
+     * Reload the configuration if the properties file has been modified since it was last read.
+     * @return true if a new configuration was applied.
+     */
+    public boolean reloadIfChanged() {
+        long modified = file.lastModified();
+        if (modified == lastModified) {
+            return false;
+        }
+        lastModified = modified;
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+            component.setConfig(new DelayAlerterConfig(properties));
+            log.info("Reloaded configuration from {}", file);
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            log.error("Failed to reload configuration from " + file + ", keeping the previous configuration", e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * An index of the roundtrips which are not yet overdue, ordered by the time they become overdue. It is filled from
+ * the roundtrips seen in a run, and kept between runs in daemon mode so the daemon can poll as soon as a deadline has
+ * passed instead of waiting for the next regular poll.
+ *
+ * Roundtrips which are approved or stopped are no longer selected by the component, so they are never seen again.
+ * They are removed at the end of the first complete run in which they were not seen.
+ *
+ * The index can be saved to and loaded from a state file, together with the time of the last complete run, so it
+ * survives between runs started from cron.
+ *
+ * Removed and updated roundtrips are only dropped from the queue when they reach its head, so every operation is
+ * logarithmic in the number of roundtrips in the index.
+ */
+public class DeadlineIndex {
+
+    private static final String LAST_COMPLETE_RUN = "lastCompleteRun=";
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+    private final Map<String, Entry> entries = new HashMap<>();
+    private long generation = 0;
+    private long runStart = 0;
+    private long lastCompleteRun = 0;
+
+    /**
+     * Load an index from a state file.
+     * @param file the state file.
+     * @return the index in the file, or an empty index if the file does not exist.
+     * @throws IOException if the file could not be read or is malformed.
+     */
+    public static DeadlineIndex load(File file) throws IOException {
+        DeadlineIndex index = new DeadlineIndex();
+        if (!file.exists()) {
+            return index;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null || !line.startsWith(LAST_COMPLETE_RUN)) {
+                throw new IOException("Malformed state file " + file);
+            }
+            try {
+                index.lastCompleteRun = Long.parseLong(line.substring(LAST_COMPLETE_RUN.length()));
+                while ((line = reader.readLine()) != null) {
+                    int tab = line.lastIndexOf('\t');
+                    if (tab < 0) {
+                        throw new IOException("Malformed line in state file " + file + ": " + line);
+                    }
+                    index.put(line.substring(0, tab), Long.parseLong(line.substring(tab + 1)));
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed state file " + file, e);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Save the index to a state file. The file is replaced atomically, so a crash never leaves a partly written file.
+     * @param file the state file.
+     * @throws IOException if the file could not be written.
+     */
+    public synchronized void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(LAST_COMPLETE_RUN + lastCompleteRun);
+            writer.newLine();
+            for (Entry entry : entries.values()) {
+                writer.write(entry.id + '\t' + entry.deadline);
+                writer.newLine();
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Start a new run. Roundtrips not seen again before {@link #endRun()} are removed.
+     * @param time the time the run started.
+     */
+    public synchronized void beginRun(long time) {
+        generation++;
+        runStart = time;
+    }
+
+    /**
+     * End a complete run by removing the roundtrips which were not seen in it.
+     */
+    public synchronized void endRun() {
+        lastCompleteRun = runStart;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().generation != generation) {
+                iterator.remove();
+            }
+        }
+        if (queue.size() > 2 * entries.size()) {
+            queue.clear();
+            queue.addAll(entries.values());
+        }
+    }
+
+    /**
+     * Add or update the deadline of a roundtrip.
+     * @param id the full ID of the roundtrip.
+     * @param deadline the time the roundtrip becomes overdue.
+     */
+    public synchronized void put(String id, long deadline) {
+        Entry entry = entries.get(id);
+        if (entry != null && entry.deadline == deadline) {
+            entry.generation = generation;
+            return;
+        }
+        entry = new Entry(id, deadline, generation);
+        entries.put(id, entry);
+        queue.add(entry);
+    }
+
+    /**
+     * Remove a roundtrip, for example because it has been alerted.
+     * @param id the full ID of the roundtrip.
+     */
+    public synchronized void remove(String id) {
+        entries.remove(id);
+    }
+
+    /**
+     * @return the earliest deadline in the index, or Long.MAX_VALUE if it is empty.
+     */
+    public synchronized long nextDeadline() {
+        Entry first = head();
+        return first == null ? Long.MAX_VALUE : first.deadline;
+    }
+
+    /**
+     * @return the start time of the last complete run, or 0 if there has been none.
+     */
+    public synchronized long getLastCompleteRun() {
+        return lastCompleteRun;
+    }
+
+    /**
+     * Drop removed and replaced entries from the head of the queue.
+     * @return the current entry with the earliest deadline, or null if there is none.
+     */
+    private Entry head() {
+        Entry entry;
+        while ((entry = queue.peek()) != null && entries.get(entry.id) != entry) {
+            queue.poll();
+        }
+        return entry;
+    }
+
+    /**
+     * @return the number of roundtrips in the index.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        private final String id;
+        private final long deadline;
+        private long generation;
+
+        private Entry(String id, long deadline, long generation) {
+            this.id = id;
+            this.deadline = deadline;
+            this.generation = generation;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return Long.compare(deadline, other.deadline);
+        }
+    }
+}
@@ -7,8 +7,8 @@ import dk.statsbiblioteket.medieplatform.autonomous.Batch;
 import dk.statsbiblioteket.medieplatform.autonomous.CallResult;
 import dk.statsbiblioteket.medieplatform.autonomous.Event;
 import dk.statsbiblioteket.medieplatform.autonomous.ResultCollector;
-import dk.statsbiblioteket.medieplatform.autonomous.RunnableComponent;
 import dk.statsbiblioteket.medieplatform.autonomous.NewspaperBatchAutonomousComponentUtils;
+import dk.statsbiblioteket.medieplatform.autonomous.NewspaperDomsEventStorage;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,11 +16,29 @@ import org.slf4j.LoggerFactory;
 import javax.mail.MessagingException;
 import javax.xml.bind.JAXBException;
 
+import java.io.File;
 import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This is an autonomous component which checks if a batch has been active for too long without reaching
@@ -30,19 +48,124 @@ import java.util.Properties;
  *
  * The component will only create an event to indicate that it is complete if it actually (successfully) sends a
  * warning email. In this way it can be rerun multiple times for a given batch-roundtrip.
+ *
+ * If digest mode is enabled, delayed roundtrips are collected into digest mails by an {@link AlertDigest}. With a
+ * dedup file, the worker for each roundtrip only queues it in the digest and returns without creating the event;
+ * once the digest has been sent its alerts are remembered as sent, and the next run creates their events without
+ * sending them again. Without a dedup file, or with several channels, the worker waits until the digest holding it
+ * has been sent, so the event is still only created for roundtrips whose alert was actually sent. Likewise, if the
+ * mail queue is enabled, alert mails are sent by the threads of an {@link AlertMailQueue}, and the worker waits a
+ * bounded time for its mail to be sent.
+ *
+ * If an outbox file is configured, alerts which could not be sent are kept in an {@link AlertOutbox} and resent
+ * with backoff. A roundtrip whose alert is waiting in the outbox is not sent again, and once the outbox has sent it
+ * the next run records the event without sending another mail. After a complete run the alerts of roundtrips the run
+ * did not find are dropped from the outbox, as those roundtrips are no longer open.
+ *
+ * If a dedup file is configured, the alerts sent are remembered in an {@link AlertDedupStore}, and an alert
+ * remembered there is not sent again, only its event is recorded. If a rate limit is configured, a
+ * {@link RecipientRateLimiter} holds back the alert mails to recipients who have received too many, and sends them a
+ * summary at the end of the run instead. The rate limits and the alerts not yet summarised are kept in a file between
+ * runs.
+ *
+ * Alerts can be sent through other channels than mail, such as a webhook or a file. With more than the mail channel
+ * configured, a {@link NotifierDispatcher} sends every alert through all the channels at once, and the event is only
+ * recorded if a quorum of them succeeded.
+ *
+ * Alerts can escalate through several {@link AlertTier}s, each with its own delay, recipients and event. The
+ * component is run once per tier, and the query for each tier only selects roundtrips which have the event of the
+ * previous tier but not the event of this or any later tier, so every roundtrip is only fetched in the run for its
+ * next tier and adding tiers does not multiply the scans of the repository.
+ *
+ * With a {@link DeadlineIndex}, the component remembers when each roundtrip it has seen becomes due for its next
+ * tier. If a full scan interval is configured, runs are skipped until a deadline has passed or the last complete run
+ * is older than the interval, and the index can be kept in a state file between runs started from cron.
+ *
+ * With adaptive delays, the component learns from the approved roundtrips how long the roundtrips of each group of
+ * batches take, in {@link ProcessingTimes}, and alerts a roundtrip when it has taken longer than most roundtrips of
+ * its group instead of after the fixed delay of the first tier.
+ *
+ * The configuration is parsed and validated once into a {@link DelayAlerterConfig}. In daemon mode it can be
+ * replaced while the component is running, and each roundtrip is handled with the configuration current when its
+ * handling started.
  */
 public class DelayAlerterComponent extends AbstractRunnableComponent<Batch> {
 
     private SimpleMailer mailer;
 
+    private final AtomicReference<DelayAlerterConfig> config = new AtomicReference<>();
+
+    private volatile AlertDigest digest;
+
+    private volatile AlertRenderer renderer;
+
+    private volatile AlertMailQueue mailQueue;
+
+    private volatile AlertOutbox outbox;
+
+    private volatile AlertDedupStore dedupStore;
+
+    private volatile RecipientRateLimiter rateLimiter;
+
+    private volatile NotifierDispatcher dispatcher;
+
+    private final AlerterMetrics metrics = new AlerterMetrics();
+
+    private volatile PrometheusExporter metricsExporter;
+
+    private volatile AlertTier tier;
+
+    private volatile long runStart;
+
+    private volatile long overdueCutoff;
+
+    private volatile DeadlineIndex deadlineIndex;
+
+    private volatile ShardMembership shards;
+
+    private volatile ProcessingTimes processingTimes;
+
+    private final AtomicBoolean completeRunRequested = new AtomicBoolean(false);
+
+    private final AtomicBoolean shardsUnknown = new AtomicBoolean(false);
+
+    private final Set<String> checkedAlerts = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final ConcurrentHashMap<String, OpenRoundtrip> openRoundtrips = new ConcurrentHashMap<>();
+
+    private final Set<String> seenRoundtrips = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private volatile Set<String> changedRoundtrips;
+
     public static String EMAIL_SENT_EVENT = "Warning_Email_Sent";
 
+    static final String DATA_RECEIVED_EVENT = "Data_Received";
+
+    static final long NOT_RECEIVED = Long.MIN_VALUE;
+
+    static final String PAST_SUCCESSFUL_EVENTS = "autonomous.pastSuccessfulEvents";
+
+    static final String FUTURE_EVENTS = "autonomous.futureEvents";
+
+    static final String MAX_THREADS = "autonomous.maxThreads";
+
+    static final String WORK_QUEUE_SIZE = "autonomous.workQueueSize";
+
+    static final String LOCKSERVER_URL = "autonomous.lockserver.url";
+
+    static final String REPORT_OPTION = "-report";
+
+    static final String FORMAT_OPTION = "-format";
+
     private static Logger log = LoggerFactory.getLogger(DelayAlerterComponent.class);
 
     /**
      * This is the main method for this autonomous component. It's arguments should be
      * -c \<config.properties>
      *
+     * With -report \<file> added, a report of the overdue roundtrips is written to the file, or to standard output
+     * if the file is -, instead of alerting them. The report is CSV unless -format jsonl is added.
+     *
      * @param args the arguments.
      * @throws IOException
      */
@@ -52,15 +175,385 @@ public class DelayAlerterComponent extends AbstractRunnableComponent<Batch> {
 
     static int doMain(String[] args) throws IOException {
         log.info("Starting with args {}", new Object[]{args});
-        Properties properties = AutonomousComponentUtils.parseArgs(args);
-        SimpleMailer mailer = new SimpleMailer(
-                properties.getProperty(DelayAlerterConfigConstants.EMAIL_FROM_ADDRESS),
-                properties.getProperty(DelayAlerterConfigConstants.SMTP_HOST),
-                properties.getProperty(DelayAlerterConfigConstants.SMTP_PORT));
-        RunnableComponent component = new DelayAlerterComponent(properties, mailer);
-        CallResult result = NewspaperBatchAutonomousComponentUtils.startAutonomousComponent(properties, component);
-        log.info(result.toString());
-        return result.containsFailures();
+        StartupTimings timings = new StartupTimings();
+        String reportTarget = getOption(args, REPORT_OPTION);
+        String reportFormat = getOption(args, FORMAT_OPTION);
+        Properties properties = AutonomousComponentUtils.parseArgs(removeOptions(args, REPORT_OPTION, FORMAT_OPTION));
+        DelayAlerterConfig config = new DelayAlerterConfig(properties);
+        timings.mark("config");
+        if (reportTarget != null) {
+            OverdueReport.Format format;
+            try {
+                format = OverdueReport.Format.valueOf((reportFormat == null ? "csv" : reportFormat).toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Option " + FORMAT_OPTION + " with value '" + reportFormat
+                        + "' is not csv or jsonl", e);
+            }
+            OverdueReport.run(properties, config, reportTarget, format);
+            return 0;
+        }
+        config.checkMailSettings();
+        DeadlineIndex deadlineIndex = null;
+        if ((config.isDaemonEnabled() && config.isDeadlineIndexEnabled()) || config.getFullScanInterval() > 0) {
+            deadlineIndex = config.getStateFile() == null
+                    ? new DeadlineIndex() : DeadlineIndex.load(config.getStateFile());
+            timings.mark("state");
+            if (!config.isDaemonEnabled() && config.getFullScanInterval() > 0
+                    && !isRunDue(deadlineIndex, config.getFullScanInterval(), System.currentTimeMillis())) {
+                timings.mark("decision");
+                log.info("Startup: {}", timings);
+                return 0;
+            }
+        }
+        SimpleMailer mailer = new SimpleMailer(config.getFromAddress(), config.getSmtpHost(), config.getSmtpPort(),
+                config.getSmtpPoolSize(), config.getSmtpPoolIdleTimeout(), config.getSmtpConnectionTimeout(),
+                config.getSmtpTimeout());
+        if (config.getCircuitBreakerFailures() > 0) {
+            mailer.setCircuitBreaker(new CircuitBreaker(config.getCircuitBreakerFailures(),
+                    config.getCircuitBreakerOpenTime()));
+        }
+        timings.mark("mailer");
+        DelayAlerterComponent component = new DelayAlerterComponent(properties, mailer);
+        mailer.setMetrics(component.getMetrics());
+        timings.mark("component");
+        PrometheusExporter exporter = new PrometheusExporter(component.getMetrics(), config.getMetricsFile(),
+                config.getMetricsHttpPort());
+        component.setMetricsExporter(exporter);
+        AlertOutbox outbox = null;
+        AlertDedupStore dedupStore = null;
+        ShardMembership shards = null;
+        CountDownLatch cleanedUp = new CountDownLatch(1);
+        try {
+            exporter.start();
+            timings.mark("metrics");
+            if (config.isShardEnabled()) {
+                shards = new ShardMembership(properties.getProperty(LOCKSERVER_URL), config.getShardPath(),
+                        config.getShardNodeName(), config.getShardVirtualNodes(), config.getShardSessionTimeout());
+                shards.start();
+                component.setShards(shards);
+                timings.mark("shards");
+            }
+            if (config.getOutboxFile() != null) {
+                outbox = new AlertOutbox(config.getOutboxFile(), mailer, config.getOutboxRetryInterval(),
+                        config.getOutboxInitialBackoff(), config.getOutboxMaxBackoff(), config.getOutboxSyncEvery(),
+                        config.getOutboxTtl());
+                outbox.start();
+                component.setOutbox(outbox);
+                timings.mark("outbox");
+            }
+            if (config.getDedupFile() != null) {
+                dedupStore = new AlertDedupStore(config.getDedupFile(), config.getDedupTtl());
+                component.setDedupStore(dedupStore);
+                timings.mark("dedup");
+            }
+            if (config.isAdaptiveEnabled()) {
+                component.setProcessingTimes(config.getAdaptiveFile() == null
+                        ? new ProcessingTimes(config.getAdaptivePrefixLength())
+                        : ProcessingTimes.load(config.getAdaptiveFile(), config.getAdaptivePrefixLength()));
+                timings.mark("adaptive");
+            }
+            component.setDeadlineIndex(deadlineIndex);
+            log.info("Startup: {}", timings);
+            if (config.isDaemonEnabled()) {
+                File configFile = getConfigFile(args);
+                ConfigReloader reloader = configFile == null ? null : new ConfigReloader(configFile, component);
+                runDaemon(properties, component, mailer, reloader, config, cleanedUp);
+                return 0;
+            }
+            return runOnce(properties, component);
+        } finally {
+            try {
+                component.close();
+                if (shards != null) {
+                    shards.close();
+                }
+                if (outbox != null) {
+                    outbox.close();
+                }
+                if (dedupStore != null) {
+                    dedupStore.close();
+                }
+                mailer.close();
+                exporter.stop();
+            } finally {
+                cleanedUp.countDown();
+            }
+        }
+    }
+
+    /**
+     * Find the value of an option in the arguments.
+     * @param args the arguments.
+     * @param option the option, for example -report.
+     * @return the value following the option, or null if the option was not given.
+     */
+    private static String getOption(String[] args, String option) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(option)) {
+                return args[i + 1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove options and their values from the arguments, so only the arguments of the framework remain.
+     * @param args the arguments.
+     * @param options the options to remove.
+     * @return the remaining arguments.
+     */
+    private static String[] removeOptions(String[] args, String... options) {
+        List<String> remaining = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (Arrays.asList(options).contains(args[i]) && i + 1 < args.length) {
+                i++;
+            } else {
+                remaining.add(args[i]);
+            }
+        }
+        return remaining.toArray(new String[remaining.size()]);
+    }
+
+    /**
+     * Find the properties file given with -c in the arguments.
+     * @param args the arguments.
+     * @return the properties file, or null if none was given.
+     */
+    private static File getConfigFile(String[] args) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals("-c")) {
+                return new File(args[i + 1]);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Run the component once over all the roundtrips it is triggered by, tier by tier.
+     * @param properties the properties for the autonomous component framework.
+     * @param component the component to run.
+     * @return the number of failures.
+     */
+    static int runOnce(Properties properties, DelayAlerterComponent component) throws IOException {
+        if (!component.isRunDue()) {
+            return 0;
+        }
+        component.beginRun();
+        long start = System.nanoTime();
+        boolean complete = false;
+        try {
+            int failures = runTiers(properties, component, component.getConfig(), 0);
+            complete = !component.wereShardsUnknown();
+            if (complete) {
+                component.learnProcessingTimes(properties);
+            }
+            return failures;
+        } finally {
+            component.getMetrics().getRun().recordSince(start);
+            component.endRun(complete);
+        }
+    }
+
+    /**
+     * Run the component over the roundtrips which have changed, if they were open in the last run. Only the tiers
+     * they were last seen in, and the later tiers they may have moved on to, are run, and every other roundtrip is
+     * skipped. A changed roundtrip not seen in the run is no longer open, so it is forgotten.
+     * @param properties the properties for the autonomous component framework.
+     * @param component the component to run.
+     * @param pids the PIDs of the roundtrips changed.
+     * @return the number of failures.
+     */
+    static int runChanged(Properties properties, DelayAlerterComponent component, Set<String> pids)
+            throws IOException {
+        DelayAlerterConfig runConfig = component.getConfig();
+        int first = component.firstOpenTier(pids, runConfig.getTiers());
+        if (first < 0) {
+            log.info("None of the changed roundtrips are open, skipping this run");
+            return 0;
+        }
+        component.beginRun();
+        component.changedRoundtrips = pids;
+        long start = System.nanoTime();
+        int failures = 1;
+        try {
+            failures = runTiers(properties, component, runConfig, first);
+            return failures;
+        } finally {
+            component.changedRoundtrips = null;
+            if (failures == 0 && !component.wereShardsUnknown()) {
+                component.forgetUnseen(pids);
+            }
+            component.getMetrics().getRun().recordSince(start);
+            component.endRun(false);
+        }
+    }
+
+    /**
+     * Run the component over the roundtrips of the tiers from a given tier on.
+     * @param properties the properties for the autonomous component framework.
+     * @param component the component to run.
+     * @param runConfig the configuration of the run.
+     * @param first the index of the first tier to run.
+     * @return the number of failures.
+     */
+    private static int runTiers(Properties properties, DelayAlerterComponent component, DelayAlerterConfig runConfig,
+                                int first) {
+        List<AlertTier> tiers = runConfig.getTiers();
+        int failures = 0;
+        for (int i = first; i < tiers.size(); i++) {
+            component.beginTier(tiers.get(i));
+            CallResult result = NewspaperBatchAutonomousComponentUtils.startAutonomousComponent(
+                    executionProperties(tierProperties(properties, tiers, i), runConfig), component);
+            log.info("Tier {}: {}", tiers.get(i), result);
+            failures += result.containsFailures();
+        }
+        return failures;
+    }
+
+    /**
+     * Make the properties for the run of a tier. A roundtrip is due for a tier if it has the event of the previous
+     * tier, and does not have the event of this tier or any later tier. With a single tier the properties are used
+     * unchanged.
+     * @param properties the properties for the autonomous component framework.
+     * @param tiers the tiers, in order of increasing delay.
+     * @param index the index of the tier to run.
+     * @return the properties for the run of the tier.
+     */
+    static Properties tierProperties(Properties properties, List<AlertTier> tiers, int index) {
+        if (tiers.size() == 1) {
+            return properties;
+        }
+        Set<String> tierEvents = new HashSet<>();
+        for (AlertTier tier : tiers) {
+            tierEvents.add(tier.getEventID());
+        }
+        Set<String> pastEvents = splitEvents(properties.getProperty(PAST_SUCCESSFUL_EVENTS));
+        pastEvents.removeAll(tierEvents);
+        if (index > 0) {
+            pastEvents.add(tiers.get(index - 1).getEventID());
+        }
+        Set<String> futureEvents = splitEvents(properties.getProperty(FUTURE_EVENTS));
+        futureEvents.removeAll(tierEvents);
+        for (AlertTier tier : tiers.subList(index, tiers.size())) {
+            futureEvents.add(tier.getEventID());
+        }
+        Properties result = new Properties();
+        result.putAll(properties);
+        result.setProperty(PAST_SUCCESSFUL_EVENTS, joinEvents(pastEvents));
+        result.setProperty(FUTURE_EVENTS, joinEvents(futureEvents));
+        return result;
+    }
+
+    /**
+     * Make the properties for the execution mode. In the io execution mode the framework is given enough workers to
+     * work on many roundtrips at a time. The work on a roundtrip is almost only waiting for SBOI, DOMS and the smtp
+     * host, so the workers are cheap, and the smtp connection pool bounds how many of them talk to the smtp host.
+     * @param properties the properties for the autonomous component framework.
+     * @param config the configuration of the component.
+     * @return the properties for the execution mode.
+     */
+    static Properties executionProperties(Properties properties, DelayAlerterConfig config) {
+        if (!config.isIoExecutionMode()) {
+            return properties;
+        }
+        Properties result = new Properties();
+        result.putAll(properties);
+        result.setProperty(MAX_THREADS, "" + config.getIoMaxThreads());
+        result.setProperty(WORK_QUEUE_SIZE, "" + config.getIoMaxThreads());
+        return result;
+    }
+
+    private static Set<String> splitEvents(String events) {
+        Set<String> result = new LinkedHashSet<>();
+        if (events != null) {
+            for (String event : events.split(",")) {
+                if (!event.trim().isEmpty()) {
+                    result.add(event.trim());
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String joinEvents(Set<String> events) {
+        StringBuilder result = new StringBuilder();
+        for (String event : events) {
+            if (result.length() > 0) {
+                result.append(',');
+            }
+            result.append(event);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Run the component repeatedly until the JVM is shut down.
+     * @param properties the properties for the autonomous component framework.
+     * @param component the component to run.
+     * @param mailer the mailer used by the component.
+     * @param reloader the reloader for the configuration, or null if it should not be reloaded.
+     * @param config the configuration at startup.
+     * @param cleanedUp released when the resources of the daemon have been closed after it has stopped, which the
+     * shutdown hook waits for, as the JVM halts as soon as the hook returns.
+     */
+    private static void runDaemon(Properties properties, DelayAlerterComponent component, SimpleMailer mailer,
+                                  ConfigReloader reloader, DelayAlerterConfig config, CountDownLatch cleanedUp) {
+        final DelayAlerterDaemon daemon = new DelayAlerterDaemon(properties, component, mailer, reloader,
+                config.getDaemonPollDelay(), config.getDaemonShutdownTimeout());
+        daemon.setDeadlineIndex(component.getDeadlineIndex(), config.getDeadlineIndexMinInterval());
+        daemon.setRequestDelay(config.getPushDelay());
+        RepositoryChangeListener listener = null;
+        if (config.getPushBrokerUrl() != null) {
+            listener = new RepositoryChangeListener(config.getPushBrokerUrl(), config.getPushTopic(),
+                    config.getPushDatastream(), new RepositoryChangeListener.ChangeHandler() {
+                        @Override
+                        public void changed(String pid) {
+                            daemon.requestPoll(pid);
+                        }
+
+                        @Override
+                        public void missed() {
+                            daemon.requestPoll();
+                        }
+                    }, config.getPushReconnectDelay());
+            listener.start();
+        }
+        Runtime.getRuntime().addShutdownHook(shutdownHook(daemon, cleanedUp, config.getDaemonShutdownTimeout()));
+        daemon.start();
+        try {
+            daemon.awaitTermination();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            daemon.shutdown();
+        } finally {
+            if (listener != null) {
+                listener.close();
+            }
+        }
+    }
+
+    /**
+     * Create the shutdown hook of the daemon. The hook stops the daemon, and then waits for the main thread to send
+     * the pending digest, close the outbox and the other resources, so a SIGTERM does not cut them off.
+     * @param daemon the daemon.
+     * @param cleanedUp released by the main thread when the resources have been closed.
+     * @param timeout the maximum number of milliseconds to wait for the resources to be closed.
+     * @return the shutdown hook.
+     */
+    static Thread shutdownHook(final DelayAlerterDaemon daemon, final CountDownLatch cleanedUp, final long timeout) {
+        return new Thread("DelayAlerterDaemonShutdown") {
+            @Override
+            public void run() {
+                daemon.shutdown();
+                try {
+                    if (!cleanedUp.await(timeout, TimeUnit.MILLISECONDS)) {
+                        log.warn("Gave up waiting for the daemon to close its resources after {} ms", timeout);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
     }
 
     /**
@@ -71,48 +564,692 @@ public class DelayAlerterComponent extends AbstractRunnableComponent<Batch> {
     public DelayAlerterComponent(Properties properties, SimpleMailer mailer ) {
         super(properties);
         this.mailer = mailer;
+        setConfig(new DelayAlerterConfig(properties));
+        beginRun();
+    }
+
+    /**
+     * Replace the configuration of this component. Roundtrips already being handled finish with the previous
+     * configuration. If digest mode was enabled, the current digest is sent before the new configuration is used.
+     * The component continues with the first tier of the new configuration.
+     * @param newConfig the new configuration.
+     */
+    public synchronized void setConfig(DelayAlerterConfig newConfig) {
+        AlertDigest oldDigest = digest;
+        AlertMailQueue oldMailQueue = mailQueue;
+        RecipientRateLimiter oldRateLimiter = rateLimiter;
+        NotifierDispatcher oldDispatcher = dispatcher;
+        AlertRenderer oldRenderer = renderer;
+        DelayAlerterConfig oldConfig = config.get();
+        AlertTier newTier = newConfig.getTiers().get(0);
+        AlertRenderer newRenderer;
+        try {
+            newRenderer = new AlertRenderer(newConfig.getTemplateDir(), newConfig.getTemplateLocale(),
+                    newConfig.isTemplateHtml(), newConfig.getTemplateLink());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to read the alert templates", e);
+        }
+        NotifierDispatcher newDispatcher = createDispatcher(newConfig);
+        if (newConfig.isDigestEnabled()) {
+            digest = new AlertDigest(mailer, newRenderer, newTier.getRecipients(), newConfig.getDigestMaxEntries(),
+                    newConfig.getDigestLinger());
+        } else {
+            digest = null;
+        }
+        if (newConfig.isMailQueueEnabled()) {
+            mailQueue = new AlertMailQueue(mailer, newConfig.getMailQueueCapacity(), newConfig.getMailQueueSenders());
+        } else {
+            mailQueue = null;
+        }
+        if (newConfig.getRateLimitPerHour() == 0) {
+            rateLimiter = null;
+        } else if (oldRateLimiter == null || !oldRateLimiter.hasLimits(newConfig.getRateLimitPerHour(),
+                newConfig.getRateLimitBurst(), newConfig.getRateLimitSummaryInterval())) {
+            rateLimiter = createRateLimiter(newConfig);
+        }
+        renderer = newRenderer;
+        dispatcher = newDispatcher;
+        config.set(newConfig);
+        tier = newTier;
+        overdueCutoff = runStart - newTier.getAlertPeriod();
+        if (oldDigest != null) {
+            oldDigest.close();
+        }
+        if (oldMailQueue != null) {
+            oldMailQueue.close(oldConfig.getMailQueueSendTimeout());
+        }
+        if (oldRateLimiter != null && oldRateLimiter != rateLimiter) {
+            oldRateLimiter.sendSummaries(mailer, oldRenderer, dedupStore, System.currentTimeMillis());
+            if (rateLimiter != null) {
+                oldRateLimiter.moveHeldBack(rateLimiter);
+            }
+        }
+        if (oldDispatcher != null) {
+            oldDispatcher.close();
+        }
+    }
+
+    /**
+     * Create the rate limiter of a configuration, with the rate limits kept from earlier runs.
+     * @param newConfig the configuration.
+     * @return the rate limiter.
+     */
+    private static RecipientRateLimiter createRateLimiter(DelayAlerterConfig newConfig) {
+        RecipientRateLimiter limiter = new RecipientRateLimiter(newConfig.getRateLimitPerHour(),
+                newConfig.getRateLimitBurst(), newConfig.getRateLimitSummaryInterval());
+        File file = newConfig.getRateLimitFile();
+        if (file != null) {
+            try {
+                limiter.load(file);
+            } catch (IOException e) {
+                log.warn("Failed to load the rate limits from " + file + ", starting with full bursts", e);
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Create the dispatcher for the channels of a configuration.
+     * @param newConfig the configuration.
+     * @return the dispatcher, or null if alerts are only sent by mail.
+     * @throws IllegalArgumentException if a channel could not be created.
+     */
+    private static NotifierDispatcher createDispatcher(DelayAlerterConfig newConfig) {
+        List<String> names = newConfig.getNotifiers();
+        if (names.size() == 1 && names.get(0).equals(NotifierDispatcher.MAIL)) {
+            return null;
+        }
+        List<Notifier> notifiers = new ArrayList<>();
+        try {
+            for (String name : names) {
+                if (!name.equals(NotifierDispatcher.MAIL)) {
+                    notifiers.add(NotifierDispatcher.createNotifier(name, newConfig.getNotifierProperties(name)));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Notifier notifier : notifiers) {
+                notifier.close();
+            }
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new IllegalArgumentException("Failed to open the alert channels", e);
+        }
+        return new NotifierDispatcher(notifiers, names.contains(NotifierDispatcher.MAIL),
+                newConfig.getNotifierTimeouts(), newConfig.getNotifiersQuorum());
+    }
+
+    /**
+     * Set the outbox for alerts which could not be sent.
+     * @param outbox the outbox, or null to not use one.
+     */
+    public void setOutbox(AlertOutbox outbox) {
+        this.outbox = outbox;
+    }
+
+    /**
+     * Set the store of alerts which have been sent.
+     * @param dedupStore the store, or null to not remember sent alerts.
+     */
+    public void setDedupStore(AlertDedupStore dedupStore) {
+        this.dedupStore = dedupStore;
+    }
+
+    /**
+     * Set the membership of this node in a group of nodes sharing the roundtrips.
+     * @param shards the membership, or null to work on all roundtrips.
+     */
+    public void setShards(ShardMembership shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * @return the current configuration of this component.
+     */
+    public DelayAlerterConfig getConfig() {
+        return config.get();
+    }
+
+    /**
+     * Decide whether a run is needed. Without a full scan interval every run is needed. Otherwise a run is only
+     * needed when a deadline in the deadline index has passed, or when the last complete run is older than the full
+     * scan interval. New roundtrips are found by the full scans, which are more frequent than the delay of the first
+     * tier, so they are found before they become overdue.
+     * @return true if the component should be run now.
+     */
+    public boolean isRunDue() {
+        ShardMembership currentShards = shards;
+        if (currentShards != null && !currentShards.isKnown()) {
+            log.info("The members of the shards are not known, skipping this run");
+            return false;
+        }
+        DeadlineIndex index = deadlineIndex;
+        long fullScanInterval = config.get().getFullScanInterval();
+        if (index == null || fullScanInterval <= 0) {
+            return true;
+        }
+        if (completeRunRequested.getAndSet(false)) {
+            log.info("A complete run has been requested, running");
+            return true;
+        }
+        return isRunDue(index, fullScanInterval, System.currentTimeMillis());
+    }
+
+    /**
+     * Decide whether a run is needed from the deadline index alone, as {@link #isRunDue()} does.
+     * @param index the deadline index.
+     * @param fullScanInterval the maximum number of milliseconds between complete runs, more than 0.
+     * @param now the current time.
+     * @return true if the component should be run now.
+     */
+    static boolean isRunDue(DeadlineIndex index, long fullScanInterval, long now) {
+        if (index.nextDeadline() <= now) {
+            log.info("A deadline has passed, running");
+            return true;
+        }
+        if (now - index.getLastCompleteRun() >= fullScanInterval) {
+            log.info("Last complete run was at {}, running a full scan", new Date(index.getLastCompleteRun()));
+            return true;
+        }
+        log.info("No deadline has passed since the last complete run at {}, skipping this run",
+                new Date(index.getLastCompleteRun()));
+        return false;
+    }
+
+    /**
+     * Request that the next run is not skipped, for example because changes to the roundtrips may have been missed.
+     */
+    public void requestCompleteRun() {
+        completeRunRequested.set(true);
+    }
+
+    /**
+     * Start a new run by computing the overdue cutoff for this run. Roundtrips whose data was received before the
+     * cutoff are overdue. The framework can only select roundtrips by the presence or absence of events, so the
+     * cutoff is applied here, as the first check on every roundtrip, rather than in the SBOI query.
+     */
+    public void beginRun() {
+        runStart = System.currentTimeMillis();
+        overdueCutoff = runStart - tier.getAlertPeriod();
+        metrics.beginRun();
+        checkedAlerts.clear();
+        seenRoundtrips.clear();
+        shardsUnknown.set(false);
+        DeadlineIndex index = deadlineIndex;
+        if (index != null) {
+            index.beginRun(runStart);
+        }
+    }
+
+    /**
+     * Start the part of a run for a tier. Roundtrips are alerted to the recipients of the tier, the overdue cutoff is
+     * computed from the delay of the tier, and the event of the tier is recorded for roundtrips alerted. If digest
+     * mode is enabled, the digest of the previous tier is sent first.
+     * @param newTier the tier, one of the tiers of the current configuration.
+     */
+    public synchronized void beginTier(AlertTier newTier) {
+        if (newTier != tier) {
+            AlertDigest oldDigest = digest;
+            DelayAlerterConfig currentConfig = config.get();
+            if (oldDigest != null) {
+                digest = new AlertDigest(mailer, renderer, newTier.getRecipients(), currentConfig.getDigestMaxEntries(),
+                        currentConfig.getDigestLinger());
+                oldDigest.close();
+            }
+            tier = newTier;
+        }
+        overdueCutoff = runStart - newTier.getAlertPeriod();
+    }
+
+    /**
+     * End a run by sending the current digest and the summaries of alerts held back by the rate limit, forgetting
+     * expired sent alerts and publishing and exporting the metrics for the run.
+     * @param complete whether the run went through all tiers, so roundtrips not seen in it can be removed from the
+     * deadline index and the open roundtrips, and their alerts from the outbox.
+     */
+    public void endRun(boolean complete) {
+        if (complete) {
+            openRoundtrips.keySet().retainAll(seenRoundtrips);
+        }
+        AlertDigest currentDigest = digest;
+        if (currentDigest != null) {
+            currentDigest.flush();
+        }
+        AlertOutbox currentOutbox = outbox;
+        if (currentOutbox != null && complete) {
+            try {
+                currentOutbox.retainAll(checkedAlerts);
+            } catch (IOException e) {
+                log.warn("Failed to drop the alerts of roundtrips no longer open from the outbox", e);
+            }
+        }
+        DeadlineIndex index = deadlineIndex;
+        if (index != null) {
+            if (complete) {
+                index.endRun();
+            }
+            File stateFile = config.get().getStateFile();
+            if (stateFile != null) {
+                try {
+                    index.save(stateFile);
+                } catch (IOException e) {
+                    log.warn("Failed to save the deadline index to " + stateFile, e);
+                }
+            }
+        }
+        RecipientRateLimiter limiter = rateLimiter;
+        AlertDedupStore store = dedupStore;
+        if (limiter != null) {
+            limiter.sendSummaries(mailer, renderer, store, System.currentTimeMillis());
+            File file = config.get().getRateLimitFile();
+            if (file != null) {
+                try {
+                    limiter.save(file);
+                } catch (IOException e) {
+                    log.warn("Failed to save the rate limits to " + file, e);
+                }
+            }
+        }
+        if (store != null) {
+            try {
+                store.purge(System.currentTimeMillis());
+            } catch (IOException e) {
+                log.warn("Failed to compact the sent alerts", e);
+            }
+        }
+        metrics.endRun();
+        log.info("Metrics: {}", metrics.summary());
+        PrometheusExporter exporter = metricsExporter;
+        if (exporter != null) {
+            exporter.writeFile();
+        }
+    }
+
+    /**
+     * @param pid the PID of an object.
+     * @return true if the object is a roundtrip seen in the last run, and still open then.
+     */
+    public boolean isOpenRoundtrip(String pid) {
+        return openRoundtrips.containsKey(pid);
+    }
+
+    /**
+     * Find the first tier any of a number of open roundtrips was seen in in the last run.
+     * @param pids the PIDs of the roundtrips.
+     * @param tiers the tiers of the current configuration.
+     * @return the index of the tier, 0 if the tier of one of them is no longer configured, or -1 if none are open.
+     */
+    int firstOpenTier(Set<String> pids, List<AlertTier> tiers) {
+        int first = -1;
+        for (String pid : pids) {
+            OpenRoundtrip open = openRoundtrips.get(pid);
+            if (open == null) {
+                continue;
+            }
+            int index = 0;
+            while (index < tiers.size() && !tiers.get(index).getEventID().equals(open.eventID)) {
+                index++;
+            }
+            if (index == tiers.size()) {
+                index = 0;
+            }
+            if (first < 0 || index < first) {
+                first = index;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Forget the roundtrips which were not seen in the current run, although it ran the tiers they were open in, as
+     * they have been approved or stopped since.
+     * @param pids the PIDs of the roundtrips.
+     */
+    private void forgetUnseen(Set<String> pids) {
+        DeadlineIndex index = deadlineIndex;
+        for (String pid : pids) {
+            if (seenRoundtrips.contains(pid)) {
+                continue;
+            }
+            OpenRoundtrip open = openRoundtrips.remove(pid);
+            if (open != null && index != null) {
+                log.info("Roundtrip {} is no longer open, forgetting its deadline", open.fullID);
+                index.remove(open.fullID);
+            }
+        }
+    }
+
+    /**
+     * @return the index the deadlines of the roundtrips not yet overdue are recorded in, or null if there is none.
+     */
+    public DeadlineIndex getDeadlineIndex() {
+        return deadlineIndex;
+    }
+
+    /**
+     * Set the index to record the deadlines of the roundtrips not yet overdue in.
+     * @param deadlineIndex the index, or null for none.
+     */
+    public void setDeadlineIndex(DeadlineIndex deadlineIndex) {
+        this.deadlineIndex = deadlineIndex;
+    }
+
+    /**
+     * Set the processing times to learn the delay before roundtrips are alerted from.
+     * @param processingTimes the processing times, or null to use the delays of the tiers.
+     */
+    void setProcessingTimes(ProcessingTimes processingTimes) {
+        this.processingTimes = processingTimes;
+    }
+
+    /**
+     * Learn the processing times of the roundtrips seen in earlier runs which the complete run just ended no longer
+     * saw, if they were last learned longer ago than the learn interval. Approved roundtrips are never selected by
+     * the component, so only these roundtrips are read again from DOMS, one by one, rather than every approved
+     * roundtrip in SBOI. If reading one fails, it is tried again in the next learn pass.
+     * @param properties the properties for the autonomous component framework.
+     */
+    void learnProcessingTimes(Properties properties) {
+        ProcessingTimes times = processingTimes;
+        DelayAlerterConfig currentConfig = config.get();
+        if (times == null || runStart - times.getLastLearned() < currentConfig.getAdaptiveLearnInterval()) {
+            return;
+        }
+        try {
+            List<String> departed = times.getDeparted(runStart);
+            List<Batch> roundtrips = new ArrayList<>();
+            if (!departed.isEmpty()) {
+                NewspaperDomsEventStorage doms = OverdueReport.openDoms(properties);
+                for (String fullID : departed) {
+                    try {
+                        roundtrips.add(doms.getItemFromFullID(fullID));
+                    } catch (Exception e) {
+                        log.warn("Failed to read roundtrip " + fullID + " to learn its processing time", e);
+                    }
+                }
+            }
+            int learned = times.learn(roundtrips.iterator(), currentConfig.getAdaptiveApprovedEvent(),
+                    stopEvents(properties, currentConfig), currentConfig.isLatestDataReceived(), runStart);
+            log.info("Learned the processing times of {} of the {} roundtrips no longer open, in {} groups, {} "
+                    + "roundtrips still watched", learned, departed.size(), times.getGroupCount(),
+                    times.getWatchedCount());
+        } catch (Exception e) {
+            log.warn("Failed to learn the processing times of approved roundtrips", e);
+            return;
+        }
+        File file = currentConfig.getAdaptiveFile();
+        if (file != null) {
+            try {
+                times.save(file);
+            } catch (IOException e) {
+                log.warn("Failed to save the processing times to " + file, e);
+            }
+        }
+    }
+
+    /**
+     * The events after which a roundtrip is no longer selected by the component, other than the events of the tiers
+     * and the approved event.
+     */
+    private static Set<String> stopEvents(Properties properties, DelayAlerterConfig config) {
+        Set<String> stopEvents = splitEvents(properties.getProperty(FUTURE_EVENTS));
+        for (AlertTier tier : config.getTiers()) {
+            stopEvents.remove(tier.getEventID());
+        }
+        stopEvents.remove(config.getAdaptiveApprovedEvent());
+        return stopEvents;
+    }
+
+    /**
+     * The delay before a roundtrip is alerted in a tier. With adaptive delays, the delay of the first tier is replaced
+     * by the delay within which the configured percentile of the roundtrips of its group have been approved, once the
+     * group has learned from enough roundtrips, and the later tiers keep their distance to the first.
+     * @param batch the roundtrip.
+     * @param tier the tier.
+     * @return the delay in milliseconds.
+     */
+    private long alertPeriod(Batch batch, AlertTier tier) {
+        ProcessingTimes times = processingTimes;
+        if (times == null) {
+            return tier.getAlertPeriod();
+        }
+        DelayAlerterConfig currentConfig = config.get();
+        long learned = times.getDelay(batch.getBatchID(), currentConfig.getAdaptivePercentile(),
+                currentConfig.getAdaptiveMinSamples());
+        if (learned < 0) {
+            return tier.getAlertPeriod();
+        }
+        return tier.getAlertPeriod() - currentConfig.getTiers().get(0).getAlertPeriod()
+                + Math.max(learned, currentConfig.getAdaptiveMinPeriod());
+    }
+
+    /**
+     * @return the metrics of this component.
+     */
+    public AlerterMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set the exporter which writes the metrics at the end of every run.
+     * @param metricsExporter the exporter, or null for none.
+     */
+    public void setMetricsExporter(PrometheusExporter metricsExporter) {
+        this.metricsExporter = metricsExporter;
+    }
+
+    /**
+     * Send any pending digest or queued mails and release the resources held by this component.
+     */
+    public synchronized void close() {
+        if (digest != null) {
+            digest.close();
+            digest = null;
+        }
+        if (mailQueue != null) {
+            mailQueue.close(config.get().getMailQueueSendTimeout());
+            mailQueue = null;
+        }
+        if (dispatcher != null) {
+            dispatcher.close();
+            dispatcher = null;
+        }
     }
 
     @Override
     public String getEventID() {
-        return EMAIL_SENT_EVENT;
+        return tier.getEventID();
     }
 
+    /**
+     * @return true if the members of the shards were not known for a part of the current run, so the roundtrips of
+     * this node may not all have been seen and the run is not complete.
+     */
+    boolean wereShardsUnknown() {
+        return shardsUnknown.get();
+    }
+
+    /**
+     * Work on a roundtrip. With shards, a roundtrip of a batch belonging to another node, or any roundtrip while the
+     * members are not known, is skipped before its events are read. The framework offers no hook into its query of SBOI
+     * or its iteration over the roundtrips, so this is the earliest point the roundtrips can be divided between the
+     * nodes. In a run re-checking the roundtrips changed, every other roundtrip is skipped in the same way.
+     */
     @Override
     public void doWorkOnItem(Batch batch, ResultCollector resultCollector) throws Exception {
-        List<Event> events=  batch.getEventList();
-        for (Event event: events) {
-            if (event.getEventID().equals("Data_Received")) {
-                processDataReceivedEvent(batch, resultCollector, event);
+        ShardMembership currentShards = shards;
+        if (currentShards != null) {
+            ShardRing ring = currentShards.getRing();
+            if (ring == null) {
+                shardsUnknown.set(true);
+            }
+            if (!currentShards.owns(ring, batch.getBatchID())) {
+                metrics.incrementNotOwned();
+                resultCollector.setPreservable(false);
+                return;
+            }
+        }
+        String pid = batch.getDomsID();
+        Set<String> changed = changedRoundtrips;
+        if (changed != null && !changed.contains(pid)) {
+            resultCollector.setPreservable(false);
+            return;
+        }
+        if (pid != null) {
+            seenRoundtrips.add(pid);
+            openRoundtrips.put(pid, new OpenRoundtrip(batch.getFullID(), tier.getEventID()));
+        }
+        long start = System.nanoTime();
+        try {
+            long receivedTime = findReceivedTime(batch.getEventList(), config.get().isLatestDataReceived());
+            if (receivedTime != NOT_RECEIVED) {
+                ProcessingTimes times = processingTimes;
+                if (times != null) {
+                    times.watch(batch.getFullID(), runStart);
+                }
+                metrics.recordReceived(receivedTime);
+                processDataReceivedEvent(batch, resultCollector, receivedTime);
+            }
+        } finally {
+            metrics.getWork().recordSince(start);
+        }
+    }
+
+    /**
+     * A roundtrip seen in the last run, with the event of the tier it was seen in.
+     */
+    private static final class OpenRoundtrip {
+        private final String fullID;
+        private final String eventID;
+
+        private OpenRoundtrip(String fullID, String eventID) {
+            this.fullID = fullID;
+            this.eventID = eventID;
+        }
+    }
+
+    /**
+     * Find the time data was received for a roundtrip in a single pass over its events. If data has been received
+     * more than once, either the earliest or the latest time is used. Events without a date are ignored.
+     * @param events the events of the roundtrip.
+     * @param latest if true the latest time is found, otherwise the earliest.
+     * @return the time data was received, or NOT_RECEIVED if there is no Data_Received event.
+     */
+    static long findReceivedTime(List<Event> events, boolean latest) {
+        long receivedTime = NOT_RECEIVED;
+        for (Event event : events) {
+            if (DATA_RECEIVED_EVENT.equals(event.getEventID()) && event.getDate() != null) {
+                long time = event.getDate().getTime();
+                if (receivedTime == NOT_RECEIVED || (latest ? time > receivedTime : time < receivedTime)) {
+                    receivedTime = time;
+                }
+            }
+        }
+        return receivedTime;
+    }
+
+    /**
+     * Find the latest event of a roundtrip. Events without a date are ignored.
+     * @param events the events of the roundtrip.
+     * @return the latest event, or null if there are none with a date.
+     */
+    static Event findLastEvent(List<Event> events) {
+        Event lastEvent = null;
+        for (Event event : events) {
+            if (event.getDate() != null && (lastEvent == null || event.getDate().after(lastEvent.getDate()))) {
+                lastEvent = event;
             }
         }
+        return lastEvent;
     }
 
     /**
-     * This method checks if the processing has taken too long. If it has, the event is passed on to sendAlertMail() for
-     * further processing. Otherwise the resultCollector is set to non-preservable and the method just returns,
+     * This method checks if the processing has taken too long. If it has, an alert is sent by sendAlertMail() or
+     * added to the digest. Otherwise the resultCollector is set to non-preservable and the method just returns,
      * @param batch
      * @param resultCollector
-     * @param event
+     * @param receivedTime the time data was received for the roundtrip.
      * @throws MessagingException
      */
-    private void processDataReceivedEvent(Batch batch, ResultCollector resultCollector, Event event) throws MessagingException {
-        Date now = new Date();
-        Date receivedDate = event.getDate();
-        final int delay = Integer.parseInt(
-                getProperties().getProperty(DelayAlerterConfigConstants.DELAY_ALERT_DAYS));
-        Long alertPeriod = delay *24*3600*1000L;
-        log.debug("\nBatch:" + batch.getFullID() +"\nDate received: " + receivedDate + "\nNow:" + now + "\nDelay alert (days) " + delay);
-        if (now.getTime() - receivedDate.getTime() > alertPeriod) {
+    private void processDataReceivedEvent(Batch batch, ResultCollector resultCollector, long receivedTime) throws MessagingException {
+        long start = System.nanoTime();
+        try {
+            evaluate(batch, resultCollector, receivedTime);
+        } finally {
+            metrics.getEvaluate().recordSince(start);
+        }
+    }
+
+    private void evaluate(Batch batch, ResultCollector resultCollector, long receivedTime) throws MessagingException {
+        AlertTier currentTier = tier;
+        long alertPeriod = alertPeriod(batch, currentTier);
+        long cutoff = processingTimes == null ? overdueCutoff : runStart - alertPeriod;
+        if (log.isDebugEnabled()) {
+            log.debug("Batch {} received at {}, overdue cutoff {} for tier {}", batch.getFullID(),
+                    new Date(receivedTime), new Date(cutoff), currentTier);
+        }
+        DeadlineIndex index = deadlineIndex;
+        if (receivedTime < cutoff) {
+            metrics.incrementOverdue();
+            String key = alertKey(batch, currentTier);
+            AlertOutbox currentOutbox = outbox;
+            AlertDedupStore store = dedupStore;
+            if (currentOutbox != null) {
+                checkedAlerts.add(key);
+            }
+            if (currentOutbox != null && checkOutbox(currentOutbox, key, resultCollector)) {
+                if (resultCollector.isPreservable()) {
+                    rememberSent(store, key);
+                }
+                trackAlerted(index, batch, receivedTime, currentTier, resultCollector.isPreservable());
+                return;
+            }
+            if (store != null && store.contains(key, runStart)) {
+                log.info("Alert {} has already been sent, recording the event without sending it again", key);
+                metrics.incrementDuplicate();
+                resultCollector.setPreservable(true);
+                trackAlerted(index, batch, receivedTime, currentTier, true);
+                return;
+            }
+            AlertRenderer currentRenderer = renderer;
+            Map<String, Object> values = alertValues(currentRenderer, batch, receivedTime, currentTier);
+            NotifierDispatcher currentDispatcher = dispatcher;
+            AlertDigest currentDigest = digest;
+            if (currentDigest != null && store != null && currentDispatcher == null) {
+                queueInDigest(currentDigest, store, key, values);
+                log.info("Alert {} is queued in the digest, its event is recorded once the digest has been sent",
+                        key);
+                metrics.incrementSent();
+                resultCollector.setPreservable(false);
+                trackAlerted(index, batch, receivedTime, currentTier, false);
+                return;
+            }
             try {
-                sendAlertMail(batch, resultCollector, event);
+                if (currentDispatcher != null) {
+                    dispatchAlert(currentDispatcher, currentOutbox, currentRenderer, batch, values, currentTier);
+                } else if (!mailAlert(currentOutbox, currentRenderer, batch, values, currentTier)) {
+                    log.info("Alert {} is held back by the rate limit of every recipient", key);
+                    metrics.incrementRateLimited();
+                    resultCollector.setPreservable(false);
+                    trackAlerted(index, batch, receivedTime, currentTier, false);
+                    return;
+                }
                 resultCollector.setPreservable(true);
+                metrics.incrementSent();
+                rememberSent(store, key);
+                trackAlerted(index, batch, receivedTime, currentTier, true);
             } catch (MessagingException e) {
                 log.error("Failed to send mail.", e);
+                metrics.incrementFailed();
                 resultCollector.setPreservable(false);
+                trackAlerted(index, batch, receivedTime, currentTier, false);
                 throw(e);
             }
         } else {
+            metrics.incrementNotOverdue();
+            if (index != null) {
+                index.put(batch.getFullID(), receivedTime + alertPeriod);
+            }
             log.debug("Not sending mail.");
             resultCollector.setPreservable(false);
             return;
@@ -120,18 +1257,329 @@ public class DelayAlerterComponent extends AbstractRunnableComponent<Batch> {
     }
 
     /**
-     * Send the email alert.
+     * Alert a roundtrip by mail, either in the digest or in a mail of its own. If the alert could not be sent, it is
+     * added to the outbox.
+     * @param outbox the outbox, or null if there is none.
+     * @param renderer
      * @param batch
+     * @param values the values of the roundtrip for the templates.
+     * @param tier the tier the roundtrip is alerted in.
+     * @return false if every recipient was held back by the rate limit, so no mail was sent.
+     * @throws MessagingException if the alert could not be sent.
+     */
+    private boolean mailAlert(AlertOutbox outbox, AlertRenderer renderer, Batch batch, Map<String, Object> values,
+                              AlertTier tier) throws MessagingException {
+        try {
+            AlertDigest currentDigest = digest;
+            if (currentDigest != null) {
+                addToDigest(currentDigest, batch, values);
+                return true;
+            }
+            return sendAlertMail(batch, renderer.renderAlert(values), values, tier);
+        } catch (MessagingException e) {
+            if (outbox != null) {
+                addToOutbox(outbox, batch, renderer.renderAlert(values), tier);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Send an alert through several channels. The alert is only added to the outbox if too few channels succeeded
+     * and the mail channel was one of those which failed. If the quorum succeeded the event is recorded, so a mail
+     * resent from the outbox would be a duplicate which no run removes.
+     * @param dispatcher the dispatcher of the channels.
+     * @param outbox the outbox, or null if there is none.
+     * @param renderer
+     * @param batch
+     * @param values the values of the roundtrip for the templates.
+     * @param tier the tier the roundtrip is alerted in.
+     * @throws MessagingException if fewer than the quorum of channels sent the alert.
+     */
+    private void dispatchAlert(NotifierDispatcher dispatcher, AlertOutbox outbox, AlertRenderer renderer, Batch batch,
+                               Map<String, Object> values, AlertTier tier) throws MessagingException {
+        MailChannel mailChannel = new MailChannel(renderer, batch, values, tier);
+        try {
+            dispatcher.dispatch(tier.getRecipients(), renderer.renderAlert(values), mailChannel);
+        } catch (MessagingException e) {
+            if (outbox != null && mailChannel.failed()) {
+                addToOutbox(outbox, batch, renderer.renderAlert(values), tier);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The mail channel for an alert sent through several channels. An alert held back by the rate limit of every
+     * recipient counts as not sent by this channel. A failed mail is not added to the outbox here, as the alert may
+     * still have been sent by a quorum of the channels.
+     */
+    private final class MailChannel implements Notifier {
+        private final AlertRenderer renderer;
+        private final Batch batch;
+        private final Map<String, Object> values;
+        private final AlertTier tier;
+        private volatile boolean failed = false;
+
+        private MailChannel(AlertRenderer renderer, Batch batch, Map<String, Object> values, AlertTier tier) {
+            this.renderer = renderer;
+            this.batch = batch;
+            this.values = values;
+            this.tier = tier;
+        }
+
+        @Override
+        public String getName() {
+            return NotifierDispatcher.MAIL;
+        }
+
+        @Override
+        public void send(List<String> to, AlertMessage message) throws MessagingException {
+            failed = true;
+            boolean sent = mailAlert(null, renderer, batch, values, tier);
+            failed = false;
+            if (!sent) {
+                metrics.incrementRateLimited();
+                throw new MessagingException("Alert for " + batch.getFullID()
+                        + " is held back by the rate limit of every recipient");
+            }
+        }
+
+        /**
+         * @return true if the mail could not be sent, including if it timed out. A mail held back by the rate limit
+         * has not failed, as the rate limit sends a summary of it later.
+         */
+        private boolean failed() {
+            return failed;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Update the deadline index for an overdue roundtrip. If it was alerted, its deadline becomes that of the next
+     * tier, if there is one. If not, it is kept as due again after the poll delay, so the next poll will not be
+     * skipped.
+     * @param index the deadline index, or null if there is none.
+     * @param batch
+     * @param receivedTime the time data was received for the roundtrip.
+     * @param currentTier the tier the roundtrip is overdue in.
+     * @param alerted whether the roundtrip was alerted in the tier.
+     */
+    private void trackAlerted(DeadlineIndex index, Batch batch, long receivedTime, AlertTier currentTier,
+                              boolean alerted) {
+        if (index == null) {
+            return;
+        }
+        if (!alerted) {
+            index.put(batch.getFullID(), runStart + config.get().getDaemonPollDelay());
+            return;
+        }
+        List<AlertTier> tiers = config.get().getTiers();
+        int next = tiers.indexOf(currentTier) + 1;
+        if (next > 0 && next < tiers.size()) {
+            index.put(batch.getFullID(), receivedTime + alertPeriod(batch, tiers.get(next)));
+        } else {
+            index.remove(batch.getFullID());
+        }
+    }
+
+    /**
+     * The key of the alert for a roundtrip in a tier, in the outbox and the store of sent alerts.
+     */
+    private static String alertKey(Batch batch, AlertTier tier) {
+        return batch.getFullID() + "#" + tier.getEventID();
+    }
+
+    /**
+     * Check whether the alert for a roundtrip is already in the outbox. If the outbox has delivered it, the result is
+     * set to preservable so the event is recorded, and the alert is removed from the outbox. If it is still pending,
+     * it is left to the outbox to retry.
+     * @param outbox
+     * @param key the key of the alert in the outbox.
      * @param resultCollector
-     * @param event
+     * @return true if the alert was in the outbox, false if it should be sent.
+     */
+    private boolean checkOutbox(AlertOutbox outbox, String key, ResultCollector resultCollector) {
+        switch (outbox.getState(key)) {
+            case DELIVERED:
+                log.info("Alert {} has been sent from the outbox", key);
+                try {
+                    outbox.remove(key);
+                } catch (IOException e) {
+                    log.warn("Failed to remove alert " + key + " from the outbox", e);
+                }
+                resultCollector.setPreservable(true);
+                return true;
+            case PENDING:
+                log.info("Alert {} is waiting in the outbox to be resent", key);
+                resultCollector.setPreservable(false);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Add an alert which could not be sent to the outbox, so it is resent without waiting for the next run.
+     * The outbox only keeps the plain text of the alert.
+     * @param outbox
+     * @param batch
+     * @param message
+     * @param tier
+     */
+    private void addToOutbox(AlertOutbox outbox, Batch batch, AlertMessage message, AlertTier tier) {
+        try {
+            outbox.add(alertKey(batch, tier), tier.getRecipients(), message.getSubject(), message.getText());
+        } catch (IOException e) {
+            log.error("Failed to add alert for " + batch.getFullID() + " to the outbox", e);
+        }
+    }
+
+    /**
+     * Remember that an alert has been sent. If it cannot be remembered, it may be sent again if its event is not
+     * recorded, as without a store of sent alerts.
+     * @param store the store of sent alerts, or null if there is none.
+     * @param key the key of the alert.
+     */
+    private void rememberSent(AlertDedupStore store, String key) {
+        if (store == null) {
+            return;
+        }
+        try {
+            store.add(key, System.currentTimeMillis());
+        } catch (IOException e) {
+            log.warn("Failed to remember that alert " + key + " has been sent", e);
+        }
+    }
+
+    /**
+     * Collect the values for the alert templates of a roundtrip.
+     * @param renderer the renderer, which adds the link to the roundtrip.
+     * @param batch the roundtrip.
+     * @param receivedTime the time data was received for the roundtrip.
+     * @param tier the tier the roundtrip is alerted in.
+     * @return the values.
+     */
+    private Map<String, Object> alertValues(AlertRenderer renderer, Batch batch, long receivedTime, AlertTier tier) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        Map<String, Object> values = new HashMap<>();
+        values.put("roundtrip", batch.getFullID());
+        values.put("batchId", batch.getBatchID());
+        values.put("roundTripNumber", batch.getRoundTripNumber());
+        values.put("tier", tier.getName());
+        values.put("received", new Date(receivedTime));
+        values.put("receivedDate", dateFormat.format(new Date(receivedTime)));
+        long daysSinceReceived = (runStart - receivedTime) / (24 * 3600 * 1000L);
+        values.put("daysSinceReceived", daysSinceReceived);
+        values.put("daysOverdue", daysSinceReceived - alertPeriod(batch, tier) / (24 * 3600 * 1000L));
+        Event lastEvent = findLastEvent(batch.getEventList());
+        if (lastEvent != null) {
+            values.put("lastEvent", lastEvent.getEventID());
+            values.put("lastEventDate", dateFormat.format(lastEvent.getDate()));
+        }
+        renderer.addLink(values);
+        return values;
+    }
+
+    /**
+     * Send the email alert to the recipients of the tier who are not held back by the rate limit.
+     * @param batch
+     * @param message
+     * @param values the values of the alert, for the summary of alerts held back.
+     * @param tier
+     * @return false if every recipient was held back, so no mail was sent.
      * @throws MessagingException
      */
-    private void sendAlertMail(Batch batch, ResultCollector resultCollector, Event event) throws MessagingException {
-        String subject = "[Newspaper Delay Alert]" + batch.getFullID();
-        String text = "Batch roundtrip " + batch.getFullID() + " was received at " + event.getDate() +
-                "\n but has not yet been approved or rejected.";
-        String[] mailRecipients = getProperties().getProperty(DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES).split(",");
-        log.debug("Sending mail '" + text + "' to " + Arrays.asList(mailRecipients));
-        mailer.sendMail(Arrays.asList(mailRecipients), subject, text);
+    private boolean sendAlertMail(Batch batch, AlertMessage message, Map<String, Object> values, AlertTier tier)
+            throws MessagingException {
+        List<String> mailRecipients = tier.getRecipients();
+        RecipientRateLimiter limiter = rateLimiter;
+        if (limiter != null) {
+            mailRecipients = limiter.acquire(mailRecipients, values, System.currentTimeMillis());
+            if (mailRecipients.isEmpty()) {
+                return false;
+            }
+        }
+        log.debug("Sending mail '{}' to {}", message.getText(), mailRecipients);
+        AlertMailQueue currentMailQueue = mailQueue;
+        if (currentMailQueue == null) {
+            message.send(mailer, mailRecipients);
+            return true;
+        }
+        Future<Void> delivery;
+        try {
+            delivery = currentMailQueue.submit(mailRecipients, message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted queueing mail for " + batch.getFullID(), e);
+        }
+        awaitDelivery(delivery, config.get().getMailQueueSendTimeout(), batch, true);
+        return true;
+    }
+
+    /**
+     * Queue the alert in the current digest without waiting for it to be sent. Once the digest has been sent the
+     * alert is remembered as sent, so a later run records its event without sending it again. If the digest could
+     * not be sent, the alert is sent again by a later run.
+     * @param digest
+     * @param store the store of sent alerts.
+     * @param key the key of the alert.
+     * @param values the values of the roundtrip for the digest templates.
+     */
+    private void queueInDigest(AlertDigest digest, final AlertDedupStore store, final String key,
+                               Map<String, Object> values) {
+        digest.add(values, new Runnable() {
+            @Override
+            public void run() {
+                rememberSent(store, key);
+            }
+        });
+    }
+
+    /**
+     * Add the alert to the current digest and wait for the digest to be sent.
+     * @param digest
+     * @param batch
+     * @param values the values of the roundtrip for the digest templates.
+     * @throws MessagingException if the digest could not be sent within the maximum waiting time.
+     */
+    private void addToDigest(AlertDigest digest, Batch batch, Map<String, Object> values) throws MessagingException {
+        Future<Void> delivery = digest.add(values);
+        //The digest is shared with other roundtrips, so it must not be cancelled if this worker gives up waiting
+        awaitDelivery(delivery, config.get().getDigestMaxWait(), batch, false);
+    }
+
+    /**
+     * Wait for a mail sent by another thread to be delivered. If it has not been delivered within the timeout the
+     * roundtrip will be alerted again on a later run, so the mail may be cancelled unless it is already being sent.
+     * @param delivery the future of the delivery.
+     * @param timeout the maximum number of milliseconds to wait.
+     * @param batch the roundtrip the mail is about.
+     * @param cancelOnTimeout whether to cancel the mail if it has not been delivered within the timeout.
+     * @throws MessagingException if the mail was not delivered within the timeout.
+     */
+    private void awaitDelivery(Future<Void> delivery, long timeout, Batch batch, boolean cancelOnTimeout)
+            throws MessagingException {
+        try {
+            delivery.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MessagingException) {
+                throw (MessagingException) e.getCause();
+            }
+            throw new MessagingException("Failed to send mail for " + batch.getFullID(), e);
+        } catch (TimeoutException e) {
+            if (cancelOnTimeout) {
+                delivery.cancel(false);
+            }
+            throw new MessagingException("Timed out waiting for mail for " + batch.getFullID(), e);
+        } catch (CancellationException e) {
+            throw new MessagingException("Mail for " + batch.getFullID() + " was cancelled", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted waiting for mail for " + batch.getFullID(), e);
+        }
     }
 }
@@ -0,0 +1,828 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * The configuration of this component, parsed and validated once from the properties with the keys in
+ * {@link DelayAlerterConfigConstants}. Instances are immutable, so a changed configuration is applied by replacing
+ * the whole instance.
+ */
+public final class DelayAlerterConfig {
+
+    private final int delayDays;
+    private final long alertPeriod;
+    private final boolean latestDataReceived;
+    private final List<String> recipients;
+    private final List<AlertTier> tiers;
+    private final File templateDir;
+    private final String templateLocale;
+    private final boolean templateHtml;
+    private final String templateLink;
+    private final String fromAddress;
+    private final String smtpHost;
+    private final String smtpPort;
+    private final int smtpPoolSize;
+    private final long smtpPoolIdleTimeout;
+    private final long smtpConnectionTimeout;
+    private final long smtpTimeout;
+    private final int circuitBreakerFailures;
+    private final long circuitBreakerOpenTime;
+    private final boolean ioExecutionMode;
+    private final int ioMaxThreads;
+    private final boolean digestEnabled;
+    private final int digestMaxEntries;
+    private final long digestLinger;
+    private final long digestMaxWait;
+    private final boolean mailQueueEnabled;
+    private final int mailQueueCapacity;
+    private final int mailQueueSenders;
+    private final long mailQueueSendTimeout;
+    private final File outboxFile;
+    private final long outboxRetryInterval;
+    private final long outboxInitialBackoff;
+    private final long outboxMaxBackoff;
+    private final int outboxSyncEvery;
+    private final long outboxTtl;
+    private final List<String> notifiers;
+    private final int notifiersQuorum;
+    private final Map<String, Long> notifierTimeouts;
+    private final Map<String, Properties> notifierProperties;
+    private final File dedupFile;
+    private final long dedupTtl;
+    private final int rateLimitPerHour;
+    private final int rateLimitBurst;
+    private final long rateLimitSummaryInterval;
+    private final File rateLimitFile;
+    private final File metricsFile;
+    private final int metricsHttpPort;
+    private final boolean daemonEnabled;
+    private final long daemonPollDelay;
+    private final long daemonShutdownTimeout;
+    private final boolean deadlineIndexEnabled;
+    private final long deadlineIndexMinInterval;
+    private final String pushBrokerUrl;
+    private final String pushTopic;
+    private final String pushDatastream;
+    private final long pushDelay;
+    private final long pushReconnectDelay;
+    private final long fullScanInterval;
+    private final File stateFile;
+    private final boolean shardEnabled;
+    private final String shardPath;
+    private final String shardNodeName;
+    private final int shardVirtualNodes;
+    private final int shardSessionTimeout;
+    private final boolean adaptiveEnabled;
+    private final int adaptivePercentile;
+    private final int adaptiveMinSamples;
+    private final int adaptiveMinDays;
+    private final int adaptivePrefixLength;
+    private final long adaptiveLearnInterval;
+    private final String adaptiveApprovedEvent;
+    private final File adaptiveFile;
+
+    /**
+     * Parse and validate the configuration.
+     * @param properties the properties to read the configuration from.
+     * @throws IllegalArgumentException if a required property is missing or a property has an invalid value.
+     */
+    public DelayAlerterConfig(Properties properties) {
+        String tierNames = properties.getProperty(DelayAlerterConfigConstants.TIERS, "").trim();
+        if (tierNames.isEmpty()) {
+            delayDays = parseDelayDays(properties);
+            recipients = parseRecipients(properties, DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES);
+            tiers = Collections.singletonList(
+                    new AlertTier("default", delayDays, recipients, DelayAlerterComponent.EMAIL_SENT_EVENT));
+        } else {
+            tiers = parseTiers(properties, tierNames);
+            //The tiers have their own delays and recipients, so these are only checked if given
+            delayDays = isSet(properties, DelayAlerterConfigConstants.DELAY_ALERT_DAYS)
+                    ? parseDelayDays(properties) : tiers.get(0).getDelayDays();
+            recipients = isSet(properties, DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES)
+                    ? parseRecipients(properties, DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES)
+                    : tiers.get(0).getRecipients();
+        }
+        alertPeriod = delayDays * 24 * 3600 * 1000L;
+        String selection = properties.getProperty(DelayAlerterConfigConstants.DATA_RECEIVED_SELECTION, "earliest").trim();
+        if (!selection.equals("earliest") && !selection.equals("latest")) {
+            throw invalid(DelayAlerterConfigConstants.DATA_RECEIVED_SELECTION, selection, "is not earliest or latest");
+        }
+        latestDataReceived = selection.equals("latest");
+        String templates = properties.getProperty(DelayAlerterConfigConstants.TEMPLATE_DIR, "").trim();
+        templateDir = templates.isEmpty() ? null : new File(templates);
+        if (templateDir != null && !templateDir.isDirectory()) {
+            throw invalid(DelayAlerterConfigConstants.TEMPLATE_DIR, templates, "is not a directory");
+        }
+        templateLocale = properties.getProperty(DelayAlerterConfigConstants.TEMPLATE_LOCALE, "en").trim();
+        templateHtml = getBoolean(properties, DelayAlerterConfigConstants.TEMPLATE_HTML, "false");
+        templateLink = properties.getProperty(DelayAlerterConfigConstants.TEMPLATE_LINK, "").trim();
+        fromAddress = properties.getProperty(DelayAlerterConfigConstants.EMAIL_FROM_ADDRESS);
+        if (fromAddress != null) {
+            parseAddress(DelayAlerterConfigConstants.EMAIL_FROM_ADDRESS, fromAddress);
+        }
+        smtpHost = properties.getProperty(DelayAlerterConfigConstants.SMTP_HOST);
+        int port = getInt(properties, DelayAlerterConfigConstants.SMTP_PORT, "25");
+        if (port < 1 || port > 65535) {
+            throw invalid(DelayAlerterConfigConstants.SMTP_PORT, "" + port, "is not a port number");
+        }
+        smtpPort = "" + port;
+        smtpPoolSize = getInt(properties, DelayAlerterConfigConstants.SMTP_POOL_SIZE, "" + SimpleMailer.DEFAULT_POOL_SIZE);
+        smtpPoolIdleTimeout = getLong(properties, DelayAlerterConfigConstants.SMTP_POOL_IDLE_TIMEOUT,
+                "" + SimpleMailer.DEFAULT_POOL_IDLE_TIMEOUT);
+        smtpConnectionTimeout = getLong(properties, DelayAlerterConfigConstants.SMTP_CONNECTION_TIMEOUT,
+                "" + SimpleMailer.DEFAULT_CONNECTION_TIMEOUT);
+        smtpTimeout = getLong(properties, DelayAlerterConfigConstants.SMTP_TIMEOUT, "" + SimpleMailer.DEFAULT_TIMEOUT);
+        circuitBreakerFailures = getInt(properties, DelayAlerterConfigConstants.SMTP_CIRCUIT_BREAKER_FAILURES, "5");
+        if (circuitBreakerFailures < 0) {
+            throw invalid(DelayAlerterConfigConstants.SMTP_CIRCUIT_BREAKER_FAILURES, "" + circuitBreakerFailures,
+                    "must not be negative");
+        }
+        circuitBreakerOpenTime = getLong(properties, DelayAlerterConfigConstants.SMTP_CIRCUIT_BREAKER_OPEN_TIME,
+                "60000");
+        String mode = properties.getProperty(DelayAlerterConfigConstants.EXECUTION_MODE, "threads").trim();
+        if (!mode.equals("threads") && !mode.equals("io")) {
+            throw invalid(DelayAlerterConfigConstants.EXECUTION_MODE, mode, "is not threads or io");
+        }
+        ioExecutionMode = mode.equals("io");
+        if (ioExecutionMode && smtpPoolSize < 1) {
+            throw invalid(DelayAlerterConfigConstants.SMTP_POOL_SIZE, "" + smtpPoolSize,
+                    "must be positive in the io execution mode, to bound the smtp connections");
+        }
+        ioMaxThreads = getInt(properties, DelayAlerterConfigConstants.IO_MAX_THREADS, "200");
+        if (ioMaxThreads < 1) {
+            throw invalid(DelayAlerterConfigConstants.IO_MAX_THREADS, "" + ioMaxThreads, "must be positive");
+        }
+        digestEnabled = getBoolean(properties, DelayAlerterConfigConstants.DIGEST_ENABLED, "false");
+        digestMaxEntries = getInt(properties, DelayAlerterConfigConstants.DIGEST_MAX_ENTRIES, "100");
+        if (digestMaxEntries < 1) {
+            throw invalid(DelayAlerterConfigConstants.DIGEST_MAX_ENTRIES, "" + digestMaxEntries, "must be positive");
+        }
+        digestLinger = getLong(properties, DelayAlerterConfigConstants.DIGEST_LINGER, "5000");
+        digestMaxWait = getLong(properties, DelayAlerterConfigConstants.DIGEST_MAX_WAIT, "300000");
+        if (digestLinger >= digestMaxWait) {
+            throw invalid(DelayAlerterConfigConstants.DIGEST_LINGER, "" + digestLinger,
+                    "must be less than " + DelayAlerterConfigConstants.DIGEST_MAX_WAIT);
+        }
+        mailQueueEnabled = getBoolean(properties, DelayAlerterConfigConstants.MAIL_QUEUE_ENABLED, "false");
+        mailQueueCapacity = getInt(properties, DelayAlerterConfigConstants.MAIL_QUEUE_CAPACITY, "100");
+        if (mailQueueCapacity < 1) {
+            throw invalid(DelayAlerterConfigConstants.MAIL_QUEUE_CAPACITY, "" + mailQueueCapacity, "must be positive");
+        }
+        mailQueueSenders = getInt(properties, DelayAlerterConfigConstants.MAIL_QUEUE_SENDERS, "" + SimpleMailer.DEFAULT_POOL_SIZE);
+        if (mailQueueSenders < 1) {
+            throw invalid(DelayAlerterConfigConstants.MAIL_QUEUE_SENDERS, "" + mailQueueSenders, "must be positive");
+        }
+        mailQueueSendTimeout = getLong(properties, DelayAlerterConfigConstants.MAIL_QUEUE_SEND_TIMEOUT, "60000");
+        String outbox = properties.getProperty(DelayAlerterConfigConstants.OUTBOX_FILE, "").trim();
+        outboxFile = outbox.isEmpty() ? null : new File(outbox);
+        outboxRetryInterval = getLong(properties, DelayAlerterConfigConstants.OUTBOX_RETRY_INTERVAL, "10000");
+        if (outboxRetryInterval < 1) {
+            throw invalid(DelayAlerterConfigConstants.OUTBOX_RETRY_INTERVAL, "" + outboxRetryInterval, "must be positive");
+        }
+        outboxInitialBackoff = getLong(properties, DelayAlerterConfigConstants.OUTBOX_INITIAL_BACKOFF, "60000");
+        outboxMaxBackoff = getLong(properties, DelayAlerterConfigConstants.OUTBOX_MAX_BACKOFF, "3600000");
+        outboxSyncEvery = getInt(properties, DelayAlerterConfigConstants.OUTBOX_SYNC_EVERY, "16");
+        outboxTtl = getLong(properties, DelayAlerterConfigConstants.OUTBOX_TTL, "604800000");
+        if (outboxTtl < 1) {
+            throw invalid(DelayAlerterConfigConstants.OUTBOX_TTL, "" + outboxTtl, "must be positive");
+        }
+        notifiers = new ArrayList<>();
+        notifierTimeouts = new HashMap<>();
+        notifierProperties = new HashMap<>();
+        String channels = properties.getProperty(DelayAlerterConfigConstants.NOTIFIERS, NotifierDispatcher.MAIL);
+        for (String name : channels.split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (notifiers.contains(name)) {
+                throw invalid(DelayAlerterConfigConstants.NOTIFIERS, channels, "names " + name + " more than once");
+            }
+            notifiers.add(name);
+            String prefix = DelayAlerterConfigConstants.NOTIFIER_PREFIX + name;
+            notifierTimeouts.put(name, getLong(properties, prefix + DelayAlerterConfigConstants.NOTIFIER_TIMEOUT_SUFFIX,
+                    name.equals(NotifierDispatcher.MAIL) ? "0" : "30000"));
+            Properties channelProperties = new Properties();
+            for (String key : properties.stringPropertyNames()) {
+                if (key.startsWith(prefix + ".")) {
+                    channelProperties.setProperty(key.substring(prefix.length() + 1), properties.getProperty(key));
+                }
+            }
+            notifierProperties.put(name, channelProperties);
+        }
+        if (notifiers.isEmpty()) {
+            throw invalid(DelayAlerterConfigConstants.NOTIFIERS, channels, "names no channels");
+        }
+        notifiersQuorum = getInt(properties, DelayAlerterConfigConstants.NOTIFIERS_QUORUM, "1");
+        if (notifiersQuorum < 1 || notifiersQuorum > notifiers.size()) {
+            throw invalid(DelayAlerterConfigConstants.NOTIFIERS_QUORUM, "" + notifiersQuorum,
+                    "must be between 1 and the number of channels");
+        }
+        String dedup = properties.getProperty(DelayAlerterConfigConstants.DEDUP_FILE, "").trim();
+        dedupFile = dedup.isEmpty() ? null : new File(dedup);
+        dedupTtl = getLong(properties, DelayAlerterConfigConstants.DEDUP_TTL, "604800000");
+        rateLimitPerHour = getInt(properties, DelayAlerterConfigConstants.RATE_LIMIT_PER_HOUR, "0");
+        if (rateLimitPerHour < 0) {
+            throw invalid(DelayAlerterConfigConstants.RATE_LIMIT_PER_HOUR, "" + rateLimitPerHour, "must not be negative");
+        }
+        String burst = properties.getProperty(DelayAlerterConfigConstants.RATE_LIMIT_BURST, "").trim();
+        rateLimitBurst = burst.isEmpty()
+                ? rateLimitPerHour : getInt(properties, DelayAlerterConfigConstants.RATE_LIMIT_BURST, null);
+        if (rateLimitPerHour > 0 && rateLimitBurst < 1) {
+            throw invalid(DelayAlerterConfigConstants.RATE_LIMIT_BURST, "" + rateLimitBurst, "must be positive");
+        }
+        rateLimitSummaryInterval = getLong(properties, DelayAlerterConfigConstants.RATE_LIMIT_SUMMARY_INTERVAL,
+                "3600000");
+        String rateLimit = properties.getProperty(DelayAlerterConfigConstants.RATE_LIMIT_FILE, "").trim();
+        if (!rateLimit.isEmpty()) {
+            rateLimitFile = new File(rateLimit);
+        } else {
+            rateLimitFile = dedupFile == null ? null : new File(dedupFile.getPath() + ".ratelimit");
+        }
+        String metrics = properties.getProperty(DelayAlerterConfigConstants.METRICS_FILE, "").trim();
+        metricsFile = metrics.isEmpty() ? null : new File(metrics);
+        metricsHttpPort = getInt(properties, DelayAlerterConfigConstants.METRICS_HTTP_PORT, "0");
+        if (metricsHttpPort < 0 || metricsHttpPort > 65535) {
+            throw invalid(DelayAlerterConfigConstants.METRICS_HTTP_PORT, "" + metricsHttpPort, "is not a valid port");
+        }
+        daemonEnabled = getBoolean(properties, DelayAlerterConfigConstants.DAEMON_ENABLED, "false");
+        daemonPollDelay = getLong(properties, DelayAlerterConfigConstants.DAEMON_POLL_DELAY, "300000");
+        daemonShutdownTimeout = getLong(properties, DelayAlerterConfigConstants.DAEMON_SHUTDOWN_TIMEOUT, "60000");
+        deadlineIndexEnabled = getBoolean(properties, DelayAlerterConfigConstants.DAEMON_DEADLINE_INDEX_ENABLED, "false");
+        deadlineIndexMinInterval = getLong(properties, DelayAlerterConfigConstants.DAEMON_DEADLINE_INDEX_MIN_INTERVAL,
+                "10000");
+        String broker = properties.getProperty(DelayAlerterConfigConstants.PUSH_BROKER_URL, "").trim();
+        pushBrokerUrl = broker.isEmpty() ? null : broker;
+        if (pushBrokerUrl != null && !daemonEnabled) {
+            throw invalid(DelayAlerterConfigConstants.PUSH_BROKER_URL, pushBrokerUrl,
+                    "requires " + DelayAlerterConfigConstants.DAEMON_ENABLED + "=true");
+        }
+        pushTopic = properties.getProperty(DelayAlerterConfigConstants.PUSH_TOPIC, "fedora.apim.update").trim();
+        if (pushTopic.isEmpty()) {
+            throw invalid(DelayAlerterConfigConstants.PUSH_TOPIC, pushTopic, "must not be empty");
+        }
+        pushDatastream = properties.getProperty(DelayAlerterConfigConstants.PUSH_DATASTREAM, "EVENTS").trim();
+        pushDelay = getLong(properties, DelayAlerterConfigConstants.PUSH_DELAY, "10000");
+        pushReconnectDelay = getLong(properties, DelayAlerterConfigConstants.PUSH_RECONNECT_DELAY, "60000");
+        if (pushReconnectDelay == 0) {
+            throw invalid(DelayAlerterConfigConstants.PUSH_RECONNECT_DELAY, "0", "must be positive");
+        }
+        fullScanInterval = getLong(properties, DelayAlerterConfigConstants.FULL_SCAN_INTERVAL, "0");
+        if (fullScanInterval >= tiers.get(0).getAlertPeriod() && fullScanInterval > 0) {
+            throw invalid(DelayAlerterConfigConstants.FULL_SCAN_INTERVAL, "" + fullScanInterval,
+                    "must be shorter than the delay of the first tier");
+        }
+        String state = properties.getProperty(DelayAlerterConfigConstants.STATE_FILE, "").trim();
+        stateFile = state.isEmpty() ? null : new File(state);
+        shardEnabled = getBoolean(properties, DelayAlerterConfigConstants.SHARD_ENABLED, "false");
+        shardPath = properties.getProperty(DelayAlerterConfigConstants.SHARD_PATH,
+                "/newspaper-delayed-batch-alerter/shards").trim();
+        if (!shardPath.startsWith("/") || shardPath.endsWith("/")) {
+            throw invalid(DelayAlerterConfigConstants.SHARD_PATH, shardPath,
+                    "must start with / and not end with /");
+        }
+        String nodeName = properties.getProperty(DelayAlerterConfigConstants.SHARD_NODE_NAME, "").trim();
+        shardNodeName = nodeName.isEmpty() ? ManagementFactory.getRuntimeMXBean().getName() : nodeName;
+        shardVirtualNodes = getInt(properties, DelayAlerterConfigConstants.SHARD_VIRTUAL_NODES, "100");
+        if (shardVirtualNodes < 1) {
+            throw invalid(DelayAlerterConfigConstants.SHARD_VIRTUAL_NODES, "" + shardVirtualNodes, "must be at least 1");
+        }
+        shardSessionTimeout = getInt(properties, DelayAlerterConfigConstants.SHARD_SESSION_TIMEOUT, "30000");
+        if (shardSessionTimeout < 1) {
+            throw invalid(DelayAlerterConfigConstants.SHARD_SESSION_TIMEOUT, "" + shardSessionTimeout,
+                    "must be positive");
+        }
+        adaptiveEnabled = getBoolean(properties, DelayAlerterConfigConstants.ADAPTIVE_ENABLED, "false");
+        adaptivePercentile = getInt(properties, DelayAlerterConfigConstants.ADAPTIVE_PERCENTILE, "95");
+        if (adaptivePercentile < 1 || adaptivePercentile > 99) {
+            throw invalid(DelayAlerterConfigConstants.ADAPTIVE_PERCENTILE, "" + adaptivePercentile,
+                    "is not from 1 to 99");
+        }
+        adaptiveMinSamples = getInt(properties, DelayAlerterConfigConstants.ADAPTIVE_MIN_SAMPLES, "20");
+        if (adaptiveMinSamples < 1) {
+            throw invalid(DelayAlerterConfigConstants.ADAPTIVE_MIN_SAMPLES, "" + adaptiveMinSamples,
+                    "must be at least 1");
+        }
+        adaptiveMinDays = getInt(properties, DelayAlerterConfigConstants.ADAPTIVE_MIN_DAYS, "1");
+        if (adaptiveMinDays < 1) {
+            throw invalid(DelayAlerterConfigConstants.ADAPTIVE_MIN_DAYS, "" + adaptiveMinDays, "must be at least 1");
+        }
+        if (adaptiveEnabled && fullScanInterval >= adaptiveMinDays * 24 * 3600 * 1000L) {
+            throw invalid(DelayAlerterConfigConstants.FULL_SCAN_INTERVAL, "" + fullScanInterval,
+                    "must be shorter than " + DelayAlerterConfigConstants.ADAPTIVE_MIN_DAYS);
+        }
+        adaptivePrefixLength = getInt(properties, DelayAlerterConfigConstants.ADAPTIVE_PREFIX_LENGTH, "0");
+        if (adaptivePrefixLength < 0) {
+            throw invalid(DelayAlerterConfigConstants.ADAPTIVE_PREFIX_LENGTH, "" + adaptivePrefixLength,
+                    "must not be negative");
+        }
+        adaptiveLearnInterval = getLong(properties, DelayAlerterConfigConstants.ADAPTIVE_LEARN_INTERVAL, "86400000");
+        adaptiveApprovedEvent = properties.getProperty(DelayAlerterConfigConstants.ADAPTIVE_APPROVED_EVENT,
+                "Roundtrip_Approved").trim();
+        if (adaptiveApprovedEvent.isEmpty()) {
+            throw invalid(DelayAlerterConfigConstants.ADAPTIVE_APPROVED_EVENT, adaptiveApprovedEvent,
+                    "must not be empty");
+        }
+        String adaptive = properties.getProperty(DelayAlerterConfigConstants.ADAPTIVE_FILE, "").trim();
+        adaptiveFile = adaptive.isEmpty() ? null : new File(adaptive);
+    }
+
+    /**
+     * Check that the properties needed to send mails are present.
+     * @throws IllegalArgumentException if the smtp host or the from address is missing.
+     */
+    public void checkMailSettings() {
+        if (smtpHost == null || smtpHost.trim().isEmpty()) {
+            throw invalid(DelayAlerterConfigConstants.SMTP_HOST, smtpHost, "is required");
+        }
+        if (fromAddress == null) {
+            throw invalid(DelayAlerterConfigConstants.EMAIL_FROM_ADDRESS, null, "is required");
+        }
+    }
+
+    /**
+     * @return the number of days from receiving a roundtrip until an alert is sent. With tiers and no delay.alert.days
+     * configured, this is the delay of the first tier.
+     */
+    public int getDelayDays() {
+        return delayDays;
+    }
+
+    /**
+     * @return the number of milliseconds from receiving a roundtrip until an alert is sent.
+     */
+    public long getAlertPeriod() {
+        return alertPeriod;
+    }
+
+    /**
+     * @return true if the delay is measured from the latest Data_Received event, false if from the earliest.
+     */
+    public boolean isLatestDataReceived() {
+        return latestDataReceived;
+    }
+
+    /**
+     * @return the recipients of alerts, as configured. With tiers and no delay.alert.email.addresses configured,
+     * these are the recipients of the first tier.
+     */
+    public List<String> getRecipients() {
+        return recipients;
+    }
+
+    /**
+     * @return the tiers of alerts, in order of increasing delay. Without configured tiers this is a single tier
+     * using the delay and recipients above and the Warning_Email_Sent event.
+     */
+    public List<AlertTier> getTiers() {
+        return tiers;
+    }
+
+    /**
+     * @return the directory to load the alert templates from, or null to load them from the classpath.
+     */
+    public File getTemplateDir() {
+        return templateDir;
+    }
+
+    public String getTemplateLocale() {
+        return templateLocale;
+    }
+
+    public boolean isTemplateHtml() {
+        return templateHtml;
+    }
+
+    /**
+     * @return the template for a link to a roundtrip, or an empty string for none.
+     */
+    public String getTemplateLink() {
+        return templateLink;
+    }
+
+    public String getFromAddress() {
+        return fromAddress;
+    }
+
+    public String getSmtpHost() {
+        return smtpHost;
+    }
+
+    public String getSmtpPort() {
+        return smtpPort;
+    }
+
+    public int getSmtpPoolSize() {
+        return smtpPoolSize;
+    }
+
+    public long getSmtpPoolIdleTimeout() {
+        return smtpPoolIdleTimeout;
+    }
+
+    public long getSmtpConnectionTimeout() {
+        return smtpConnectionTimeout;
+    }
+
+    public long getSmtpTimeout() {
+        return smtpTimeout;
+    }
+
+    /**
+     * @return the number of consecutive failed mails which opens the circuit breaker, or 0 if there is none.
+     */
+    public int getCircuitBreakerFailures() {
+        return circuitBreakerFailures;
+    }
+
+    public long getCircuitBreakerOpenTime() {
+        return circuitBreakerOpenTime;
+    }
+
+    /**
+     * @return true if roundtrips are worked on in the io execution mode.
+     */
+    public boolean isIoExecutionMode() {
+        return ioExecutionMode;
+    }
+
+    public int getIoMaxThreads() {
+        return ioMaxThreads;
+    }
+
+    public boolean isDigestEnabled() {
+        return digestEnabled;
+    }
+
+    public int getDigestMaxEntries() {
+        return digestMaxEntries;
+    }
+
+    public long getDigestLinger() {
+        return digestLinger;
+    }
+
+    public long getDigestMaxWait() {
+        return digestMaxWait;
+    }
+
+    public boolean isMailQueueEnabled() {
+        return mailQueueEnabled;
+    }
+
+    public int getMailQueueCapacity() {
+        return mailQueueCapacity;
+    }
+
+    public int getMailQueueSenders() {
+        return mailQueueSenders;
+    }
+
+    public long getMailQueueSendTimeout() {
+        return mailQueueSendTimeout;
+    }
+
+    /**
+     * @return the outbox file, or null if there is no outbox.
+     */
+    public File getOutboxFile() {
+        return outboxFile;
+    }
+
+    public long getOutboxRetryInterval() {
+        return outboxRetryInterval;
+    }
+
+    public long getOutboxInitialBackoff() {
+        return outboxInitialBackoff;
+    }
+
+    public long getOutboxMaxBackoff() {
+        return outboxMaxBackoff;
+    }
+
+    public int getOutboxSyncEvery() {
+        return outboxSyncEvery;
+    }
+
+    public long getOutboxTtl() {
+        return outboxTtl;
+    }
+
+    /**
+     * @return the names of the channels to send alerts through.
+     */
+    public List<String> getNotifiers() {
+        return Collections.unmodifiableList(notifiers);
+    }
+
+    public int getNotifiersQuorum() {
+        return notifiersQuorum;
+    }
+
+    /**
+     * @return the number of milliseconds to wait for each channel, by name, where 0 is no limit.
+     */
+    public Map<String, Long> getNotifierTimeouts() {
+        return Collections.unmodifiableMap(notifierTimeouts);
+    }
+
+    /**
+     * @param name the name of a channel.
+     * @return the properties of the channel, with the prefix delay.alert.notifier.&lt;name&gt;. removed.
+     */
+    public Properties getNotifierProperties(String name) {
+        Properties result = new Properties();
+        result.putAll(notifierProperties.get(name));
+        return result;
+    }
+
+    /**
+     * @return the file to remember sent alerts in, or null if they are not remembered.
+     */
+    public File getDedupFile() {
+        return dedupFile;
+    }
+
+    public long getDedupTtl() {
+        return dedupTtl;
+    }
+
+    /**
+     * @return the number of alert mails a recipient may receive an hour, or 0 if they are not limited.
+     */
+    public int getRateLimitPerHour() {
+        return rateLimitPerHour;
+    }
+
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    public long getRateLimitSummaryInterval() {
+        return rateLimitSummaryInterval;
+    }
+
+    /**
+     * @return the file to keep the rate limits in between runs, or null if they are only kept in memory.
+     */
+    public File getRateLimitFile() {
+        return rateLimitFile;
+    }
+
+    /**
+     * @return the file to write metrics to, or null if none.
+     */
+    public File getMetricsFile() {
+        return metricsFile;
+    }
+
+    /**
+     * @return the port to serve metrics on, or 0 if they should not be served.
+     */
+    public int getMetricsHttpPort() {
+        return metricsHttpPort;
+    }
+
+    public boolean isDaemonEnabled() {
+        return daemonEnabled;
+    }
+
+    public long getDaemonPollDelay() {
+        return daemonPollDelay;
+    }
+
+    public long getDaemonShutdownTimeout() {
+        return daemonShutdownTimeout;
+    }
+
+    public boolean isDeadlineIndexEnabled() {
+        return deadlineIndexEnabled;
+    }
+
+    public long getDeadlineIndexMinInterval() {
+        return deadlineIndexMinInterval;
+    }
+
+    /**
+     * @return the URL of the JMS broker to listen for changes on, or null if the daemon only polls regularly.
+     */
+    public String getPushBrokerUrl() {
+        return pushBrokerUrl;
+    }
+
+    public String getPushTopic() {
+        return pushTopic;
+    }
+
+    /**
+     * @return the datastream whose changes trigger a poll, or the empty string if every change does.
+     */
+    public String getPushDatastream() {
+        return pushDatastream;
+    }
+
+    public long getPushDelay() {
+        return pushDelay;
+    }
+
+    public long getPushReconnectDelay() {
+        return pushReconnectDelay;
+    }
+
+    public long getFullScanInterval() {
+        return fullScanInterval;
+    }
+
+    /**
+     * @return the state file for the deadline index, or null if it is only kept in memory.
+     */
+    public File getStateFile() {
+        return stateFile;
+    }
+
+    /**
+     * @return true if several alerter nodes share the roundtrips between them.
+     */
+    public boolean isShardEnabled() {
+        return shardEnabled;
+    }
+
+    public String getShardPath() {
+        return shardPath;
+    }
+
+    /**
+     * @return the name of this node, by default pid@host.
+     */
+    public String getShardNodeName() {
+        return shardNodeName;
+    }
+
+    public int getShardVirtualNodes() {
+        return shardVirtualNodes;
+    }
+
+    public int getShardSessionTimeout() {
+        return shardSessionTimeout;
+    }
+
+    /**
+     * @return true if roundtrips are alerted when they take longer than most roundtrips in their group.
+     */
+    public boolean isAdaptiveEnabled() {
+        return adaptiveEnabled;
+    }
+
+    public int getAdaptivePercentile() {
+        return adaptivePercentile;
+    }
+
+    public int getAdaptiveMinSamples() {
+        return adaptiveMinSamples;
+    }
+
+    /**
+     * @return the minimum number of milliseconds used as the delay of the first tier.
+     */
+    public long getAdaptiveMinPeriod() {
+        return adaptiveMinDays * 24 * 3600 * 1000L;
+    }
+
+    public int getAdaptivePrefixLength() {
+        return adaptivePrefixLength;
+    }
+
+    public long getAdaptiveLearnInterval() {
+        return adaptiveLearnInterval;
+    }
+
+    public String getAdaptiveApprovedEvent() {
+        return adaptiveApprovedEvent;
+    }
+
+    /**
+     * @return the file to keep the processing times learned in, or null if they are only kept in memory.
+     */
+    public File getAdaptiveFile() {
+        return adaptiveFile;
+    }
+
+    private static List<String> parseRecipients(Properties properties, String key) {
+        String addresses = getRequired(properties, key);
+        List<String> recipientList = new ArrayList<>();
+        for (String address : addresses.split(",")) {
+            String trimmed = address.trim();
+            if (!trimmed.isEmpty()) {
+                parseAddress(key, trimmed);
+                recipientList.add(trimmed);
+            }
+        }
+        if (recipientList.isEmpty()) {
+            throw invalid(key, addresses, "contains no addresses");
+        }
+        return Collections.unmodifiableList(recipientList);
+    }
+
+    private static int parseDelayDays(Properties properties) {
+        int days = getInt(properties, DelayAlerterConfigConstants.DELAY_ALERT_DAYS, null);
+        if (days < 0) {
+            throw invalid(DelayAlerterConfigConstants.DELAY_ALERT_DAYS, "" + days, "must not be negative");
+        }
+        return days;
+    }
+
+    private static List<AlertTier> parseTiers(Properties properties, String names) {
+        List<AlertTier> tierList = new ArrayList<>();
+        Set<String> eventIDs = new HashSet<>();
+        for (String name : names.split(",")) {
+            name = name.trim();
+            String prefix = DelayAlerterConfigConstants.TIER_PREFIX + name;
+            int days = getInt(properties, prefix + DelayAlerterConfigConstants.TIER_DAYS_SUFFIX, null);
+            if (tierList.isEmpty() && days < 0) {
+                throw invalid(prefix + DelayAlerterConfigConstants.TIER_DAYS_SUFFIX, "" + days, "must not be negative");
+            }
+            if (!tierList.isEmpty() && days <= tierList.get(tierList.size() - 1).getDelayDays()) {
+                throw invalid(prefix + DelayAlerterConfigConstants.TIER_DAYS_SUFFIX, "" + days,
+                        "must be larger than the days of the previous tier");
+            }
+            String eventID = getRequired(properties, prefix + DelayAlerterConfigConstants.TIER_EVENT_ID_SUFFIX);
+            if (!eventIDs.add(eventID)) {
+                throw invalid(prefix + DelayAlerterConfigConstants.TIER_EVENT_ID_SUFFIX, eventID,
+                        "is used by another tier");
+            }
+            tierList.add(new AlertTier(name, days,
+                    parseRecipients(properties, prefix + DelayAlerterConfigConstants.TIER_EMAIL_ADDRESSES_SUFFIX),
+                    eventID));
+        }
+        return Collections.unmodifiableList(tierList);
+    }
+
+    private static boolean isSet(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        return value != null && !value.trim().isEmpty();
+    }
+
+    private static String getRequired(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            throw invalid(key, value, "is required");
+        }
+        return value.trim();
+    }
+
+    private static int getInt(Properties properties, String key, String defaultValue) {
+        String value = defaultValue == null ? getRequired(properties, key) : properties.getProperty(key, defaultValue);
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw invalid(key, value, "is not an integer");
+        }
+    }
+
+    private static long getLong(Properties properties, String key, String defaultValue) {
+        String value = defaultValue == null ? getRequired(properties, key) : properties.getProperty(key, defaultValue);
+        try {
+            long result = Long.parseLong(value.trim());
+            if (result < 0) {
+                throw invalid(key, value, "must not be negative");
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            throw invalid(key, value, "is not an integer");
+        }
+    }
+
+    private static boolean getBoolean(Properties properties, String key, String defaultValue) {
+        String value = properties.getProperty(key, defaultValue).trim();
+        if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+            throw invalid(key, value, "is not true or false");
+        }
+        return Boolean.parseBoolean(value);
+    }
+
+    private static InternetAddress parseAddress(String key, String address) {
+        try {
+            InternetAddress parsed = new InternetAddress(address);
+            parsed.validate();
+            return parsed;
+        } catch (AddressException e) {
+            throw invalid(key, address, "is not a valid email address: " + e.getMessage());
+        }
+    }
+
+    private static IllegalArgumentException invalid(String key, String value, String problem) {
+        return new IllegalArgumentException("Property " + key + " with value '" + value + "' " + problem);
+    }
+}
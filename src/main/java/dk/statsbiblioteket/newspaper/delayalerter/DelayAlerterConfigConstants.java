@@ -6,12 +6,69 @@ package dk.statsbiblioteket.newspaper.delayalerter;
 public final class DelayAlerterConfigConstants {
 
     /**
-     * The number of days from when a batch is received until it is expected to be approved.
+     * The number of days from when a batch is received until it is expected to be approved. Only required without
+     * tiers.
      */
     public static final String DELAY_ALERT_DAYS = "delay.alert.days";
 
     /**
-     * A comma-separated list of email addresses to which alert messages will be sent.
+     * A comma-separated list of names of escalating alert tiers. Each tier is configured with the properties
+     * delay.alert.tier.&lt;name&gt;.days, delay.alert.tier.&lt;name&gt;.email.addresses and
+     * delay.alert.tier.&lt;name&gt;.eventId, and the tiers must be listed in order of increasing days. If not set,
+     * there is a single tier given by delay.alert.days and delay.alert.email.addresses, recorded with the
+     * Warning_Email_Sent event.
+     */
+    public static final String TIERS = "delay.alert.tiers";
+
+    /**
+     * The prefix of the properties of a tier.
+     */
+    public static final String TIER_PREFIX = "delay.alert.tier.";
+
+    /**
+     * The suffix of the property with the number of days before a roundtrip is alerted in a tier.
+     */
+    public static final String TIER_DAYS_SUFFIX = ".days";
+
+    /**
+     * The suffix of the property with the comma-separated list of recipients of alerts in a tier.
+     */
+    public static final String TIER_EMAIL_ADDRESSES_SUFFIX = ".email.addresses";
+
+    /**
+     * The suffix of the property with the event recording that a roundtrip has been alerted in a tier.
+     */
+    public static final String TIER_EVENT_ID_SUFFIX = ".eventId";
+
+    /**
+     * A directory to load the alert templates from. If not set, they are loaded from templates/ on the classpath,
+     * which includes the conf directory, or else the built-in templates are used.
+     */
+    public static final String TEMPLATE_DIR = "delay.alert.template.dir";
+
+    /**
+     * The locale of the alert templates, for example da or en. Templates for the locale are used if they exist.
+     */
+    public static final String TEMPLATE_LOCALE = "delay.alert.template.locale";
+
+    /**
+     * If true, alerts are sent as multipart mails with both a plain text and an HTML body.
+     */
+    public static final String TEMPLATE_HTML = "delay.alert.template.html";
+
+    /**
+     * A template for a link to a roundtrip, for example in DOMS, available to the alert templates as link.
+     */
+    public static final String TEMPLATE_LINK = "delay.alert.template.link";
+
+    /**
+     * Which Data_Received event to measure the delay from if data has been received more than once for a roundtrip,
+     * either "earliest" or "latest".
+     */
+    public static final String DATA_RECEIVED_SELECTION = "delay.alert.dataReceived.selection";
+
+    /**
+     * A comma-separated list of email addresses to which alert messages will be sent. Only required without tiers.
      */
     public static final String DELAY_ALERT_EMAIL_ADDRESSES = "delay.alert.email.addresses";
 
@@ -30,6 +87,333 @@ public final class DelayAlerterConfigConstants {
      */
     public static final String EMAIL_FROM_ADDRESS = "delay.alert.email.from.address";
 
+    /**
+     * The maximum number of simultaneous smtp connections kept open for reuse. Zero disables pooling.
+     */
+    public static final String SMTP_POOL_SIZE = "delay.alert.smtp.pool.size";
+
+    /**
+     * The number of milliseconds a pooled smtp connection may be idle before it is closed.
+     */
+    public static final String SMTP_POOL_IDLE_TIMEOUT = "delay.alert.smtp.pool.idleTimeout";
+
+    /**
+     * The number of milliseconds to wait for a connection to the smtp host. 0 waits indefinitely.
+     */
+    public static final String SMTP_CONNECTION_TIMEOUT = "delay.alert.smtp.connectionTimeout";
+
+    /**
+     * The number of milliseconds to wait for each reply from the smtp host. 0 waits indefinitely.
+     */
+    public static final String SMTP_TIMEOUT = "delay.alert.smtp.timeout";
+
+    /**
+     * The number of consecutive failed mails after which mails fail at once, without contacting the smtp host, until
+     * a probe succeeds. 0 disables the circuit breaker.
+     */
+    public static final String SMTP_CIRCUIT_BREAKER_FAILURES = "delay.alert.smtp.circuitBreaker.failures";
+
+    /**
+     * The number of milliseconds mails fail at once before a single mail is let through to probe the smtp host.
+     */
+    public static final String SMTP_CIRCUIT_BREAKER_OPEN_TIME = "delay.alert.smtp.circuitBreaker.openTime";
+
+    /**
+     * How roundtrips are worked on: "threads" uses the autonomous.maxThreads and autonomous.workQueueSize of the
+     * framework as they are, "io" runs many more roundtrips at a time, bounded by the smtp connection pool instead.
+     */
+    public static final String EXECUTION_MODE = "delay.alert.executionMode";
+
+    /**
+     * The number of roundtrips worked on at a time in the io execution mode.
+     */
+    public static final String IO_MAX_THREADS = "delay.alert.io.maxThreads";
+
+    /**
+     * If true, delayed roundtrips are collected into digest mails instead of being sent a mail each.
+     */
+    public static final String DIGEST_ENABLED = "delay.alert.digest.enabled";
+
+    /**
+     * The maximum number of roundtrips in a single digest mail.
+     */
+    public static final String DIGEST_MAX_ENTRIES = "delay.alert.digest.maxEntries";
+
+    /**
+     * The number of milliseconds to wait for more delayed roundtrips before a digest mail is sent. Must be less than
+     * {@link #DIGEST_MAX_WAIT}.
+     */
+    public static final String DIGEST_LINGER = "delay.alert.digest.linger";
+
+    /**
+     * The maximum number of milliseconds a worker waits for the digest holding its roundtrip to be sent.
+     */
+    public static final String DIGEST_MAX_WAIT = "delay.alert.digest.maxWait";
+
+    /**
+     * If true, alert mails are handed to a queue and sent by dedicated sender threads.
+     */
+    public static final String MAIL_QUEUE_ENABLED = "delay.alert.mailQueue.enabled";
+
+    /**
+     * The maximum number of alert mails waiting in the queue. When the queue is full, workers wait for room.
+     */
+    public static final String MAIL_QUEUE_CAPACITY = "delay.alert.mailQueue.capacity";
+
+    /**
+     * The number of threads sending mails from the queue.
+     */
+    public static final String MAIL_QUEUE_SENDERS = "delay.alert.mailQueue.senders";
+
+    /**
+     * The maximum number of milliseconds a worker waits for its queued mail to be sent.
+     */
+    public static final String MAIL_QUEUE_SEND_TIMEOUT = "delay.alert.mailQueue.sendTimeout";
+
+    /**
+     * The file holding alerts which could not be sent, to be resent with backoff. If not set, failed alerts are only
+     * retried on the next run.
+     */
+    public static final String OUTBOX_FILE = "delay.alert.outbox.file";
+
+    /**
+     * The number of milliseconds between checks for alerts in the outbox which are due to be resent.
+     */
+    public static final String OUTBOX_RETRY_INTERVAL = "delay.alert.outbox.retryInterval";
+
+    /**
+     * The number of milliseconds before an alert in the outbox is resent the first time. The time is doubled for
+     * every failed attempt.
+     */
+    public static final String OUTBOX_INITIAL_BACKOFF = "delay.alert.outbox.initialBackoff";
+
+    /**
+     * The maximum number of milliseconds between attempts to resend an alert in the outbox.
+     */
+    public static final String OUTBOX_MAX_BACKOFF = "delay.alert.outbox.maxBackoff";
+
+    /**
+     * The number of records written to the outbox before it is synced to disk.
+     */
+    public static final String OUTBOX_SYNC_EVERY = "delay.alert.outbox.syncEvery";
+
+    /**
+     * The number of milliseconds an alert is kept in the outbox, after which it is dropped whether it was resent or
+     * not.
+     */
+    public static final String OUTBOX_TTL = "delay.alert.outbox.ttl";
+
+    /**
+     * The channels to send alerts through, separated by commas. The built-in channels are mail, webhook, file and
+     * log, and others can be added with a {@link NotifierFactory}. Defaults to mail.
+     */
+    public static final String NOTIFIERS = "delay.alert.notifiers";
+
+    /**
+     * The number of channels which must succeed for an alert to count as sent and its event to be recorded.
+     */
+    public static final String NOTIFIERS_QUORUM = "delay.alert.notifiers.quorum";
+
+    /**
+     * The prefix of the properties of a channel, followed by the name of the channel and the name of the property,
+     * for example delay.alert.notifier.webhook.url.
+     */
+    public static final String NOTIFIER_PREFIX = "delay.alert.notifier.";
+
+    /**
+     * The suffix of the number of milliseconds to wait for a channel to send an alert. Defaults to 30000, except for
+     * mail which is only bounded by the mail queue and digest settings.
+     */
+    public static final String NOTIFIER_TIMEOUT_SUFFIX = ".timeout";
+
+    /**
+     * A file to remember the alerts which have been sent in, so an alert is not sent again if its event could not be
+     * recorded. If not set, alerts are not remembered.
+     */
+    public static final String DEDUP_FILE = "delay.alert.dedup.file";
+
+    /**
+     * The number of milliseconds a sent alert is remembered.
+     */
+    public static final String DEDUP_TTL = "delay.alert.dedup.ttl";
+
+    /**
+     * The number of alert mails a recipient may receive an hour. Alerts held back are sent to the recipient in a
+     * summary at the end of the run. If 0, alert mails are not limited.
+     */
+    public static final String RATE_LIMIT_PER_HOUR = "delay.alert.rateLimit.perHour";
+
+    /**
+     * The number of alert mails a recipient may receive at once, before the hourly rate applies. Defaults to the
+     * hourly rate.
+     */
+    public static final String RATE_LIMIT_BURST = "delay.alert.rateLimit.burst";
+
+    /**
+     * The minimum number of milliseconds between two summaries of held back alerts to a recipient. Defaults to an
+     * hour.
+     */
+    public static final String RATE_LIMIT_SUMMARY_INTERVAL = "delay.alert.rateLimit.summaryInterval";
+
+    /**
+     * A file to keep the rate limit of every recipient in between runs. Defaults to the dedup file with the suffix
+     * ".ratelimit". If neither is set, the rate limits are only kept in memory.
+     */
+    public static final String RATE_LIMIT_FILE = "delay.alert.rateLimit.file";
+
+    /**
+     * A file to write metrics to in the Prometheus text format at the end of every run. If not set, no file is
+     * written.
+     */
+    public static final String METRICS_FILE = "delay.alert.metrics.file";
+
+    /**
+     * A port on which to serve metrics in the Prometheus text format at /metrics. If 0, metrics are not served.
+     */
+    public static final String METRICS_HTTP_PORT = "delay.alert.metrics.http.port";
+
+    /**
+     * If true, the component keeps running and polls repeatedly instead of exiting after a single poll.
+     */
+    public static final String DAEMON_ENABLED = "delay.alert.daemon.enabled";
+
+    /**
+     * The number of milliseconds between the end of one poll and the start of the next in daemon mode.
+     */
+    public static final String DAEMON_POLL_DELAY = "delay.alert.daemon.pollDelay";
+
+    /**
+     * The maximum number of milliseconds to wait for a running poll when the daemon is shut down, and then for the
+     * resources of the daemon to be closed.
+     */
+    public static final String DAEMON_SHUTDOWN_TIMEOUT = "delay.alert.daemon.shutdownTimeout";
+
+    /**
+     * If true, the daemon keeps an index of the deadlines of the roundtrips not yet overdue, and polls as soon as a
+     * deadline has passed instead of waiting for the next regular poll.
+     */
+    public static final String DAEMON_DEADLINE_INDEX_ENABLED = "delay.alert.daemon.deadlineIndex.enabled";
+
+    /**
+     * The minimum number of milliseconds between the end of one poll and an early poll for a passed deadline.
+     */
+    public static final String DAEMON_DEADLINE_INDEX_MIN_INTERVAL = "delay.alert.daemon.deadlineIndex.minInterval";
+
+    /**
+     * The URL of the JMS broker DOMS publishes its change messages on. If set, the daemon polls shortly after a
+     * roundtrip has changed, besides polling regularly. Requires daemon mode.
+     */
+    public static final String PUSH_BROKER_URL = "delay.alert.push.brokerUrl";
+
+    /**
+     * The JMS topic of the change messages.
+     */
+    public static final String PUSH_TOPIC = "delay.alert.push.topic";
+
+    /**
+     * The datastream holding the events of the roundtrips. Changes to other datastreams are ignored. If empty, every
+     * change triggers a poll.
+     */
+    public static final String PUSH_DATASTREAM = "delay.alert.push.datastream";
+
+    /**
+     * The number of milliseconds from a change until the poll it triggers, during which further changes are merged
+     * into the same poll. The poll is also never started sooner than the poll delay after the previous one triggered
+     * by a change.
+     */
+    public static final String PUSH_DELAY = "delay.alert.push.delay";
+
+    /**
+     * The maximum number of milliseconds between attempts to reconnect to the broker, when it could not be reached
+     * or the connection was lost. The first attempt is after a second, and the time doubles up to this.
+     */
+    public static final String PUSH_RECONNECT_DELAY = "delay.alert.push.reconnectDelay";
+
+    /**
+     * The maximum number of milliseconds between complete runs. If set, runs are skipped until a deadline of a known
+     * roundtrip has passed or the last complete run is older than this. Must be shorter than the delay of the first
+     * tier. If not set, or 0, every run is a complete run.
+     */
+    public static final String FULL_SCAN_INTERVAL = "delay.alert.fullScanInterval";
+
+    /**
+     * A file to keep the deadlines of known roundtrips and the time of the last complete run in between runs. If not
+     * set, they are only kept in memory.
+     */
+    public static final String STATE_FILE = "delay.alert.state.file";
+
+    /**
+     * If true, several alerter nodes share the roundtrips between them. Every node registers in ZooKeeper and only
+     * alerts the roundtrips of the batches in its part of a consistent hash ring.
+     */
+    public static final String SHARD_ENABLED = "delay.alert.shard.enabled";
+
+    /**
+     * The ZooKeeper path the nodes register under. Nodes sharing the roundtrips must use the same path.
+     */
+    public static final String SHARD_PATH = "delay.alert.shard.path";
+
+    /**
+     * The name of this node, which must differ between the nodes. If not set, the host name and process ID are used.
+     */
+    public static final String SHARD_NODE_NAME = "delay.alert.shard.nodeName";
+
+    /**
+     * The number of points on the hash ring for every node. More points spread the batches more evenly.
+     */
+    public static final String SHARD_VIRTUAL_NODES = "delay.alert.shard.virtualNodes";
+
+    /**
+     * The number of milliseconds before the registration of a node which has died expires, and its batches are taken
+     * over by the other nodes.
+     */
+    public static final String SHARD_SESSION_TIMEOUT = "delay.alert.shard.sessionTimeout";
+
+    /**
+     * Set to true to learn how long roundtrips take from data received until approved, and alert the roundtrips
+     * which take longer than most. The delay of the first tier is then only used until enough roundtrips have been
+     * learned from.
+     */
+    public static final String ADAPTIVE_ENABLED = "delay.alert.adaptive.enabled";
+
+    /**
+     * The percentile of the processing times used as the delay, from 1 to 99. Defaults to 95, so a roundtrip is
+     * alerted when it has taken longer than 95% of the roundtrips before it.
+     */
+    public static final String ADAPTIVE_PERCENTILE = "delay.alert.adaptive.percentile";
+
+    /**
+     * The number of approved roundtrips a group must have learned from before its processing times are used.
+     */
+    public static final String ADAPTIVE_MIN_SAMPLES = "delay.alert.adaptive.minSamples";
+
+    /**
+     * The minimum number of days used as the delay, however fast the roundtrips of a group are approved. Must be
+     * longer than the full scan interval.
+     */
+    public static final String ADAPTIVE_MIN_DAYS = "delay.alert.adaptive.minDays";
+
+    /**
+     * The number of leading characters of the batch ID roundtrips are grouped by, or 0 to learn from all roundtrips
+     * together.
+     */
+    public static final String ADAPTIVE_PREFIX_LENGTH = "delay.alert.adaptive.prefixLength";
+
+    /**
+     * The minimum number of milliseconds between the passes learning from the roundtrips no longer open.
+     */
+    public static final String ADAPTIVE_LEARN_INTERVAL = "delay.alert.adaptive.learnInterval";
+
+    /**
+     * The event recording that a roundtrip has been approved.
+     */
+    public static final String ADAPTIVE_APPROVED_EVENT = "delay.alert.adaptive.approvedEvent";
+
+    /**
+     * A file to keep the processing times learned in between runs. If not set, they are only kept in memory.
+     */
+    public static final String ADAPTIVE_FILE = "delay.alert.adaptive.file";
+
     /**
      * Private constructor as this class should not be instantiated.
      */
@@ -0,0 +1,278 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the delay alerter repeatedly in a single long-running JVM instead of starting a new JVM for every poll.
+ * The component and the mailer (with its pooled smtp connections) are kept between polls. A new poll is started
+ * a fixed delay after the previous one finished, and polls never overlap. Before every poll the configuration is
+ * reloaded if the properties file has changed.
+ *
+ * With a {@link DeadlineIndex}, an extra poll is scheduled for the moment the earliest deadline of a roundtrip not yet
+ * overdue passes, so it is alerted within seconds instead of at the next regular poll. Events can only be written by
+ * a run of the component, so the extra poll is a normal run, but it is never started sooner than a minimum interval
+ * after the previous poll.
+ *
+ * With a {@link RepositoryChangeListener}, a change in DOMS to a roundtrip still open requests a poll re-checking only
+ * the roundtrips changed, and changes to other objects are ignored. The poll is started after a short delay so a
+ * burst of changes results in a single poll, and so SBOI has had time to index the change, and never sooner than the
+ * poll delay after the previous requested poll, so the changes never trigger polls more often than the regular polls
+ * do. When changes may have been missed, the requested poll is a complete one instead.
+ */
+public class DelayAlerterDaemon {
+
+    private static Logger log = LoggerFactory.getLogger(DelayAlerterDaemon.class);
+
+    private final Properties properties;
+    private final DelayAlerterComponent component;
+    private final SimpleMailer mailer;
+    private final ConfigReloader reloader;
+    private final long pollDelay;
+    private final long shutdownTimeout;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean polling = new AtomicBoolean(false);
+    private DeadlineIndex deadlineIndex;
+    private long deadlineMinInterval;
+    private ScheduledFuture<?> wakeup;
+    private final AtomicBoolean pollRequested = new AtomicBoolean(false);
+    private final Set<String> changedRoundtrips = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile boolean completePollRequested = false;
+    private volatile long lastRequestedPoll = 0;
+    private volatile long requestDelay;
+
+    /**
+     * Constructor for this class.
+     * @param properties the properties used for every poll.
+     * @param component the component to run on every poll.
+     * @param mailer the mailer used by the component.
+     * @param reloader the reloader checked for a changed configuration before every poll, or null.
+     * @param pollDelay the number of milliseconds between the end of one poll and the start of the next.
+     * @param shutdownTimeout the maximum number of milliseconds to wait for a running poll when shutting down.
+     */
+    public DelayAlerterDaemon(Properties properties, DelayAlerterComponent component, SimpleMailer mailer,
+                              ConfigReloader reloader, long pollDelay, long shutdownTimeout) {
+        this.properties = properties;
+        this.component = component;
+        this.mailer = mailer;
+        this.reloader = reloader;
+        this.pollDelay = pollDelay;
+        this.shutdownTimeout = shutdownTimeout;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "DelayAlerterDaemon");
+            }
+        });
+    }
+
+    /**
+     * Set the index of deadlines to schedule extra polls from. Must be called before the daemon is started.
+     * @param deadlineIndex the index filled by the component, or null to only poll regularly.
+     * @param minInterval the minimum number of milliseconds between the end of a poll and an extra poll.
+     */
+    public void setDeadlineIndex(DeadlineIndex deadlineIndex, long minInterval) {
+        this.deadlineIndex = deadlineIndex;
+        this.deadlineMinInterval = minInterval;
+    }
+
+    /**
+     * Set the delay from a poll being requested until it is started. Must be called before the daemon is started.
+     * @param requestDelay the number of milliseconds to wait before a requested poll.
+     */
+    public void setRequestDelay(long requestDelay) {
+        this.requestDelay = requestDelay;
+    }
+
+    /**
+     * Request a poll re-checking a roundtrip which has changed. The change is ignored unless the roundtrip was open in
+     * the last run, as new roundtrips are found by the regular polls.
+     * @param pid the PID of the object changed.
+     */
+    public void requestPoll(String pid) {
+        if (!component.isOpenRoundtrip(pid)) {
+            log.debug("Ignoring the change of {}, which is not a roundtrip still open", pid);
+            return;
+        }
+        changedRoundtrips.add(pid);
+        schedulePoll();
+    }
+
+    /**
+     * Request a complete poll, for example because changes may have been missed.
+     */
+    public void requestPoll() {
+        completePollRequested = true;
+        schedulePoll();
+    }
+
+    /**
+     * Schedule a requested poll, unless one is already scheduled. It starts after the request delay, but no sooner
+     * than the poll delay after the previous requested poll, and further requests until it starts are merged into it.
+     */
+    private void schedulePoll() {
+        if (!pollRequested.compareAndSet(false, true)) {
+            return;
+        }
+        long delay = Math.max(requestDelay, lastRequestedPoll + pollDelay - System.currentTimeMillis());
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    pollRequested.set(false);
+                    lastRequestedPoll = System.currentTimeMillis();
+                    if (completePollRequested) {
+                        completePollRequested = false;
+                        changedRoundtrips.clear();
+                        log.info("A complete poll has been requested, polling now");
+                        component.requestCompleteRun();
+                        poll();
+                    } else {
+                        pollChanged();
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.debug("Daemon is shutting down, not scheduling a requested poll");
+        }
+    }
+
+    /**
+     * Start polling. The first poll starts immediately.
+     */
+    public void start() {
+        log.info("Starting daemon, polling every {} ms", pollDelay);
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        }, 0, pollDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Block until the daemon has been shut down.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void awaitTermination() throws InterruptedException {
+        while (!scheduler.awaitTermination(1, TimeUnit.MINUTES)) {
+            log.trace("Daemon still running");
+        }
+    }
+
+    /**
+     * Stop polling. A poll in progress is allowed to finish within the shutdown timeout.
+     */
+    public void shutdown() {
+        log.info("Shutting down daemon");
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(shutdownTimeout, TimeUnit.MILLISECONDS)) {
+                log.warn("Poll did not finish within {} ms, interrupting it", shutdownTimeout);
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            scheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Run a single poll, unless one is already running.
+     */
+    void poll() {
+        poll(false);
+    }
+
+    /**
+     * Run a single poll re-checking the roundtrips changed since the last one. If a poll is already running, the
+     * changed roundtrips are left for a later requested poll.
+     */
+    void pollChanged() {
+        poll(true);
+    }
+
+    private void poll(boolean changedOnly) {
+        if (!polling.compareAndSet(false, true)) {
+            log.warn("Previous poll is still running, skipping this one");
+            if (changedOnly) {
+                schedulePoll();
+            }
+            return;
+        }
+        try {
+            if (reloader != null) {
+                reloader.reloadIfChanged();
+            }
+            long start = System.currentTimeMillis();
+            if (changedOnly) {
+                Set<String> changed = new HashSet<>(changedRoundtrips);
+                changedRoundtrips.removeAll(changed);
+                log.info("{} roundtrips have changed, re-checking them now", changed.size());
+                int failures = DelayAlerterComponent.runChanged(properties, component, changed);
+                log.info("Re-check finished in {} ms with {} failures", System.currentTimeMillis() - start,
+                        failures);
+            } else {
+                int failures = DelayAlerterComponent.runOnce(properties, component);
+                log.info("Poll finished in {} ms with {} failures", System.currentTimeMillis() - start, failures);
+            }
+        } catch (Exception e) {
+            log.error("Poll failed", e);
+        } finally {
+            mailer.evictIdleConnections();
+            polling.set(false);
+            scheduleWakeup();
+        }
+    }
+
+    /**
+     * Schedule an extra poll for when the earliest deadline in the index passes, replacing any extra poll already
+     * scheduled. Only called from the thread of the scheduler.
+     */
+    private void scheduleWakeup() {
+        if (deadlineIndex == null || scheduler.isShutdown()) {
+            return;
+        }
+        if (wakeup != null) {
+            wakeup.cancel(false);
+            wakeup = null;
+        }
+        long nextDeadline = deadlineIndex.nextDeadline();
+        if (nextDeadline == Long.MAX_VALUE) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        //The cutoff is exclusive, so poll just after the deadline
+        long delay = Math.max(nextDeadline + 1 - now, deadlineMinInterval);
+        log.debug("Next deadline at {}, scheduling an extra poll in {} ms", new Date(nextDeadline), delay);
+        try {
+            wakeup = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (deadlineIndex.nextDeadline() > System.currentTimeMillis()) {
+                        scheduleWakeup();
+                        return;
+                    }
+                    log.info("A deadline has passed, polling now");
+                    poll();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.debug("Daemon is shutting down, not scheduling an extra poll");
+        }
+    }
+}
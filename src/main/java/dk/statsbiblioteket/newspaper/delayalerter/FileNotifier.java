@@ -0,0 +1,80 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Appends alerts to a local file, one line per alert with the time, the recipients, the subject and the text separated
+ * by tabs. Tabs and newlines in the alert are escaped as in the outbox.
+ */
+public class FileNotifier implements Notifier {
+
+    static final String NAME = "file";
+
+    private static Logger log = LoggerFactory.getLogger(FileNotifier.class);
+
+    private final File file;
+    private final FileChannel channel;
+
+    /**
+     * Constructor for this class.
+     * @param properties the properties of the channel: path, the file to append to.
+     * @throws IOException if the file could not be opened.
+     * @throws IllegalArgumentException if the path is missing.
+     */
+    public FileNotifier(Properties properties) throws IOException {
+        String path = properties.getProperty("path", "").trim();
+        if (path.isEmpty()) {
+            throw new IllegalArgumentException("Property " + DelayAlerterConfigConstants.NOTIFIER_PREFIX + NAME
+                    + ".path with value '' is required");
+        }
+        file = new File(path);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void send(List<String> to, AlertMessage message) throws IOException {
+        StringBuilder recipients = new StringBuilder();
+        for (String recipient : to) {
+            if (recipients.length() > 0) {
+                recipients.append(',');
+            }
+            recipients.append(recipient);
+        }
+        String line = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date()) + '\t'
+                + AlertOutbox.escape(recipients.toString()) + '\t' + AlertOutbox.escape(message.getSubject()) + '\t'
+                + AlertOutbox.escape(message.getText()) + '\n';
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        synchronized (this) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error("Failed to close alert file " + file, e);
+        }
+    }
+}
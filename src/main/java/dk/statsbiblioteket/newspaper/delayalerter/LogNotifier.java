@@ -0,0 +1,31 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Logs alerts at warning level to the logger dk.statsbiblioteket.newspaper.delayalerter.alerts, which can be sent to
+ * syslog or another sink by the logging configuration.
+ */
+public class LogNotifier implements Notifier {
+
+    static final String NAME = "log";
+
+    private static Logger log = LoggerFactory.getLogger("dk.statsbiblioteket.newspaper.delayalerter.alerts");
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void send(List<String> to, AlertMessage message) {
+        log.warn("{} to {}: {}", message.getSubject(), to, message.getText().replace('\n', ' '));
+    }
+
+    @Override
+    public void close() {
+    }
+}
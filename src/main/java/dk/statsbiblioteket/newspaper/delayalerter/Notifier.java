@@ -0,0 +1,32 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import javax.mail.MessagingException;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A channel alerts are sent through, such as mail, a webhook or a file. Channels other than mail are created by a
+ * {@link NotifierFactory} and are used by a {@link NotifierDispatcher}, which sends every alert through all the
+ * configured channels at once.
+ */
+public interface Notifier {
+
+    /**
+     * @return the name of the channel, as used in the configuration.
+     */
+    String getName();
+
+    /**
+     * Send an alert through this channel. May be called from several threads at once.
+     * @param to the recipients of the alert. Channels without recipients, such as a chat room, may ignore them.
+     * @param message the alert.
+     * @throws MessagingException if a mail could not be sent.
+     * @throws IOException if the alert could not be sent through any other channel.
+     */
+    void send(List<String> to, AlertMessage message) throws MessagingException, IOException;
+
+    /**
+     * Release the resources held by this channel.
+     */
+    void close();
+}
@@ -0,0 +1,167 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.mail.MessagingException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.ServiceLoader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends every alert through several channels at once, so sending takes as long as the slowest channel rather than
+ * the sum of them. Each channel has its own timeout, and an alert counts as sent if at least a quorum of the
+ * channels succeeded.
+ *
+ * The mail channel goes through the digest and the mail queue of the component, so it is given for every alert rather
+ * than held by the dispatcher. The component only adds an alert to its outbox if the quorum was not reached.
+ */
+public class NotifierDispatcher {
+
+    /**
+     * The name of the mail channel.
+     */
+    public static final String MAIL = "mail";
+
+    private static Logger log = LoggerFactory.getLogger(NotifierDispatcher.class);
+
+    private final List<Notifier> notifiers;
+    private final boolean mail;
+    private final Map<String, Long> timeouts;
+    private final int quorum;
+    private final ExecutorService executor;
+
+    /**
+     * Constructor for this class.
+     * @param notifiers the channels other than mail.
+     * @param mail whether alerts are also sent by mail.
+     * @param timeouts the number of milliseconds to wait for each channel, by name. A channel without a timeout, or
+     *                 with a timeout of 0, is waited for until it is done.
+     * @param quorum the number of channels which must succeed for an alert to count as sent.
+     */
+    public NotifierDispatcher(List<Notifier> notifiers, boolean mail, Map<String, Long> timeouts, int quorum) {
+        this.notifiers = notifiers;
+        this.mail = mail;
+        this.timeouts = timeouts;
+        this.quorum = quorum;
+        final AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "NotifierDispatcher-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Create a channel other than mail, either a built-in channel or one from a {@link NotifierFactory} on the
+     * classpath.
+     * @param name the name of the channel.
+     * @param properties the properties of the channel.
+     * @return the channel.
+     * @throws IOException if the channel could not be opened.
+     * @throws IllegalArgumentException if there is no channel with the name, or it is not properly configured.
+     */
+    public static Notifier createNotifier(String name, Properties properties) throws IOException {
+        switch (name) {
+            case WebhookNotifier.NAME:
+                return new WebhookNotifier(properties);
+            case FileNotifier.NAME:
+                return new FileNotifier(properties);
+            case LogNotifier.NAME:
+                return new LogNotifier();
+            default:
+                for (NotifierFactory factory : ServiceLoader.load(NotifierFactory.class)) {
+                    if (factory.getName().equals(name)) {
+                        return factory.create(properties);
+                    }
+                }
+                throw new IllegalArgumentException("Property " + DelayAlerterConfigConstants.NOTIFIERS
+                        + " names the unknown channel '" + name + "'");
+        }
+    }
+
+    /**
+     * Send an alert through all the channels at once, and wait for each of them until it is done or its timeout
+     * has passed. A channel which times out is interrupted.
+     * @param to the recipients of the alert.
+     * @param message the alert.
+     * @param mailChannel the mail channel for this alert, used if alerts are sent by mail.
+     * @throws MessagingException if fewer than the quorum of channels succeeded.
+     */
+    public void dispatch(final List<String> to, final AlertMessage message, Notifier mailChannel)
+            throws MessagingException {
+        List<Notifier> channels = new ArrayList<>(notifiers.size() + 1);
+        if (mail) {
+            channels.add(mailChannel);
+        }
+        channels.addAll(notifiers);
+        long start = System.currentTimeMillis();
+        List<Future<Void>> results = new ArrayList<>(channels.size());
+        for (final Notifier channel : channels) {
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    channel.send(to, message);
+                    return null;
+                }
+            }));
+        }
+        int succeeded = 0;
+        Exception failure = null;
+        for (int i = 0; i < channels.size(); i++) {
+            String name = channels.get(i).getName();
+            Future<Void> result = results.get(i);
+            try {
+                Long timeout = timeouts.get(name);
+                if (timeout == null || timeout == 0) {
+                    result.get();
+                } else {
+                    result.get(Math.max(0, start + timeout - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                }
+                succeeded++;
+            } catch (ExecutionException e) {
+                log.warn("Channel " + name + " failed to send '" + message.getSubject() + "'", e.getCause());
+                failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            } catch (TimeoutException e) {
+                log.warn("Channel {} timed out sending '{}'", name, message.getSubject());
+                result.cancel(true);
+                failure = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Future<Void> remaining : results) {
+                    remaining.cancel(true);
+                }
+                throw new MessagingException("Interrupted sending '" + message.getSubject() + "'", e);
+            }
+        }
+        if (succeeded < quorum) {
+            throw new MessagingException("Only " + succeeded + " of " + channels.size() + " channels sent '"
+                    + message.getSubject() + "', " + quorum + " required", failure);
+        }
+    }
+
+    /**
+     * Close the channels other than mail, and stop the threads of this dispatcher.
+     */
+    public void close() {
+        executor.shutdown();
+        for (Notifier notifier : notifiers) {
+            notifier.close();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Creates the channels named in delay.alert.notifiers which are not built in. Factories are found with
+ * {@link java.util.ServiceLoader}, so a channel can be added by putting a jar on the classpath which lists its factory
+ * in META-INF/services/dk.statsbiblioteket.newspaper.delayalerter.NotifierFactory.
+ */
+public interface NotifierFactory {
+
+    /**
+     * @return the name of the channels created by this factory, as used in the configuration.
+     */
+    String getName();
+
+    /**
+     * Create a channel.
+     * @param properties the properties of the channel, which are the properties starting with
+     *                   delay.alert.notifier.&lt;name&gt;. with that prefix removed.
+     * @return the channel.
+     * @throws IOException if the channel could not be opened.
+     * @throws IllegalArgumentException if a property is missing or has an invalid value.
+     */
+    Notifier create(Properties properties) throws IOException;
+}
@@ -0,0 +1,239 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import dk.statsbiblioteket.medieplatform.autonomous.Batch;
+import dk.statsbiblioteket.medieplatform.autonomous.BatchItemFactory;
+import dk.statsbiblioteket.medieplatform.autonomous.ConfigConstants;
+import dk.statsbiblioteket.medieplatform.autonomous.Event;
+import dk.statsbiblioteket.medieplatform.autonomous.EventTrigger;
+import dk.statsbiblioteket.medieplatform.autonomous.NewspaperDomsEventStorage;
+import dk.statsbiblioteket.medieplatform.autonomous.NewspaperDomsEventStorageFactory;
+import dk.statsbiblioteket.medieplatform.autonomous.NewspaperSBOIEventStorage;
+import dk.statsbiblioteket.medieplatform.autonomous.PremisManipulatorFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * A report of all the overdue roundtrips, with the time data was received, the number of days they are overdue, their
+ * latest event and the latest tier they have been alerted in. The report is made from a single query to SBOI for the
+ * roundtrips which have received data but are not approved or stopped, whether they have been alerted or not. No
+ * roundtrips are locked, no events are written and no alerts are sent, so the report can be made as often as needed.
+ *
+ * Roundtrips are written as they are read from SBOI, as CSV or JSON Lines, so the report takes constant memory however
+ * many roundtrips there are.
+ */
+public class OverdueReport {
+
+    /**
+     * The formats of the report.
+     */
+    public enum Format {
+        CSV, JSONL
+    }
+
+    private static Logger log = LoggerFactory.getLogger(OverdueReport.class);
+
+    private static final long DAY = 24 * 3600 * 1000L;
+    private static final String[] COLUMNS = {"batchId", "roundtrip", "received", "daysOverdue", "lastEvent",
+            "lastEventDate", "alertedTier"};
+
+    private final Writer out;
+    private final Format format;
+    private final List<AlertTier> tiers;
+    private final boolean latestDataReceived;
+    private final long cutoff;
+    private final long now;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+    private int count = 0;
+
+    /**
+     * Constructor for this class. The header of the report is written at once.
+     * @param out the writer to write the report to.
+     * @param format the format of the report.
+     * @param config the configuration, for the delay and events of the tiers.
+     * @param now the time to measure the delays from.
+     * @throws IOException if the header could not be written.
+     */
+    public OverdueReport(Writer out, Format format, DelayAlerterConfig config, long now) throws IOException {
+        this.out = out;
+        this.format = format;
+        this.tiers = config.getTiers();
+        this.latestDataReceived = config.isLatestDataReceived();
+        this.cutoff = now - tiers.get(0).getAlertPeriod();
+        this.now = now;
+        if (format == Format.CSV) {
+            writeRow(COLUMNS);
+        }
+    }
+
+    /**
+     * Make the report by querying SBOI, and write it to a file or to standard output.
+     * @param properties the properties for the autonomous component framework.
+     * @param config the configuration of the component.
+     * @param target the file to write the report to, or - for standard output.
+     * @param format the format of the report.
+     * @return the number of overdue roundtrips.
+     * @throws IOException if the report could not be made or written.
+     */
+    static int run(Properties properties, DelayAlerterConfig config, String target, Format format)
+            throws IOException {
+        OutputStream stream = target.equals("-") ? System.out : Files.newOutputStream(Paths.get(target));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+        try {
+            OverdueReport report = new OverdueReport(writer, format, config, System.currentTimeMillis());
+            Iterator<Batch> roundtrips = query(properties, config);
+            while (roundtrips.hasNext()) {
+                report.add(roundtrips.next());
+            }
+            log.info("Reported {} overdue roundtrips to {}", report.getCount(), target);
+            return report.getCount();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to query SBOI for the report", e);
+        } finally {
+            if (stream == System.out) {
+                writer.flush();
+            } else {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Query SBOI for the roundtrips which have the past events of the component and none of its future events other
+     * than the events of the tiers, so roundtrips are found whether they have been alerted or not.
+     */
+    private static Iterator<Batch> query(Properties properties, DelayAlerterConfig config) throws Exception {
+        NewspaperSBOIEventStorage sboi = openSboi(properties);
+        Set<String> tierEvents = new HashSet<>();
+        for (AlertTier tier : config.getTiers()) {
+            tierEvents.add(tier.getEventID());
+        }
+        EventTrigger.Query<Batch> query = new EventTrigger.Query<>();
+        for (String event : properties.getProperty(DelayAlerterComponent.PAST_SUCCESSFUL_EVENTS, "").split(",")) {
+            if (!event.trim().isEmpty() && !tierEvents.contains(event.trim())) {
+                query.getPastSuccessfulEvents().add(event.trim());
+            }
+        }
+        for (String event : properties.getProperty(DelayAlerterComponent.FUTURE_EVENTS, "").split(",")) {
+            if (!event.trim().isEmpty() && !tierEvents.contains(event.trim())) {
+                query.getFutureEvents().add(event.trim());
+            }
+        }
+        return sboi.getTriggeredItems(query);
+    }
+
+    /**
+     * Open SBOI for a query of its own, with the repository and page size of the framework.
+     * @param properties the properties for the autonomous component framework.
+     * @return the event storage to query.
+     */
+    static NewspaperSBOIEventStorage openSboi(Properties properties) throws Exception {
+        NewspaperDomsEventStorage doms = openDoms(properties);
+        PremisManipulatorFactory<Batch> premisFactory = new PremisManipulatorFactory<>(PremisManipulatorFactory.TYPE,
+                new BatchItemFactory());
+        return new NewspaperSBOIEventStorage(properties.getProperty(ConfigConstants.AUTONOMOUS_SBOI_URL),
+                premisFactory, doms, Integer.parseInt(properties.getProperty(ConfigConstants.SBOI_PAGESIZE, "100")));
+    }
+
+    /**
+     * Open DOMS to read roundtrips from, with the repository of the framework.
+     * @param properties the properties for the autonomous component framework.
+     * @return the event storage to read from.
+     */
+    static NewspaperDomsEventStorage openDoms(Properties properties) throws Exception {
+        NewspaperDomsEventStorageFactory domsFactory = new NewspaperDomsEventStorageFactory();
+        domsFactory.setFedoraLocation(properties.getProperty(ConfigConstants.DOMS_URL));
+        domsFactory.setUsername(properties.getProperty(ConfigConstants.DOMS_USERNAME));
+        domsFactory.setPassword(properties.getProperty(ConfigConstants.DOMS_PASSWORD));
+        domsFactory.setPidGeneratorLocation(properties.getProperty(ConfigConstants.DOMS_PIDGENERATOR_URL));
+        return domsFactory.createDomsEventStorage();
+    }
+
+    /**
+     * Add a roundtrip to the report, if it is overdue.
+     * @param batch the roundtrip.
+     * @return true if the roundtrip was overdue and has been written.
+     * @throws IOException if the roundtrip could not be written.
+     */
+    public boolean add(Batch batch) throws IOException {
+        long receivedTime = DelayAlerterComponent.findReceivedTime(batch.getEventList(), latestDataReceived);
+        if (receivedTime == DelayAlerterComponent.NOT_RECEIVED || receivedTime >= cutoff) {
+            return false;
+        }
+        Event lastEvent = DelayAlerterComponent.findLastEvent(batch.getEventList());
+        String alertedTier = "";
+        Set<String> events = new HashSet<>();
+        for (Event event : batch.getEventList()) {
+            events.add(event.getEventID());
+        }
+        for (AlertTier tier : tiers) {
+            if (events.contains(tier.getEventID())) {
+                alertedTier = tier.getName();
+            }
+        }
+        writeRow(new String[]{batch.getBatchID(), batch.getFullID(), dateFormat.format(new Date(receivedTime)),
+                "" + ((now - receivedTime) / DAY - tiers.get(0).getDelayDays()),
+                lastEvent == null ? "" : lastEvent.getEventID(),
+                lastEvent == null ? "" : dateFormat.format(lastEvent.getDate()), alertedTier});
+        count++;
+        return true;
+    }
+
+    /**
+     * @return the number of roundtrips written.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    private void writeRow(String[] values) throws IOException {
+        StringBuilder line = new StringBuilder();
+        if (format == Format.CSV) {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                String value = values[i];
+                if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+                    line.append('"').append(value.replace("\"", "\"\"")).append('"');
+                } else {
+                    line.append(value);
+                }
+            }
+        } else {
+            line.append('{');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                WebhookNotifier.quote(COLUMNS[i], line);
+                line.append(':');
+                if (COLUMNS[i].equals("daysOverdue")) {
+                    line.append(values[i]);
+                } else {
+                    WebhookNotifier.quote(values[i], line);
+                }
+            }
+            line.append('}');
+        }
+        line.append('\n');
+        out.write(line.toString());
+    }
+}
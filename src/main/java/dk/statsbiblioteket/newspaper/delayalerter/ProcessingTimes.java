@@ -0,0 +1,285 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import dk.statsbiblioteket.medieplatform.autonomous.Batch;
+import dk.statsbiblioteket.medieplatform.autonomous.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The processing times of approved roundtrips, from data received until approved, grouped by a prefix of their batch
+ * ID. Every group has a {@link QuantileSketch}, so the delay within which most roundtrips of a group are approved can
+ * be used as the delay before its roundtrips are alerted, and the memory taken by a group stays the same however many
+ * years of roundtrips it has learned from.
+ *
+ * The processing times are learned from the roundtrips the component has already seen. Every roundtrip with data
+ * received seen in a run is watched, with the time it was last seen. A watched roundtrip which a complete run no longer
+ * sees has been approved or stopped, or alerted in the last tier, and only those roundtrips are read again to learn
+ * from. An approved roundtrip is learned and no longer watched, and a stopped roundtrip is no longer watched. A
+ * roundtrip alerted in the last tier stays watched until it is approved or stopped. Events without a date are ignored.
+ *
+ * The processing times can be saved to and loaded from a file, so they survive between runs started from cron.
+ */
+final class ProcessingTimes {
+
+    private static Logger log = LoggerFactory.getLogger(ProcessingTimes.class);
+
+    private static final String PREFIX_LENGTH = "prefixLength=";
+    private static final String LAST_LEARNED = "lastLearned=";
+    private static final String WATCHED = "watched=";
+    private static final String ALL = "*";
+
+    private final int prefixLength;
+    private final Map<String, QuantileSketch> groups = new HashMap<>();
+    private long lastLearned = 0;
+    private final Map<String, Long> watched = new HashMap<>();
+
+    /**
+     * Constructor for this class.
+     * @param prefixLength the length of the prefix of the batch ID roundtrips are grouped by, or 0 to put all
+     * roundtrips in one group.
+     */
+    ProcessingTimes(int prefixLength) {
+        this.prefixLength = prefixLength;
+    }
+
+    /**
+     * Load the processing times from a file. If the file groups the roundtrips by another prefix length, it is
+     * ignored and the processing times are learned again.
+     * @param file the file.
+     * @param prefixLength the length of the prefix of the batch ID roundtrips are grouped by.
+     * @return the processing times in the file, or no processing times if the file does not exist.
+     * @throws IOException if the file could not be read or is malformed.
+     */
+    static ProcessingTimes load(File file, int prefixLength) throws IOException {
+        ProcessingTimes times = new ProcessingTimes(prefixLength);
+        if (!file.exists()) {
+            return times;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            int fileLength = Integer.parseInt(readHeader(reader, PREFIX_LENGTH, file));
+            if (fileLength != prefixLength) {
+                log.warn("The processing times in {} are grouped by {} characters, not {}, learning them again",
+                        file, fileLength, prefixLength);
+                return times;
+            }
+            times.lastLearned = Long.parseLong(readHeader(reader, LAST_LEARNED, file));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab < 0) {
+                    throw new IOException("Malformed line in processing times file " + file + ": " + line);
+                }
+                if (line.startsWith(WATCHED)) {
+                    times.watched.put(line.substring(WATCHED.length(), tab), Long.parseLong(line.substring(tab + 1)));
+                } else {
+                    times.groups.put(line.substring(0, tab), QuantileSketch.decode(line.substring(tab + 1)));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed processing times file " + file, e);
+        }
+        return times;
+    }
+
+    private static String readHeader(BufferedReader reader, String header, File file) throws IOException {
+        String line = reader.readLine();
+        if (line == null || !line.startsWith(header)) {
+            throw new IOException("Malformed processing times file " + file);
+        }
+        return line.substring(header.length());
+    }
+
+    /**
+     * Save the processing times to a file. The file is replaced atomically, so a crash never leaves a partly written
+     * file.
+     * @param file the file.
+     * @throws IOException if the file could not be written.
+     */
+    synchronized void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(PREFIX_LENGTH + prefixLength);
+            writer.newLine();
+            writer.write(LAST_LEARNED + lastLearned);
+            writer.newLine();
+            for (Map.Entry<String, QuantileSketch> group : groups.entrySet()) {
+                writer.write(group.getKey() + '\t' + group.getValue().encode());
+                writer.newLine();
+            }
+            for (Map.Entry<String, Long> roundtrip : watched.entrySet()) {
+                writer.write(WATCHED + roundtrip.getKey() + '\t' + roundtrip.getValue());
+                writer.newLine();
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Watch a roundtrip seen in a run, so its processing time is learned once it is approved.
+     * @param fullID the full ID of the roundtrip.
+     * @param time the start of the run.
+     */
+    synchronized void watch(String fullID, long time) {
+        watched.put(fullID, time);
+    }
+
+    /**
+     * Find the watched roundtrips which have not been seen since a complete run started.
+     * @param since the start of the complete run.
+     * @return the full IDs of the roundtrips.
+     */
+    synchronized List<String> getDeparted(long since) {
+        List<String> departed = new ArrayList<>();
+        for (Map.Entry<String, Long> roundtrip : watched.entrySet()) {
+            if (roundtrip.getValue() < since) {
+                departed.add(roundtrip.getKey());
+            }
+        }
+        return departed;
+    }
+
+    /**
+     * Learn the processing times of watched roundtrips which are no longer seen. The approved roundtrips are read
+     * into sketches of their own, which are merged into the groups when all have been read. The approved and the
+     * stopped roundtrips are no longer watched.
+     * @param roundtrips the roundtrips, read again with their current events.
+     * @param approvedEvent the event recording that a roundtrip has been approved.
+     * @param stopEvents the events after which a roundtrip is no longer selected, although it is not approved.
+     * @param latestDataReceived if true the processing time is measured from the latest Data_Received event,
+     * otherwise from the earliest.
+     * @param now the current time.
+     * @return the number of roundtrips learned.
+     */
+    int learn(Iterator<Batch> roundtrips, String approvedEvent, Set<String> stopEvents, boolean latestDataReceived,
+              long now) {
+        int learned = 0;
+        Map<String, QuantileSketch> added = new HashMap<>();
+        List<String> done = new ArrayList<>();
+        while (roundtrips.hasNext()) {
+            Batch roundtrip = roundtrips.next();
+            long received = DelayAlerterComponent.NOT_RECEIVED;
+            long approved = DelayAlerterComponent.NOT_RECEIVED;
+            boolean isApproved = false;
+            boolean isStopped = false;
+            for (Event event : roundtrip.getEventList()) {
+                if (approvedEvent.equals(event.getEventID())) {
+                    isApproved = true;
+                } else if (stopEvents.contains(event.getEventID())) {
+                    isStopped = true;
+                }
+                if (event.getDate() == null) {
+                    continue;
+                }
+                long time = event.getDate().getTime();
+                if (DelayAlerterComponent.DATA_RECEIVED_EVENT.equals(event.getEventID())) {
+                    if (received == DelayAlerterComponent.NOT_RECEIVED
+                            || (latestDataReceived ? time > received : time < received)) {
+                        received = time;
+                    }
+                } else if (approvedEvent.equals(event.getEventID())) {
+                    if (approved == DelayAlerterComponent.NOT_RECEIVED || time < approved) {
+                        approved = time;
+                    }
+                }
+            }
+            if (isApproved || isStopped) {
+                done.add(roundtrip.getFullID());
+            }
+            if (received == DelayAlerterComponent.NOT_RECEIVED || approved == DelayAlerterComponent.NOT_RECEIVED
+                    || approved < received) {
+                continue;
+            }
+            String group = group(roundtrip.getBatchID());
+            QuantileSketch sketch = added.get(group);
+            if (sketch == null) {
+                sketch = new QuantileSketch();
+                added.put(group, sketch);
+            }
+            sketch.add(approved - received);
+            learned++;
+        }
+        synchronized (this) {
+            for (Map.Entry<String, QuantileSketch> group : added.entrySet()) {
+                sketch(group.getKey()).merge(group.getValue());
+            }
+            watched.keySet().removeAll(done);
+            lastLearned = now;
+        }
+        return learned;
+    }
+
+    /**
+     * Add the processing time of a roundtrip.
+     * @param batchID the batch ID of the roundtrip.
+     * @param processingTime the number of milliseconds from data received until approved.
+     */
+    synchronized void add(String batchID, long processingTime) {
+        sketch(group(batchID)).add(processingTime);
+    }
+
+    /**
+     * Find the delay within which a percentile of the roundtrips in the group of a batch have been approved.
+     * @param batchID the batch ID of the roundtrip.
+     * @param percentile the percentile, from 1 to 99.
+     * @param minSamples the number of roundtrips the group must have learned from.
+     * @return the delay in milliseconds, or -1 if the group has learned from fewer roundtrips.
+     */
+    synchronized long getDelay(String batchID, int percentile, int minSamples) {
+        QuantileSketch sketch = groups.get(group(batchID));
+        if (sketch == null || sketch.getCount() < minSamples) {
+            return -1;
+        }
+        return sketch.quantile(percentile / 100.0);
+    }
+
+    /**
+     * @return the time the processing times were last learned, or 0 if never.
+     */
+    synchronized long getLastLearned() {
+        return lastLearned;
+    }
+
+    synchronized int getGroupCount() {
+        return groups.size();
+    }
+
+    /**
+     * @return the number of roundtrips watched.
+     */
+    synchronized int getWatchedCount() {
+        return watched.size();
+    }
+
+    /**
+     * The group of a batch, which is the prefix of its batch ID.
+     */
+    private String group(String batchID) {
+        if (prefixLength == 0 || batchID == null) {
+            return ALL;
+        }
+        return batchID.length() <= prefixLength ? batchID : batchID.substring(0, prefixLength);
+    }
+
+    private QuantileSketch sketch(String group) {
+        QuantileSketch sketch = groups.get(group);
+        if (sketch == null) {
+            sketch = new QuantileSketch();
+            groups.put(group, sketch);
+        }
+        return sketch;
+    }
+}
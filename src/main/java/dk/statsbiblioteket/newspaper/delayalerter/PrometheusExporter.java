@@ -0,0 +1,93 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Exports {@link AlerterMetrics} in the Prometheus text format, to a file (for example for the node exporter's
+ * textfile collector) and/or on an http endpoint at /metrics.
+ */
+public class PrometheusExporter {
+
+    private static Logger log = LoggerFactory.getLogger(PrometheusExporter.class);
+
+    private final AlerterMetrics metrics;
+    private final File file;
+    private final int httpPort;
+    private HttpServer server;
+
+    /**
+     * Constructor for this class.
+     * @param metrics the metrics to export.
+     * @param file the file to write the metrics to, or null to not write a file.
+     * @param httpPort the port to serve the metrics on, or 0 to not serve them.
+     */
+    public PrometheusExporter(AlerterMetrics metrics, File file, int httpPort) {
+        this.metrics = metrics;
+        this.file = file;
+        this.httpPort = httpPort;
+    }
+
+    /**
+     * Start serving the metrics on http, if a port was given.
+     * @throws IOException if the http server could not be started.
+     */
+    public void start() throws IOException {
+        if (httpPort <= 0) {
+            return;
+        }
+        server = HttpServer.create(new InetSocketAddress(httpPort), 0);
+        server.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = metrics.toPrometheusText().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        log.info("Serving metrics on port {}", httpPort);
+    }
+
+    /**
+     * Write the metrics to the file, if a file was given. The file is replaced atomically, so readers never see a
+     * partly written file.
+     */
+    public void writeFile() {
+        if (file == null) {
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            Files.write(temp.toPath(), metrics.toPrometheusText().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to write metrics to " + file, e);
+        }
+    }
+
+    /**
+     * Write the metrics file a last time and stop serving the metrics.
+     */
+    public void stop() {
+        writeFile();
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+/**
+ * A sketch of the distribution of durations, from which quantiles such as the 95th percentile can be estimated. The
+ * durations are counted in a fixed number of buckets whose bounds grow geometrically, so every quantile is estimated
+ * within 1% of the true value from a minute to centuries, and the sketch takes the same few kilobytes however many
+ * durations have been added. Two sketches are merged exactly by adding their counts.
+ *
+ * Durations of a minute or less are counted as a minute.
+ */
+final class QuantileSketch {
+
+    /**
+     * The relative accuracy of the quantiles.
+     */
+    static final double ACCURACY = 0.01;
+
+    static final int BUCKETS = 1024;
+
+    private static final long MIN_VALUE = 60 * 1000L;
+    private static final double GAMMA = (1 + ACCURACY) / (1 - ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    private final int[] counts = new int[BUCKETS];
+    private long count = 0;
+
+    /**
+     * Add a duration to the sketch.
+     * @param value the duration in milliseconds.
+     */
+    void add(long value) {
+        addCount(bucket(value), 1);
+    }
+
+    /**
+     * Add the durations of another sketch to this sketch.
+     * @param other the other sketch, which is not changed.
+     */
+    void merge(QuantileSketch other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            if (other.counts[i] > 0) {
+                addCount(i, other.counts[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the number of durations added.
+     */
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * Estimate a quantile of the durations added.
+     * @param q the quantile, from 0 to 1, for example 0.95 for the 95th percentile.
+     * @return the estimated duration in milliseconds, or -1 if no durations have been added.
+     */
+    long quantile(double q) {
+        if (count == 0) {
+            return -1;
+        }
+        long rank = (long) (q * (count - 1));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen > rank) {
+                return value(i);
+            }
+        }
+        return value(BUCKETS - 1);
+    }
+
+    /**
+     * Encode the sketch compactly as the index and count of every bucket which is not empty, for example 412:3,415:1.
+     * @return the encoded sketch.
+     */
+    String encode() {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] > 0) {
+                if (result.length() > 0) {
+                    result.append(',');
+                }
+                result.append(i).append(':').append(counts[i]);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Decode a sketch encoded by {@link #encode()}.
+     * @param encoded the encoded sketch.
+     * @return the sketch.
+     * @throws IllegalArgumentException if the encoded sketch is malformed.
+     */
+    static QuantileSketch decode(String encoded) {
+        QuantileSketch sketch = new QuantileSketch();
+        if (encoded.isEmpty()) {
+            return sketch;
+        }
+        for (String bucket : encoded.split(",")) {
+            int colon = bucket.indexOf(':');
+            try {
+                int index = Integer.parseInt(bucket.substring(0, colon));
+                int bucketCount = Integer.parseInt(bucket.substring(colon + 1));
+                if (index < 0 || index >= BUCKETS || bucketCount < 0) {
+                    throw new IllegalArgumentException("Malformed bucket in sketch: " + bucket);
+                }
+                sketch.addCount(index, bucketCount);
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Malformed bucket in sketch: " + bucket, e);
+            }
+        }
+        return sketch;
+    }
+
+    private void addCount(int bucket, int added) {
+        int total = (int) Math.min((long) counts[bucket] + added, Integer.MAX_VALUE);
+        count += total - counts[bucket];
+        counts[bucket] = total;
+    }
+
+    /**
+     * The bucket of a duration. Bucket i holds the durations from MIN_VALUE * GAMMA^(i-1) to MIN_VALUE * GAMMA^i.
+     */
+    private static int bucket(long value) {
+        if (value <= MIN_VALUE) {
+            return 0;
+        }
+        int index = (int) Math.ceil(Math.log((double) value / MIN_VALUE) / LOG_GAMMA);
+        return Math.min(index, BUCKETS - 1);
+    }
+
+    /**
+     * The duration estimated for a bucket, which is within ACCURACY of every duration in it.
+     */
+    private static long value(int bucket) {
+        if (bucket == 0) {
+            return MIN_VALUE;
+        }
+        return (long) (MIN_VALUE * 2 * Math.pow(GAMMA, bucket) / (GAMMA + 1));
+    }
+}
@@ -0,0 +1,339 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.mail.MessagingException;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Limits the number of alert mails each recipient receives, with a token bucket per recipient address. A bucket
+ * holds at most burst tokens and is refilled with perHour tokens an hour, and every alert mail to the recipient takes
+ * a token.
+ *
+ * Alerts held back from a recipient are collected, and at the end of the run every such recipient is sent a single
+ * summary of them, rendered like a digest. A recipient is sent at most one summary per summary interval, and with a
+ * store of sent alerts every roundtrip is only summarised to a recipient once within the time to live of the store.
+ * An alert held back from some of the recipients is recorded as alerted once it was sent to the others, so it is not
+ * found again by a later run. The alerts held back are therefore kept until they have been summarised, also across
+ * summary intervals and failed summaries. During a mass delay every recipient receives at most the burst, the refill
+ * and a summary of the roundtrips not summarised before.
+ *
+ * The buckets, the time of the last summary of every recipient and the alerts not yet summarised can be saved to and
+ * loaded from a state file, so the limits and the summaries hold across runs started from cron.
+ */
+public class RecipientRateLimiter {
+
+    private static Logger log = LoggerFactory.getLogger(RecipientRateLimiter.class);
+
+    private static final String HELD_BACK = "@held";
+
+    private final int perHour;
+    private final int burst;
+    private final long summaryInterval;
+    private final double perMilli;
+    private final Map<String, Bucket> buckets = new HashMap<>();
+    private final Map<String, Map<String, Map<String, Object>>> heldBack = new LinkedHashMap<>();
+
+    /**
+     * Constructor for this class.
+     * @param perHour the number of alert mails a recipient may receive an hour.
+     * @param burst the number of alert mails a recipient may receive at once.
+     * @param summaryInterval the minimum number of milliseconds between two summaries to a recipient.
+     */
+    public RecipientRateLimiter(int perHour, int burst, long summaryInterval) {
+        if (perHour < 1 || burst < 1) {
+            throw new IllegalArgumentException("Rate " + perHour + " and burst " + burst + " must be positive");
+        }
+        this.perHour = perHour;
+        this.burst = burst;
+        this.summaryInterval = summaryInterval;
+        this.perMilli = perHour / 3600000.0;
+    }
+
+    /**
+     * Check whether this limiter has the given limits, so it can be kept when the configuration is reloaded.
+     * @param perHour the number of alert mails a recipient may receive an hour.
+     * @param burst the number of alert mails a recipient may receive at once.
+     * @param summaryInterval the minimum number of milliseconds between two summaries to a recipient.
+     * @return true if this limiter has the given rate, burst and summary interval.
+     */
+    public boolean hasLimits(int perHour, int burst, long summaryInterval) {
+        return this.perHour == perHour && this.burst == burst && this.summaryInterval == summaryInterval;
+    }
+
+    /**
+     * Load the buckets and the alerts not yet summarised from a state file, replacing the buckets of the recipients in
+     * it. The values of the alerts loaded are strings, which the templates render the same as the original values.
+     * @param file the state file. If it does not exist, nothing is loaded.
+     * @throws IOException if the file could not be read or is malformed.
+     */
+    public synchronized void load(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields[0].equals(HELD_BACK) && fields.length >= 2 && fields.length % 2 == 0) {
+                    Map<String, Object> values = new HashMap<>();
+                    for (int i = 2; i < fields.length; i += 2) {
+                        values.put(AlertOutbox.unescape(fields[i]), AlertOutbox.unescape(fields[i + 1]));
+                    }
+                    hold(AlertOutbox.unescape(fields[1]), values, false);
+                    continue;
+                }
+                if (fields.length != 4) {
+                    throw new IOException("Malformed line in rate limit file " + file + ": " + line);
+                }
+                try {
+                    Bucket bucket = new Bucket(Math.min(burst, Double.parseDouble(fields[1])),
+                            Long.parseLong(fields[2]));
+                    bucket.lastSummary = Long.parseLong(fields[3]);
+                    buckets.put(fields[0], bucket);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed line in rate limit file " + file + ": " + line, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Save the buckets and the alerts not yet summarised to a state file. The file is replaced atomically, so a crash
+     * never leaves a partly written file.
+     * @param file the state file.
+     * @throws IOException if the file could not be written.
+     */
+    public synchronized void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Bucket> entry : buckets.entrySet()) {
+                Bucket bucket = entry.getValue();
+                writer.write(entry.getKey() + '\t' + bucket.tokens + '\t' + bucket.refilled + '\t'
+                        + bucket.lastSummary);
+                writer.newLine();
+            }
+            for (Map.Entry<String, Map<String, Map<String, Object>>> entry : heldBack.entrySet()) {
+                for (Map<String, Object> values : entry.getValue().values()) {
+                    StringBuilder line = new StringBuilder(HELD_BACK).append('\t')
+                            .append(AlertOutbox.escape(entry.getKey()));
+                    for (Map.Entry<String, Object> value : values.entrySet()) {
+                        if (value.getValue() != null) {
+                            line.append('\t').append(AlertOutbox.escape(value.getKey())).append('\t')
+                                    .append(AlertOutbox.escape(value.getValue().toString()));
+                        }
+                    }
+                    writer.write(line.toString());
+                    writer.newLine();
+                }
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Take a token for each of the recipients of an alert. Recipients with no tokens left will receive the alert in
+     * their summary instead.
+     * @param to the recipients of the alert.
+     * @param values the values of the alert for the digest templates.
+     * @param now the current time.
+     * @return the recipients the alert may be sent to now.
+     */
+    public synchronized List<String> acquire(List<String> to, Map<String, Object> values, long now) {
+        List<String> allowed = new ArrayList<>(to.size());
+        for (String recipient : to) {
+            if (bucket(recipient, now).take(now)) {
+                allowed.add(recipient);
+            } else {
+                hold(recipient, values, true);
+            }
+        }
+        return allowed;
+    }
+
+    /**
+     * Keep an alert held back from a recipient for the summary. A roundtrip held back again in the same tier is only
+     * kept once.
+     * @param recipient the recipient.
+     * @param values the values of the alert.
+     * @param replace whether the values replace those of the roundtrip already kept, as they are newer.
+     */
+    private void hold(String recipient, Map<String, Object> values, boolean replace) {
+        Map<String, Map<String, Object>> rows = heldBack.get(recipient);
+        if (rows == null) {
+            rows = new LinkedHashMap<>();
+            heldBack.put(recipient, rows);
+        }
+        String key = values.get("roundtrip") + "#" + values.get("tier");
+        if (replace || !rows.containsKey(key)) {
+            rows.put(key, values);
+        }
+    }
+
+    /**
+     * Move the alerts not yet summarised to another limiter, which replaces this one when the configuration is
+     * reloaded.
+     * @param other the limiter replacing this one.
+     */
+    public void moveHeldBack(RecipientRateLimiter other) {
+        Map<String, Map<String, Map<String, Object>>> moving;
+        synchronized (this) {
+            moving = new LinkedHashMap<>(heldBack);
+            heldBack.clear();
+        }
+        synchronized (other) {
+            for (Map.Entry<String, Map<String, Map<String, Object>>> entry : moving.entrySet()) {
+                for (Map<String, Object> values : entry.getValue().values()) {
+                    other.hold(entry.getKey(), values, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of alerts held back for each recipient and not yet summarised.
+     */
+    public synchronized Map<String, Integer> getHeldBack() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, Map<String, Object>>> entry : heldBack.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().size());
+        }
+        return counts;
+    }
+
+    /**
+     * Send every recipient with alerts held back a summary of them, unless the recipient was sent a summary within
+     * the summary interval. With a store of sent alerts, the roundtrips already summarised to the recipient are left
+     * out, and the roundtrips in a summary are added to the store. The alerts of a summary which is not sent, because
+     * of the summary interval or because sending it failed, are kept for the next summary. They cannot be left to a
+     * later run, as the event of an alert sent to another recipient or through another channel has been recorded, so
+     * no run finds the roundtrip again.
+     * @param mailer the mailer to send the summaries with.
+     * @param renderer the renderer of the summaries.
+     * @param store the store of sent alerts, or null if there is none.
+     * @param now the current time.
+     */
+    public void sendSummaries(SimpleMailer mailer, AlertRenderer renderer, AlertDedupStore store, long now) {
+        Map<String, Map<String, Map<String, Object>>> sending;
+        synchronized (this) {
+            sending = new LinkedHashMap<>(heldBack);
+            heldBack.clear();
+        }
+        for (Map.Entry<String, Map<String, Map<String, Object>>> entry : sending.entrySet()) {
+            String recipient = entry.getKey();
+            List<Map<String, Object>> rows = new ArrayList<>();
+            for (Map<String, Object> row : entry.getValue().values()) {
+                if (store == null || !store.contains(summaryKey(recipient, row), now)) {
+                    rows.add(row);
+                }
+            }
+            if (rows.isEmpty()) {
+                log.debug("The alerts held back from {} have all been summarised before", recipient);
+                continue;
+            }
+            long lastSummary;
+            synchronized (this) {
+                Bucket bucket = bucket(recipient, now);
+                if (bucket.lastSummary >= 0 && now - bucket.lastSummary < summaryInterval) {
+                    log.info("Keeping {} alerts held back from {} for the next summary, as it was sent one at {}",
+                            rows.size(), recipient, new Date(bucket.lastSummary));
+                    keep(recipient, rows);
+                    continue;
+                }
+                lastSummary = bucket.lastSummary;
+                bucket.lastSummary = now;
+            }
+            Map<String, Object> values = new HashMap<>();
+            values.put("count", rows.size());
+            values.put("rows", rows);
+            values.put("tier", rows.get(0).get("tier"));
+            log.info("Sending a summary of {} alerts held back by the rate limit to {}", rows.size(), recipient);
+            try {
+                renderer.renderDigest(values).send(mailer, Collections.singletonList(recipient));
+            } catch (MessagingException e) {
+                log.error("Failed to send the summary of held back alerts to " + recipient
+                        + ", keeping them for the next summary", e);
+                synchronized (this) {
+                    bucket(recipient, now).lastSummary = lastSummary;
+                }
+                keep(recipient, rows);
+                continue;
+            }
+            if (store != null) {
+                for (Map<String, Object> row : rows) {
+                    try {
+                        store.add(summaryKey(recipient, row), now);
+                    } catch (IOException e) {
+                        log.warn("Failed to remember the summary of " + row.get("roundtrip") + " to " + recipient, e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Keep the alerts of a summary which was not sent for the next summary. Alerts of the same roundtrips held back
+     * since are newer and are kept instead.
+     */
+    private synchronized void keep(String recipient, List<Map<String, Object>> rows) {
+        for (Map<String, Object> row : rows) {
+            hold(recipient, row, false);
+        }
+    }
+
+    /**
+     * The key of a roundtrip summarised to a recipient, in the store of sent alerts.
+     */
+    private static String summaryKey(String recipient, Map<String, Object> row) {
+        return "summary#" + recipient + "#" + row.get("roundtrip") + "#" + row.get("tier");
+    }
+
+    private Bucket bucket(String recipient, long now) {
+        Bucket bucket = buckets.get(recipient);
+        if (bucket == null) {
+            bucket = new Bucket(burst, now);
+            buckets.put(recipient, bucket);
+        }
+        return bucket;
+    }
+
+    /**
+     * The tokens of a single recipient.
+     */
+    private class Bucket {
+        private double tokens;
+        private long refilled;
+        private long lastSummary = -1;
+
+        private Bucket(double tokens, long refilled) {
+            this.tokens = tokens;
+            this.refilled = refilled;
+        }
+
+        private boolean take(long now) {
+            if (now > refilled) {
+                tokens = Math.min(burst, tokens + (now - refilled) * perMilli);
+                refilled = now;
+            }
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
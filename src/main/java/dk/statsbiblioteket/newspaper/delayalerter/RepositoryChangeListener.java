@@ -0,0 +1,308 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.Connection;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Listens for the change messages DOMS publishes on a JMS topic whenever an object is changed, and reports the
+ * changes of the datastream holding the events of the roundtrips. Fedora publishes every change as an Atom entry
+ * naming the changed object as a category, and for changes to a datastream the ID of the datastream as another.
+ *
+ * The PID of the changed object is reported, and whether it is a roundtrip still open is decided by the handler.
+ * A change whose object cannot be found in the message is reported as missed.
+ *
+ * If the broker cannot be reached, or the connection to it is lost, the listener reconnects in the background with
+ * a backoff, starting at a second and doubling up to a maximum. Changes are reported as missed after every
+ * reconnect, as they may have been published while the listener was disconnected. Connecting may block for a long
+ * time while the broker is away, so it is done without holding the lock of the listener.
+ */
+public class RepositoryChangeListener implements MessageListener {
+
+    private static Logger log = LoggerFactory.getLogger(RepositoryChangeListener.class);
+
+    private static final Pattern DATASTREAM = Pattern.compile(
+            "<category[^>]*term=\"([^\"]*)\"[^>]*scheme=\"fedora-types:dsID\"");
+
+    private static final Pattern PID = Pattern.compile(
+            "<category[^>]*term=\"([^\"]*)\"[^>]*scheme=\"fedora-types:pid\"");
+
+    private static final Pattern SUMMARY = Pattern.compile("<summary[^>]*>([^<]+)</summary>");
+
+    private static final long FIRST_RECONNECT_DELAY = 1000;
+
+    private final String brokerUrl;
+    private final String topic;
+    private final String datastream;
+    private final ChangeHandler handler;
+    private final long maxReconnectDelay;
+    private final ScheduledExecutorService reconnector;
+    private Connection connection;
+    private long reconnectDelay;
+    private boolean reconnecting = false;
+    private boolean closed = false;
+
+    /**
+     * Constructor for this class.
+     * @param brokerUrl the URL of the JMS broker DOMS publishes its change messages on.
+     * @param topic the topic of the change messages.
+     * @param datastream the datastream holding the events, or the empty string to report every change.
+     * @param handler called for every reported change, on the thread of the JMS session or of the reconnects.
+     * @param maxReconnectDelay the maximum number of milliseconds between attempts to reconnect to the broker.
+     */
+    public RepositoryChangeListener(String brokerUrl, String topic, String datastream, ChangeHandler handler,
+                                    long maxReconnectDelay) {
+        this.brokerUrl = brokerUrl;
+        this.topic = topic;
+        this.datastream = datastream;
+        this.handler = handler;
+        this.maxReconnectDelay = maxReconnectDelay;
+        this.reconnectDelay = Math.min(FIRST_RECONNECT_DELAY, maxReconnectDelay);
+        this.reconnector = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "RepositoryChangeListener");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Connect to the broker and start listening. If the broker cannot be reached, connecting is retried in the
+     * background, and until then changes are only found by the regular polls.
+     */
+    public void start() {
+        if (!connect()) {
+            scheduleReconnect();
+        }
+    }
+
+    /**
+     * @return true if the listener is connected to the broker.
+     */
+    synchronized boolean isConnected() {
+        return connection != null;
+    }
+
+    /**
+     * Connect to the broker and subscribe to the topic. The lock is only taken to install the new connection, so
+     * closing the listener or reading its state is not blocked by a broker which does not answer.
+     * @return true if connected or closed, false if the broker could not be connected to.
+     */
+    private boolean connect() {
+        final AtomicBoolean lost = new AtomicBoolean(false);
+        final Connection newConnection;
+        try {
+            newConnection = new ActiveMQConnectionFactory(brokerUrl).createConnection();
+        } catch (JMSException e) {
+            log.warn("Failed to connect to " + brokerUrl + " to listen for changes", e);
+            return false;
+        }
+        try {
+            newConnection.setExceptionListener(new ExceptionListener() {
+                @Override
+                public void onException(JMSException e) {
+                    lost.set(true);
+                    connectionFailed(newConnection, e);
+                }
+            });
+            Session session = newConnection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageConsumer consumer = session.createConsumer(session.createTopic(topic));
+            consumer.setMessageListener(this);
+            newConnection.start();
+        } catch (JMSException e) {
+            log.warn("Failed to listen for changes on " + topic + " at " + brokerUrl, e);
+            close(newConnection);
+            return false;
+        }
+        boolean installed;
+        synchronized (this) {
+            //A connection lost before it was installed is not seen by connectionFailed, so it is checked here
+            installed = !closed && connection == null && !lost.get();
+            if (installed) {
+                connection = newConnection;
+                reconnectDelay = Math.min(FIRST_RECONNECT_DELAY, maxReconnectDelay);
+            }
+        }
+        if (!installed) {
+            close(newConnection);
+            return !lost.get();
+        }
+        log.info("Listening for changes of {} on {} at {}", datastream.isEmpty() ? "any object" : datastream, topic,
+                brokerUrl);
+        return true;
+    }
+
+    /**
+     * Called when the connection to the broker is lost. The connection is dropped and a reconnect is scheduled.
+     * @param failed the connection which failed.
+     * @param e the cause.
+     */
+    private synchronized void connectionFailed(final Connection failed, JMSException e) {
+        if (closed || failed != connection) {
+            return;
+        }
+        log.warn("Lost the connection to " + brokerUrl + ", changes are only found by the regular polls until it is "
+                + "reconnected", e);
+        connection = null;
+        //Not closed on this thread, as it belongs to the connection
+        reconnector.execute(new Runnable() {
+            @Override
+            public void run() {
+                close(failed);
+            }
+        });
+        scheduleReconnect();
+    }
+
+    private synchronized void scheduleReconnect() {
+        if (closed || reconnecting) {
+            return;
+        }
+        log.info("Reconnecting to {} in {} ms", brokerUrl, reconnectDelay);
+        reconnecting = true;
+        reconnector.schedule(new Runnable() {
+            @Override
+            public void run() {
+                reconnect();
+            }
+        }, reconnectDelay, TimeUnit.MILLISECONDS);
+        reconnectDelay = Math.min(reconnectDelay * 2, maxReconnectDelay);
+    }
+
+    private void reconnect() {
+        synchronized (this) {
+            reconnecting = false;
+            if (closed || connection != null) {
+                return;
+            }
+        }
+        if (!connect()) {
+            scheduleReconnect();
+            return;
+        }
+        //Changes published while disconnected were missed, so look for them at once
+        handler.missed();
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        try {
+            if (isRelevant(message)) {
+                String pid = findPid(message);
+                log.debug("Repository change {} of {}", message.getJMSMessageID(), pid);
+                if (pid == null) {
+                    handler.missed();
+                } else {
+                    handler.changed(pid);
+                }
+            }
+        } catch (JMSException e) {
+            log.warn("Failed to read a change message", e);
+        } catch (RuntimeException e) {
+            log.error("Failed to handle a change message", e);
+        }
+    }
+
+    /**
+     * Decide whether a change message is about the datastream holding the events.
+     * @param message the change message.
+     * @return true if the change should be reported.
+     * @throws JMSException if the message could not be read.
+     */
+    boolean isRelevant(Message message) throws JMSException {
+        if (datastream.isEmpty()) {
+            return true;
+        }
+        if (!(message instanceof TextMessage) || ((TextMessage) message).getText() == null) {
+            return false;
+        }
+        Matcher matcher = DATASTREAM.matcher(((TextMessage) message).getText());
+        while (matcher.find()) {
+            if (matcher.group(1).equals(datastream)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the PID of the object changed, from its category or else from the summary of the change message.
+     * @param message the change message.
+     * @return the PID, or null if the message does not name the object.
+     * @throws JMSException if the message could not be read.
+     */
+    static String findPid(Message message) throws JMSException {
+        if (!(message instanceof TextMessage) || ((TextMessage) message).getText() == null) {
+            return null;
+        }
+        String text = ((TextMessage) message).getText();
+        Matcher matcher = PID.matcher(text);
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        matcher = SUMMARY.matcher(text);
+        if (matcher.find() && !matcher.group(1).trim().isEmpty()) {
+            return matcher.group(1).trim();
+        }
+        return null;
+    }
+
+    /**
+     * Stop listening, stop reconnecting and disconnect from the broker.
+     */
+    public void close() {
+        Connection closing;
+        synchronized (this) {
+            closed = true;
+            closing = connection;
+            connection = null;
+        }
+        reconnector.shutdownNow();
+        if (closing != null) {
+            close(closing);
+        }
+    }
+
+    private void close(Connection closing) {
+        try {
+            closing.close();
+        } catch (JMSException e) {
+            log.warn("Failed to close the connection to " + brokerUrl, e);
+        }
+    }
+
+    /**
+     * Receives the changes reported by the listener.
+     */
+    public interface ChangeHandler {
+
+        /**
+         * Called when the events of an object have changed.
+         * @param pid the PID of the object.
+         */
+        void changed(String pid);
+
+        /**
+         * Called when changes may have been missed, after a reconnect or for a change message not naming its object.
+         */
+        void missed();
+    }
+}
@@ -0,0 +1,254 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The membership of this alerter node in a group of nodes sharing the roundtrips between them. Every node registers
+ * an ephemeral sequential node in ZooKeeper holding its name, and watches the registrations of the others. The
+ * current members are kept in a {@link ShardRing}, which is rebuilt whenever a node joins or leaves, so the shards
+ * rebalance by themselves. A node which dies leaves the group when its ZooKeeper session expires.
+ *
+ * Until the members are known, for example while reconnecting after the session expired, this node owns no batch, so
+ * a node which has lost track of the others does not work on their batches as well, and its runs are skipped.
+ */
+public class ShardMembership {
+
+    private static Logger log = LoggerFactory.getLogger(ShardMembership.class);
+
+    private static final String MEMBER_PREFIX = "member-";
+
+    private final String connectString;
+    private final String path;
+    private final String name;
+    private final int virtualNodes;
+    private final int sessionTimeout;
+    private final ExecutorService executor;
+    private volatile ZooKeeper zooKeeper;
+    private volatile ShardRing ring;
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor for this class.
+     * @param connectString the ZooKeeper servers, as host:port separated by commas.
+     * @param path the ZooKeeper path the nodes register under.
+     * @param name the name of this node, which must differ from the names of the other nodes.
+     * @param virtualNodes the number of points on the ring for every node.
+     * @param sessionTimeout the number of milliseconds before the registration of a node which has died expires.
+     */
+    public ShardMembership(String connectString, String path, String name, int virtualNodes, int sessionTimeout) {
+        this.connectString = connectString;
+        this.path = path;
+        this.name = name;
+        this.virtualNodes = virtualNodes;
+        this.sessionTimeout = sessionTimeout;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ShardMembership");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Register this node and read the other members.
+     * @throws IOException if this node could not be registered within the session timeout.
+     */
+    public void start() throws IOException {
+        try {
+            register();
+        } catch (KeeperException e) {
+            throw new IOException("Failed to register " + name + " in ZooKeeper under " + path, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted registering " + name + " in ZooKeeper", e);
+        }
+    }
+
+    /**
+     * Check whether a batch belongs to this node.
+     * @param batchID the ID of the batch.
+     * @return true if the batch belongs to this node, false if not or if the members are not known.
+     */
+    public boolean owns(String batchID) {
+        return owns(ring, batchID);
+    }
+
+    /**
+     * Check whether a batch belongs to this node in a given ring.
+     * @param current the ring, or null if the members are not known.
+     * @param batchID the ID of the batch.
+     * @return true if the batch belongs to this node in the ring, false if not or if the ring is null.
+     */
+    boolean owns(ShardRing current, String batchID) {
+        return current != null && name.equals(current.owner(batchID));
+    }
+
+    /**
+     * @return true if the members are known, so the batches of this node are known.
+     */
+    public boolean isKnown() {
+        return ring != null;
+    }
+
+    /**
+     * @return the current ring, or null if the members are not known.
+     */
+    public ShardRing getRing() {
+        return ring;
+    }
+
+    /**
+     * Leave the group, so the other nodes take over the batches of this node at once.
+     */
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+        ZooKeeper current = zooKeeper;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Connect to ZooKeeper with a new session, register this node and read the members.
+     */
+    private void register() throws IOException, KeeperException, InterruptedException {
+        final CountDownLatch connected = new CountDownLatch(1);
+        ZooKeeper newZooKeeper = new ZooKeeper(connectString, sessionTimeout, new Watcher() {
+            @Override
+            public void process(WatchedEvent event) {
+                if (event.getState() == Event.KeeperState.SyncConnected) {
+                    connected.countDown();
+                } else if (event.getState() == Event.KeeperState.Expired) {
+                    log.warn("ZooKeeper session of {} expired, registering again", name);
+                    ring = null;
+                    submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            reregister();
+                        }
+                    });
+                }
+            }
+        });
+        if (!connected.await(sessionTimeout, TimeUnit.MILLISECONDS)) {
+            newZooKeeper.close();
+            throw new IOException("Could not connect to ZooKeeper at " + connectString);
+        }
+        zooKeeper = newZooKeeper;
+        createPath(newZooKeeper, path);
+        String member = newZooKeeper.create(path + "/" + MEMBER_PREFIX, name.getBytes(StandardCharsets.UTF_8),
+                ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
+        log.info("Registered {} as {}", name, member);
+        refresh();
+    }
+
+    private void reregister() {
+        if (closed) {
+            return;
+        }
+        try {
+            zooKeeper.close();
+            register();
+        } catch (Exception e) {
+            log.error("Failed to register " + name + " in ZooKeeper again, retrying", e);
+            try {
+                Thread.sleep(sessionTimeout);
+            } catch (InterruptedException interrupted) {
+                return;
+            }
+            submit(new Runnable() {
+                @Override
+                public void run() {
+                    reregister();
+                }
+            });
+        }
+    }
+
+    /**
+     * Read the members and rebuild the ring, watching for members joining or leaving.
+     */
+    private void refresh() {
+        if (closed) {
+            return;
+        }
+        ZooKeeper current = zooKeeper;
+        try {
+            List<String> children = current.getChildren(path, new Watcher() {
+                @Override
+                public void process(WatchedEvent event) {
+                    if (event.getType() == Event.EventType.NodeChildrenChanged) {
+                        submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                refresh();
+                            }
+                        });
+                    }
+                }
+            });
+            List<String> members = new ArrayList<>();
+            for (String child : children) {
+                if (!child.startsWith(MEMBER_PREFIX)) {
+                    continue;
+                }
+                try {
+                    members.add(new String(current.getData(path + "/" + child, false, null), StandardCharsets.UTF_8));
+                } catch (KeeperException.NoNodeException e) {
+                    //The member left while the members were read
+                }
+            }
+            ring = new ShardRing(members, virtualNodes);
+            log.info("Members are now {}", ring.getMembers());
+        } catch (KeeperException e) {
+            log.warn("Failed to read the members under " + path, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit(Runnable task) {
+        if (!closed) {
+            executor.execute(task);
+        }
+    }
+
+    private static void createPath(ZooKeeper zooKeeper, String path) throws KeeperException, InterruptedException {
+        StringBuilder partial = new StringBuilder();
+        for (String part : path.split("/")) {
+            if (part.isEmpty()) {
+                continue;
+            }
+            partial.append('/').append(part);
+            try {
+                zooKeeper.create(partial.toString(), new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            } catch (KeeperException.NodeExistsException e) {
+                //Created by this or another node before
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A consistent hash ring assigning batch IDs to the alerter nodes. Every node is placed on the ring at a number of
+ * virtual points, and a batch belongs to the node at the first point at or after the hash of its ID. When a node
+ * joins or leaves, only the batches next to its points change owner, about one in the number of nodes of them.
+ *
+ * Instances are immutable, so a changed set of nodes is applied by replacing the whole ring.
+ */
+public final class ShardRing {
+
+    private final TreeMap<Long, String> points = new TreeMap<>();
+    private final SortedSet<String> members;
+
+    /**
+     * Constructor for this class.
+     * @param members the names of the nodes.
+     * @param virtualNodes the number of points on the ring for every node.
+     */
+    public ShardRing(Collection<String> members, int virtualNodes) {
+        this.members = new TreeSet<>(members);
+        for (String member : this.members) {
+            for (int i = 0; i < virtualNodes; i++) {
+                points.put(hash(member + "#" + i), member);
+            }
+        }
+    }
+
+    /**
+     * Find the node a batch belongs to.
+     * @param batchID the ID of the batch.
+     * @return the name of the node, or null if there are no nodes.
+     */
+    public String owner(String batchID) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(batchID));
+        return point == null ? points.firstEntry().getValue() : point.getValue();
+    }
+
+    /**
+     * @return the names of the nodes, sorted.
+     */
+    public SortedSet<String> getMembers() {
+        return members;
+    }
+
+    /**
+     * The first 64 bits of the MD5 of a string, which spreads similar batch IDs evenly over the ring.
+     */
+    static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
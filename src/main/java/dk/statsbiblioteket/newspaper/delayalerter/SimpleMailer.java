@@ -1,25 +1,66 @@
 package dk.statsbiblioteket.newspaper.delayalerter;
 
-import org.apache.zookeeper.server.SessionTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.mail.Message;
 import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
 import javax.mail.Session;
 import javax.mail.Transport;
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.io.IOException;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * A simple mail-sending utility.
+ * A simple mail-sending utility. Unless the pool size is zero, mails are sent on a small pool of connected smtp
+ * transports which are reused between messages, rather than connecting to the smtp host for every message. The
+ * mail session and the pool are only created when the first mail is sent, so a run which sends nothing does not pay
+ * for them.
+ *
+ * Connecting to and waiting for the smtp host are bounded by timeouts, and with a {@link CircuitBreaker} mails fail at
+ * once while the smtp host is down, so a host which does not answer cannot hold up a whole run.
  */
-public class SimpleMailer {
+public class SimpleMailer implements Notifier {
+
+    /**
+     * The default maximum number of simultaneous smtp connections.
+     */
+    public static final int DEFAULT_POOL_SIZE = 2;
+
+    /**
+     * The default number of milliseconds an smtp connection may be idle before it is closed.
+     */
+    public static final long DEFAULT_POOL_IDLE_TIMEOUT = 60000L;
+
+    /**
+     * The default number of milliseconds to wait for a connection to the smtp host.
+     */
+    public static final long DEFAULT_CONNECTION_TIMEOUT = 30000L;
+
+    /**
+     * The default number of milliseconds to wait for each reply from the smtp host.
+     */
+    public static final long DEFAULT_TIMEOUT = 60000L;
 
     private String from;
-    private String host;
-    private String port;
+    private final Properties props;
+    private final int poolSize;
+    private final long poolIdleTimeout;
+    private Session session;
+    private volatile TransportPool pool;
+    private final ConcurrentMap<String, InternetAddress> addresses = new ConcurrentHashMap<>();
+    private static Logger log = LoggerFactory.getLogger(SimpleMailer.class);
+
+    private AlerterMetrics metrics = new AlerterMetrics();
+    private volatile CircuitBreaker breaker;
 
     /**
      * Constructor for this class.
@@ -28,9 +69,65 @@ public class SimpleMailer {
      * @param port the smtp port of the host.
      */
     public SimpleMailer(String from, String host, String port) {
+        this(from, host, port, DEFAULT_POOL_SIZE, DEFAULT_POOL_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Constructor for this class.
+     * @param from the from address field for emails.
+     * @param host the smtp host to use.
+     * @param port the smtp port of the host.
+     * @param poolSize the maximum number of simultaneous smtp connections. If zero, a new connection is made for
+     *                 every mail.
+     * @param poolIdleTimeout the number of milliseconds an smtp connection may be idle before it is closed.
+     */
+    public SimpleMailer(String from, String host, String port, int poolSize, long poolIdleTimeout) {
+        this(from, host, port, poolSize, poolIdleTimeout, DEFAULT_CONNECTION_TIMEOUT, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Constructor for this class.
+     * @param from the from address field for emails.
+     * @param host the smtp host to use.
+     * @param port the smtp port of the host.
+     * @param poolSize the maximum number of simultaneous smtp connections. If zero, a new connection is made for
+     *                 every mail.
+     * @param poolIdleTimeout the number of milliseconds an smtp connection may be idle before it is closed.
+     * @param connectionTimeout the number of milliseconds to wait for a connection to the smtp host, or 0 to wait
+     *                          indefinitely.
+     * @param timeout the number of milliseconds to wait for each reply from the smtp host, or 0 to wait indefinitely.
+     */
+    public SimpleMailer(String from, String host, String port, int poolSize, long poolIdleTimeout,
+                        long connectionTimeout, long timeout) {
         this.from = from;
-        this.host = host;
-        this.port = port;
+        Properties props = new Properties();
+        props.setProperty("mail.smtp.host", host);
+        props.setProperty("mail.smtp.port", port);
+        props.setProperty("mail.smtp.connectiontimeout", "" + connectionTimeout);
+        props.setProperty("mail.smtp.timeout", "" + timeout);
+        this.props = props;
+        this.poolSize = poolSize;
+        this.poolIdleTimeout = poolIdleTimeout;
+    }
+
+    /**
+     * Create the mail session and the transport pool, unless they have been created already.
+     * @return the mail session.
+     */
+    private synchronized Session getSession() {
+        if (session == null) {
+            long start = System.nanoTime();
+            session = Session.getInstance(props);
+            if (poolSize > 0) {
+                pool = new TransportPool(session, poolSize, poolIdleTimeout);
+            }
+            log.debug("Created the mail session in {} ms", (System.nanoTime() - start) / 1000000);
+        }
+        return session;
+    }
+
+    private TransportPool getPool() {
+        return pool;
     }
 
     /**
@@ -41,17 +138,176 @@ public class SimpleMailer {
      * @throws MessagingException
      */
     public void sendMail(List<String> to, String subject, String text) throws MessagingException {
-        Properties props = new Properties();
-        props.setProperty("mail.smtp.host", host);
-        props.setProperty("mail.smtp.port", port);
-        javax.mail.Session session = Session.getDefaultInstance(props);
-        MimeMessage message = new MimeMessage(session);
-        message.setFrom(new InternetAddress(from));
+        send(createMessage(to, subject, text, null));
+    }
+
+    /**
+     * Send a multipart mail with both a plain text and an HTML body, letting the mail reader choose which to show.
+     * @param to A list of recipients.
+     * @param subject The text of the email subject.
+     * @param text The plain text of the email.
+     * @param html The HTML of the email.
+     * @throws MessagingException
+     */
+    public void sendMail(List<String> to, String subject, String text, String html) throws MessagingException {
+        send(createMessage(to, subject, text, html));
+    }
+
+    @Override
+    public String getName() {
+        return NotifierDispatcher.MAIL;
+    }
+
+    /**
+     * Send an alert, as a plain text mail or as a multipart mail if it has an HTML body.
+     * @param to A list of recipients.
+     * @param message the alert.
+     * @throws MessagingException
+     */
+    @Override
+    public void send(List<String> to, AlertMessage message) throws MessagingException {
+        message.send(this, to);
+    }
+
+    private void send(MimeMessage message) throws MessagingException {
+        CircuitBreaker currentBreaker = breaker;
+        if (currentBreaker != null && !currentBreaker.allow(System.currentTimeMillis())) {
+            metrics.incrementShortCircuited();
+            throw new MessagingException("Not sending '" + message.getSubject()
+                    + "' as the smtp host has failed repeatedly");
+        }
+        long start = System.nanoTime();
+        try {
+            TransportPool currentPool = getPool();
+            if (currentPool == null) {
+                Transport.send(message);
+            } else {
+                currentPool.send(message);
+            }
+            if (currentBreaker != null) {
+                currentBreaker.success();
+            }
+        } catch (MessagingException e) {
+            if (currentBreaker != null) {
+                if (isHostDown(e)) {
+                    currentBreaker.failure(System.currentTimeMillis());
+                } else {
+                    currentBreaker.success();
+                }
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            if (currentBreaker != null) {
+                currentBreaker.failure(System.currentTimeMillis());
+            }
+            throw e;
+        } finally {
+            metrics.getSend().recordSince(start);
+        }
+    }
+
+    /**
+     * Decide whether a failed mail means the smtp host is down, rather than that it answered but rejected the mail
+     * or some of its recipients. Transport.send reports a host which could not be reached as a SendFailedException
+     * too, so the causes are checked for a failure to talk to the host.
+     * @param e the failure.
+     * @return true if the smtp host could not be reached or did not answer.
+     */
+    static boolean isHostDown(MessagingException e) {
+        if (!(e instanceof SendFailedException)) {
+            return true;
+        }
+        Throwable cause = e.getCause();
+        for (int i = 0; cause != null && i < 10; i++) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+            cause = cause.getCause();
+        }
+        return false;
+    }
+
+    /**
+     * Set the circuit breaker around the smtp host.
+     * @param breaker the breaker, or null to always try sending.
+     */
+    public void setCircuitBreaker(CircuitBreaker breaker) {
+        this.breaker = breaker;
+    }
+
+    /**
+     * Set the metrics to record the time spent sending mails in.
+     * @param metrics the metrics.
+     */
+    public void setMetrics(AlerterMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Get an address, parsing it only the first time it is used. The same few addresses are used for every mail, so
+     * they are not parsed again for each of them.
+     * @param address the address.
+     * @return the parsed address.
+     * @throws AddressException if the address cannot be parsed.
+     */
+    private InternetAddress getAddress(String address) throws AddressException {
+        InternetAddress parsed = addresses.get(address);
+        if (parsed == null) {
+            parsed = new InternetAddress(address);
+            addresses.putIfAbsent(address, parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * Create the message for a mail.
+     * @param to A list of recipients.
+     * @param subject The text of the email subject.
+     * @param text The text of the email.
+     * @param html The HTML of the email, or null for a plain text mail.
+     * @return the message.
+     * @throws MessagingException
+     */
+    MimeMessage createMessage(List<String> to, String subject, String text, String html) throws MessagingException {
+        MimeMessage message = new MimeMessage(getSession());
+        message.setFrom(getAddress(from));
         for (String recipient: to) {
-            message.addRecipient(Message.RecipientType.TO, new InternetAddress(recipient));
+            message.addRecipient(Message.RecipientType.TO, getAddress(recipient));
+        }
+        message.setSubject(subject, "UTF-8");
+        if (html == null) {
+            message.setText(text, "UTF-8");
+        } else {
+            MimeBodyPart textPart = new MimeBodyPart();
+            textPart.setText(text, "UTF-8");
+            MimeBodyPart htmlPart = new MimeBodyPart();
+            htmlPart.setText(html, "UTF-8", "html");
+            MimeMultipart multipart = new MimeMultipart("alternative");
+            multipart.addBodyPart(textPart);
+            multipart.addBodyPart(htmlPart);
+            message.setContent(multipart);
+        }
+        return message;
+    }
+
+    /**
+     * Close pooled smtp connections which have been idle for longer than the idle timeout.
+     */
+    public void evictIdleConnections() {
+        TransportPool currentPool = getPool();
+        if (currentPool != null) {
+            currentPool.evictIdle();
+        }
+    }
+
+    /**
+     * Close all pooled smtp connections. The mailer cannot be used afterwards.
+     */
+    @Override
+    public void close() {
+        TransportPool currentPool = getPool();
+        if (currentPool != null) {
+            currentPool.close();
         }
-        message.setSubject(subject);
-        message.setText(text);
-        Transport.send(message);
     }
 }
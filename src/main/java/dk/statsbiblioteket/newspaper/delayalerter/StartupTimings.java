@@ -0,0 +1,36 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * The time spent in each phase of starting the component, from the start of the JVM until the component has decided
+ * whether to run, for logging.
+ */
+class StartupTimings {
+
+    private final StringBuilder phases = new StringBuilder();
+    private final long start = System.nanoTime();
+    private long last = start;
+
+    /**
+     * Record the end of a phase, which started at the end of the previous phase.
+     * @param phase the name of the phase.
+     */
+    void mark(String phase) {
+        long now = System.nanoTime();
+        if (phases.length() > 0) {
+            phases.append(' ');
+        }
+        phases.append(phase).append('=').append((now - last) / 1000000).append("ms");
+        last = now;
+    }
+
+    /**
+     * @return the phases, the total time since the timings were started and the time since the JVM was started.
+     */
+    @Override
+    public String toString() {
+        return phases + " total=" + (last - start) / 1000000 + "ms sinceJvmStart="
+                + ManagementFactory.getRuntimeMXBean().getUptime() + "ms";
+    }
+}
@@ -0,0 +1,190 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A small bounded pool of connected smtp transports. At most poolSize transports are in use at any time, callers
+ * beyond that wait for a transport to be returned. Idle transports are checked with a NOOP before reuse and are closed
+ * when they have been idle for longer than the idle timeout.
+ */
+class TransportPool {
+
+    private static Logger log = LoggerFactory.getLogger(TransportPool.class);
+
+    private final Session session;
+    private final long idleTimeout;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledTransport> idle = new LinkedBlockingDeque<>();
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor for this class.
+     * @param session the mail session from which transports are obtained.
+     * @param poolSize the maximum number of simultaneously connected transports.
+     * @param idleTimeout the number of milliseconds a transport may be idle before it is closed.
+     */
+    TransportPool(Session session, int poolSize, long idleTimeout) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Pool size must be positive, was " + poolSize);
+        }
+        this.session = session;
+        this.idleTimeout = idleTimeout;
+        this.permits = new Semaphore(poolSize, true);
+    }
+
+    /**
+     * Send a message on a pooled transport. If a reused transport fails, the message is retried once on a freshly
+     * connected transport, as the server may have dropped the connection since it was last used.
+     * @param message the message to send.
+     * @throws MessagingException if the message could not be sent.
+     */
+    void send(Message message) throws MessagingException {
+        if (closed) {
+            throw new MessagingException("Transport pool has been closed");
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for an smtp transport", e);
+        }
+        try {
+            message.saveChanges();
+            PooledTransport transport = checkOut();
+            try {
+                transport.send(message);
+            } catch (SendFailedException e) {
+                //The server rejected the message itself, so retrying on another connection will not help
+                checkIn(transport);
+                throw e;
+            } catch (MessagingException e) {
+                transport.close();
+                if (!transport.isReused()) {
+                    throw e;
+                }
+                log.debug("Reused smtp transport failed, retrying on a new connection", e);
+                transport = open();
+                try {
+                    transport.send(message);
+                } catch (MessagingException e2) {
+                    transport.close();
+                    throw e2;
+                }
+            }
+            checkIn(transport);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Close all idle transports which have been idle for longer than the idle timeout.
+     */
+    void evictIdle() {
+        long now = System.currentTimeMillis();
+        PooledTransport transport;
+        while ((transport = idle.peekLast()) != null && now - transport.getLastUsed() > idleTimeout) {
+            if (idle.removeLastOccurrence(transport)) {
+                transport.close();
+            }
+        }
+    }
+
+    /**
+     * Close the pool and all idle transports. Transports in use are closed when they are returned.
+     */
+    void close() {
+        closed = true;
+        PooledTransport transport;
+        while ((transport = idle.pollFirst()) != null) {
+            transport.close();
+        }
+    }
+
+    /**
+     * Get a healthy transport, either an idle one from the pool or a newly connected one.
+     * @return a connected transport.
+     * @throws MessagingException if a new transport could not be connected.
+     */
+    private PooledTransport checkOut() throws MessagingException {
+        evictIdle();
+        PooledTransport transport;
+        while ((transport = idle.pollFirst()) != null) {
+            if (transport.isHealthy()) {
+                return transport;
+            }
+            log.debug("Discarding unhealthy smtp transport");
+            transport.close();
+        }
+        return open();
+    }
+
+    private void checkIn(PooledTransport transport) {
+        transport.touch();
+        if (closed) {
+            transport.close();
+        } else {
+            idle.offerFirst(transport);
+        }
+    }
+
+    private PooledTransport open() throws MessagingException {
+        Transport transport = session.getTransport("smtp");
+        transport.connect();
+        log.debug("Opened new smtp transport");
+        return new PooledTransport(transport);
+    }
+
+    /**
+     * A connected transport along with the time it was last used.
+     */
+    private static class PooledTransport {
+        private final Transport transport;
+        private long lastUsed;
+        private boolean reused = false;
+
+        private PooledTransport(Transport transport) {
+            this.transport = transport;
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        private void send(Message message) throws MessagingException {
+            transport.sendMessage(message, message.getAllRecipients());
+        }
+
+        private boolean isHealthy() {
+            reused = true;
+            //For smtp this sends a NOOP to the server
+            return transport.isConnected();
+        }
+
+        private boolean isReused() {
+            return reused;
+        }
+
+        private long getLastUsed() {
+            return lastUsed;
+        }
+
+        private void touch() {
+            lastUsed = System.currentTimeMillis();
+        }
+
+        private void close() {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                log.debug("Failed to close smtp transport", e);
+            }
+        }
+    }
+}
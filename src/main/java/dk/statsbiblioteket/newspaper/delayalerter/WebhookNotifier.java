@@ -0,0 +1,136 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Posts alerts as JSON to a webhook, for example of a chat service. The JSON has the whole alert in text, which is
+ * what most chat webhooks show, and the subject, body and recipients in separate fields.
+ */
+public class WebhookNotifier implements Notifier {
+
+    static final String NAME = "webhook";
+
+    private final URL url;
+    private final int timeout;
+
+    /**
+     * Constructor for this class.
+     * @param properties the properties of the channel: url, and timeout in milliseconds for connecting and reading.
+     * @throws IllegalArgumentException if the url is missing or invalid.
+     */
+    public WebhookNotifier(Properties properties) {
+        String location = properties.getProperty("url", "").trim();
+        try {
+            url = new URL(location);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Property " + DelayAlerterConfigConstants.NOTIFIER_PREFIX + NAME
+                    + ".url with value '" + location + "' is not a valid url", e);
+        }
+        if (!url.getProtocol().equals("http") && !url.getProtocol().equals("https")) {
+            throw new IllegalArgumentException("Property " + DelayAlerterConfigConstants.NOTIFIER_PREFIX + NAME
+                    + ".url with value '" + location + "' is not an http or https url");
+        }
+        timeout = Integer.parseInt(properties.getProperty("timeout", "30000").trim());
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void send(List<String> to, AlertMessage message) throws IOException {
+        byte[] body = toJson(to, message).getBytes(StandardCharsets.UTF_8);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            int status = connection.getResponseCode();
+            if (status < 200 || status >= 300) {
+                throw new IOException("Webhook " + url + " answered " + status + " " + connection.getResponseMessage());
+            }
+            try (InputStream in = connection.getInputStream()) {
+                byte[] buffer = new byte[1024];
+                while (in.read(buffer) != -1) {
+                    //Read the whole response, so the connection can be reused
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    static String toJson(List<String> to, AlertMessage message) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"text\":");
+        quote(message.getSubject() + "\n" + message.getText(), json);
+        json.append(",\"subject\":");
+        quote(message.getSubject(), json);
+        json.append(",\"body\":");
+        quote(message.getText(), json);
+        json.append(",\"recipients\":[");
+        for (int i = 0; i < to.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            quote(to.get(i), json);
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    /**
+     * Append a string to JSON as a quoted JSON string.
+     * @param value the string.
+     * @param json the JSON to append to.
+     */
+    static void quote(String value, StringBuilder json) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,12 @@
+#!/bin/sh
+#
+# This is a sample script which writes a report of all overdue roundtrips, without alerting them or
+# writing any events. The report is written to the file given as the first argument, or to standard
+# output if none is given, as CSV, or as JSON Lines if the second argument is jsonl.
+#
+
+SCRIPT_DIR=$(dirname $(readlink -f $0))
+
+java -classpath "$SCRIPT_DIR/../conf:$SCRIPT_DIR/../lib/*" \
+ dk.statsbiblioteket.newspaper.delayalerter.DelayAlerterComponent \
+ -c $SCRIPT_DIR/../conf/config.properties -report "${1:--}" -format "${2:-csv}"
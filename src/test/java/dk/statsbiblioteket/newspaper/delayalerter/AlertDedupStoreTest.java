@@ -0,0 +1,52 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ *
+ */
+public class AlertDedupStoreTest {
+
+    /**
+     * Test that sent alerts survive reopening the store, even after a record cut short, and expire after the ttl.
+     * @throws Exception
+     */
+    @Test
+    public void testRememberAndExpire() throws Exception {
+        File file = File.createTempFile("sent", ".alerts");
+        file.delete();
+        long now = System.currentTimeMillis();
+        AlertDedupStore store = new AlertDedupStore(file, 60000L);
+        for (int i = 0; i < 200; i++) {
+            store.add("B40348574839" + i + "-RT1#Warning_Email_Sent", now);
+        }
+        store.add("B403485748392-RT4#Warning_Email_Sent", now - 120000L);
+        store.close();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[]{1, 2, 3});
+        }
+
+        store = new AlertDedupStore(file, 60000L);
+        assertEquals(store.size(), 200);
+        assertTrue(store.contains("B403485748390-RT1#Warning_Email_Sent", now));
+        assertTrue(store.contains("B4034857483999-RT1#Warning_Email_Sent", now));
+        assertFalse(store.contains("B403485748390-RT1#Escalation_Email_Sent", now));
+        assertFalse(store.contains("B403485748392-RT4#Warning_Email_Sent", now));
+        store.add("B403485748392-RT4#Warning_Email_Sent", now);
+        store.purge(now + 60000L);
+        assertEquals(store.size(), 0);
+        store.close();
+
+        store = new AlertDedupStore(file, 60000L);
+        assertTrue(store.contains("B403485748392-RT4#Warning_Email_Sent", now));
+        store.close();
+        file.delete();
+    }
+}
@@ -0,0 +1,133 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+
+/**
+ *
+ */
+public class AlertOutboxTest {
+
+    /**
+     * Test that alerts survive reopening the outbox, are resent, and are gone once removed.
+     * @throws Exception
+     */
+    @Test
+    public void testResendAndReload() throws Exception {
+        File file = File.createTempFile("outbox", ".log");
+        file.delete();
+        SimpleMailer mailer = mock(SimpleMailer.class);
+        AlertOutbox outbox = new AlertOutbox(file, mailer, 1000L, 60000L, 60000L, 1, 3600000L);
+        outbox.add("B403485748392-RT4", Arrays.asList("foo@bar.com"), "subject", "line one\n\tline two");
+        outbox.close();
+
+        outbox = new AlertOutbox(file, mailer, 1000L, 0L, 0L, 1, 3600000L);
+        assertEquals(outbox.getState("B403485748392-RT4"), AlertOutbox.State.PENDING);
+        outbox.retryDue();
+        verify(mailer, times(1)).sendMail(Arrays.asList("foo@bar.com"), "subject", "line one\n\tline two");
+        assertEquals(outbox.getState("B403485748392-RT4"), AlertOutbox.State.DELIVERED);
+        outbox.close();
+
+        outbox = new AlertOutbox(file, mailer, 1000L, 0L, 0L, 1, 3600000L);
+        assertEquals(outbox.getState("B403485748392-RT4"), AlertOutbox.State.DELIVERED);
+        outbox.remove("B403485748392-RT4");
+        outbox.retryDue();
+        outbox.close();
+        verify(mailer, times(1)).sendMail(anyList(), anyString(), anyString());
+
+        outbox = new AlertOutbox(file, mailer, 1000L, 0L, 0L, 1, 3600000L);
+        assertEquals(outbox.getState("B403485748392-RT4"), AlertOutbox.State.ABSENT);
+        outbox.close();
+        file.delete();
+    }
+
+    /**
+     * Test that a pending alert is resent by a start and close of the outbox which is shorter than the retry
+     * interval, as in a run started from cron, and that an alert added during the run is resent when it is closed.
+     * @throws Exception
+     */
+    @Test
+    public void testResendWithinShortRun() throws Exception {
+        File file = File.createTempFile("outbox", ".log");
+        file.delete();
+        SimpleMailer mailer = mock(SimpleMailer.class);
+        AlertOutbox outbox = new AlertOutbox(file, mailer, 60000L, 0L, 0L, 1, 3600000L);
+        outbox.add("B403485748392-RT4", Arrays.asList("foo@bar.com"), "first", "text");
+        outbox.close();
+        verify(mailer, times(1)).sendMail(Arrays.asList("foo@bar.com"), "first", "text");
+
+        file.delete();
+        outbox = new AlertOutbox(file, mock(SimpleMailer.class), 60000L, 60000L, 60000L, 1, 3600000L);
+        outbox.add("B403485748392-RT4", Arrays.asList("foo@bar.com"), "second", "text");
+        outbox.close();
+
+        mailer = mock(SimpleMailer.class);
+        outbox = new AlertOutbox(file, mailer, 60000L, 60000L, 60000L, 1, 3600000L);
+        outbox.start();
+        verify(mailer, times(1)).sendMail(Arrays.asList("foo@bar.com"), "second", "text");
+        assertEquals(outbox.getState("B403485748392-RT4"), AlertOutbox.State.DELIVERED);
+        outbox.close();
+        verify(mailer, times(1)).sendMail(anyList(), anyString(), anyString());
+        file.delete();
+    }
+
+    /**
+     * Test that an alert is dropped from the outbox once it is older than the time to live, whether it was delivered
+     * or not.
+     * @throws Exception
+     */
+    @Test
+    public void testExpire() throws Exception {
+        File file = File.createTempFile("outbox", ".log");
+        file.delete();
+        SimpleMailer mailer = mock(SimpleMailer.class);
+        AlertOutbox outbox = new AlertOutbox(file, mailer, 60000L, 60000L, 60000L, 1, 1000L);
+        outbox.add("B403485748392-RT4", Arrays.asList("foo@bar.com"), "subject", "text");
+        outbox.retryDue();
+        assertEquals(outbox.getState("B403485748392-RT4"), AlertOutbox.State.PENDING);
+        Thread.sleep(1100);
+        outbox.retryDue();
+        assertEquals(outbox.getState("B403485748392-RT4"), AlertOutbox.State.ABSENT);
+        outbox.close();
+        verify(mailer, times(0)).sendMail(anyList(), anyString(), anyString());
+
+        outbox = new AlertOutbox(file, mailer, 60000L, 60000L, 60000L, 1, 1000L);
+        assertEquals(outbox.getState("B403485748392-RT4"), AlertOutbox.State.ABSENT);
+        outbox.close();
+        file.delete();
+    }
+
+    /**
+     * Test that the alerts of roundtrips not checked by a complete run are dropped, and the others are kept.
+     * @throws Exception
+     */
+    @Test
+    public void testRetainAll() throws Exception {
+        File file = File.createTempFile("outbox", ".log");
+        file.delete();
+        SimpleMailer mailer = mock(SimpleMailer.class);
+        AlertOutbox outbox = new AlertOutbox(file, mailer, 60000L, 60000L, 60000L, 1, 3600000L);
+        outbox.add("B403485748392-RT4#Warning", Arrays.asList("foo@bar.com"), "subject", "text");
+        outbox.add("B403485748392-RT5#Warning", Arrays.asList("foo@bar.com"), "subject", "text");
+        outbox.retainAll(Collections.singleton("B403485748392-RT4#Warning"));
+        assertEquals(outbox.getState("B403485748392-RT4#Warning"), AlertOutbox.State.PENDING);
+        assertEquals(outbox.getState("B403485748392-RT5#Warning"), AlertOutbox.State.ABSENT);
+        outbox.close();
+
+        outbox = new AlertOutbox(file, mailer, 60000L, 60000L, 60000L, 1, 3600000L);
+        assertEquals(outbox.getState("B403485748392-RT4#Warning"), AlertOutbox.State.PENDING);
+        assertEquals(outbox.getState("B403485748392-RT5#Warning"), AlertOutbox.State.ABSENT);
+        outbox.close();
+        file.delete();
+    }
+}
@@ -0,0 +1,73 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ *
+ */
+public class AlertTemplateTest {
+
+    /**
+     * Test that values are replaced and that lists are rendered once per row without leaving empty lines.
+     */
+    @Test
+    public void testRender() {
+        AlertTemplate template = AlertTemplate.compile(
+                "{{count}} roundtrips:\n{{#rows}}\n{{roundtrip}}{{#link}} {{link}}{{/link}}\n{{/rows}}\nEnd", false);
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 1; i <= 2; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("roundtrip", "B40000000000" + i + "-RT1");
+            rows.add(row);
+        }
+        rows.get(1).put("link", "http://doms/B400000000002");
+        Map<String, Object> values = new HashMap<>();
+        values.put("count", 2);
+        values.put("rows", rows);
+        assertEquals(template.render(values),
+                "2 roundtrips:\nB400000000001-RT1\nB400000000002-RT1 http://doms/B400000000002\nEnd");
+    }
+
+    /**
+     * Test that values are escaped in HTML templates, but the template itself is not.
+     */
+    @Test
+    public void testHtmlEscaping() {
+        Map<String, Object> values = new HashMap<>();
+        values.put("lastEvent", "<Manual_QA_Flagged & more>");
+        assertEquals(AlertTemplate.compile("<b>{{lastEvent}}</b>", true).render(values),
+                "<b>&lt;Manual_QA_Flagged &amp; more&gt;</b>");
+    }
+
+    /**
+     * Test that the built-in default template gives the same text as before templates were introduced.
+     * @throws Exception
+     */
+    @Test
+    public void testDefaultAlert() throws Exception {
+        AlertRenderer renderer = new AlertRenderer(null, "en", false, null);
+        Map<String, Object> values = new HashMap<>();
+        values.put("roundtrip", "B400022028241-RT1");
+        values.put("received", "yesterday");
+        AlertMessage message = renderer.renderAlert(values);
+        assertEquals(message.getSubject(), "[Newspaper Delay Alert]B400022028241-RT1");
+        assertEquals(message.getText(), "Batch roundtrip B400022028241-RT1 was received at yesterday\n"
+                + " but has not yet been approved or rejected.");
+        assertEquals(message.getHtml(), null);
+    }
+
+    /**
+     * Test that an unended section is rejected when the template is compiled.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnendedSection() {
+        AlertTemplate.compile("{{#rows}}{{roundtrip}}", false);
+    }
+}
@@ -0,0 +1,46 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ *
+ */
+public class CircuitBreakerTest {
+
+    /**
+     * Test that the breaker opens after the threshold of consecutive failures, lets a single probe through when it has
+     * been open for the open time, and opens again if the probe fails or closes if it succeeds.
+     */
+    @Test
+    public void testOpenAndProbe() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 1000);
+        for (int i = 0; i < 2; i++) {
+            assertTrue(breaker.allow(0));
+            breaker.failure(0);
+        }
+        assertTrue(breaker.allow(0));
+        breaker.success();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.allow(10));
+            breaker.failure(10);
+        }
+        assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+        assertFalse(breaker.allow(500));
+
+        assertTrue(breaker.allow(1010));
+        assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+        assertFalse(breaker.allow(1010));
+        breaker.failure(1020);
+        assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+        assertFalse(breaker.allow(1500));
+
+        assertTrue(breaker.allow(2020));
+        breaker.success();
+        assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+        assertTrue(breaker.allow(2020));
+    }
+}
@@ -0,0 +1,103 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A TCP proxy in front of a local server which counts the connections made through it, so tests can tell how many
+ * smtp sessions a mailer opened.
+ */
+class CountingProxy {
+
+    private final ServerSocket serverSocket;
+    private final int targetPort;
+    private final AtomicInteger accepted = new AtomicInteger();
+
+    /**
+     * Start the proxy on a free port.
+     * @param targetPort the port of the server on localhost to forward connections to.
+     * @throws IOException if the proxy could not be started.
+     */
+    CountingProxy(int targetPort) throws IOException {
+        this.targetPort = targetPort;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "CountingProxy");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket client = serverSocket.accept();
+                accepted.incrementAndGet();
+                Socket server = new Socket("localhost", targetPort);
+                pipe(client, server);
+                pipe(server, client);
+            } catch (IOException e) {
+                //The proxy has been stopped, or the server refused the connection
+            }
+        }
+    }
+
+    /**
+     * Copy everything read from one socket to the other, and close both when either side closes.
+     */
+    private static void pipe(final Socket from, final Socket to) {
+        Thread copier = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[8192];
+                try {
+                    InputStream in = from.getInputStream();
+                    OutputStream out = to.getOutputStream();
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    //One of the sockets has been closed
+                } finally {
+                    close(from);
+                    close(to);
+                }
+            }
+        }, "CountingProxy-pipe");
+        copier.setDaemon(true);
+        copier.start();
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            //Already closed
+        }
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the number of connections made through the proxy.
+     */
+    int getAccepted() {
+        return accepted.get();
+    }
+
+    void stop() throws IOException {
+        serverSocket.close();
+    }
+}
@@ -0,0 +1,72 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ *
+ */
+public class DeadlineIndexTest {
+
+    /**
+     * Test that the earliest deadline is found, ignoring updated and removed roundtrips.
+     */
+    @Test
+    public void testNextDeadline() {
+        DeadlineIndex index = new DeadlineIndex();
+        index.beginRun(10);
+        index.put("B1-RT1", 300);
+        index.put("B2-RT1", 100);
+        index.put("B3-RT1", 200);
+        index.put("B2-RT1", 400);
+        index.put("B4-RT1", 150);
+        index.remove("B4-RT1");
+        assertEquals(index.nextDeadline(), 200);
+        index.remove("B3-RT1");
+        index.remove("B1-RT1");
+        assertEquals(index.nextDeadline(), 400);
+        index.remove("B2-RT1");
+        assertEquals(index.nextDeadline(), Long.MAX_VALUE);
+    }
+
+    /**
+     * Test that roundtrips not seen in a complete run are removed at the end of it.
+     */
+    @Test
+    public void testEndRun() {
+        DeadlineIndex index = new DeadlineIndex();
+        index.beginRun(10);
+        index.put("B1-RT1", 100);
+        index.put("B2-RT1", 200);
+        index.endRun();
+        index.beginRun(20);
+        index.put("B2-RT1", 200);
+        index.endRun();
+        assertEquals(index.size(), 1);
+        assertEquals(index.nextDeadline(), 200);
+        assertEquals(index.getLastCompleteRun(), 20);
+    }
+
+    /**
+     * Test that the index and the time of the last complete run survive saving and loading.
+     * @throws Exception
+     */
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File file = File.createTempFile("deadlines", ".state");
+        file.deleteOnExit();
+        DeadlineIndex index = new DeadlineIndex();
+        index.beginRun(10);
+        index.put("B1-RT1", 100);
+        index.put("B2-RT1", 200);
+        index.endRun();
+        index.save(file);
+        DeadlineIndex loaded = DeadlineIndex.load(file);
+        assertEquals(loaded.size(), 2);
+        assertEquals(loaded.nextDeadline(), 100);
+        assertEquals(loaded.getLastCompleteRun(), 10);
+    }
+}
@@ -11,8 +11,11 @@ import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
 
 import javax.mail.MessagingException;
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
 
@@ -20,6 +23,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyList;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.*;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
@@ -159,6 +163,445 @@ public class DelayAlerterComponentTest {
         assertFalse(resultCollector.isPreservable());
     }
 
+    /**
+     * Test that with several channels a failed mail is only added to the outbox if the quorum of channels was not
+     * reached, as the event is recorded otherwise and the mail resent from the outbox would be a duplicate.
+     * @throws Exception
+     */
+    @Test
+    public void testdoWorkOnItemChannelsMailFailed() throws Exception {
+        File file = File.createTempFile("outbox", ".log");
+        file.delete();
+        Properties properties = new Properties();
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES, "foo@bar.com");
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_DAYS, "20");
+        properties.setProperty(DelayAlerterConfigConstants.NOTIFIERS, "mail,log");
+        final SimpleMailer simpleMailer = mock(SimpleMailer.class);
+        doThrow(new MessagingException("foobar")).when(simpleMailer).sendMail(anyList(), anyString(), anyString());
+        DelayAlerterComponent component = new DelayAlerterComponent(properties, simpleMailer);
+        AlertOutbox outbox = new AlertOutbox(file, mock(SimpleMailer.class), 60000L, 60000L, 60000L, 1, 3600000L);
+        component.setOutbox(outbox);
+        Batch batch = new Batch();
+        Event event = new Event();
+        event.setDate(new Date(System.currentTimeMillis() - 30*24*3600*1000L));  //30 days ago
+        event.setEventID("Data_Received");
+        batch.setEventList(new ArrayList<>(Arrays.asList(event)));
+        batch.setBatchID("B403485748392");
+        batch.setRoundTripNumber(4);
+        String key = batch.getFullID() + "#" + component.getEventID();
+
+        ResultCollector resultCollector = new ResultCollector("foo", "bar");
+        component.doWorkOnItem(batch, resultCollector);
+        assertTrue(resultCollector.isPreservable());
+        assertEquals(outbox.getState(key), AlertOutbox.State.ABSENT);
+
+        properties.setProperty(DelayAlerterConfigConstants.NOTIFIERS_QUORUM, "2");
+        component.setConfig(new DelayAlerterConfig(properties));
+        resultCollector = new ResultCollector("foo", "bar");
+        try {
+            component.doWorkOnItem(batch, resultCollector);
+            fail("Should have thrown an exception here.");
+        } catch (MessagingException e) {
+            //expected
+        }
+        assertFalse(resultCollector.isPreservable());
+        assertEquals(outbox.getState(key), AlertOutbox.State.PENDING);
+        component.close();
+        outbox.close();
+        file.delete();
+    }
+
+    /**
+     * Test that while the members of the shards are not known no roundtrip is worked on, the run does not count as
+     * complete, and the next run is skipped.
+     * @throws Exception
+     */
+    @Test
+    public void testdoWorkOnItemShardsUnknown() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES, "foo@bar.com");
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_DAYS, "20");
+        final SimpleMailer simpleMailer = mock(SimpleMailer.class);
+        DelayAlerterComponent component = new DelayAlerterComponent(properties, simpleMailer);
+        ShardMembership shards = mock(ShardMembership.class);
+        component.setShards(shards);
+        component.beginRun();
+        Batch batch = new Batch();
+        Event event = new Event();
+        event.setDate(new Date(System.currentTimeMillis() - 30*24*3600*1000L));  //30 days ago
+        event.setEventID("Data_Received");
+        batch.setEventList(new ArrayList<>(Arrays.asList(event)));
+        batch.setBatchID("B403485748392");
+        batch.setRoundTripNumber(4);
+        ResultCollector resultCollector = new ResultCollector("foo", "bar");
+        component.doWorkOnItem(batch, resultCollector);
+        verify(simpleMailer, never()).sendMail(anyList(), anyString(), anyString());
+        assertFalse(resultCollector.isPreservable());
+        assertTrue(component.wereShardsUnknown());
+        assertFalse(component.isRunDue());
+    }
+
+    /**
+     * Test that the roundtrips worked on are remembered as open, with the tier they were seen in, until a complete run
+     * does not see them, and that changes to other objects are not taken as changes of open roundtrips.
+     * @throws Exception
+     */
+    @Test
+    public void testdoWorkOnItemOpenRoundtrips() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES, "foo@bar.com");
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_DAYS, "20");
+        properties.setProperty(DelayAlerterConfigConstants.TIERS, "team,lead");
+        properties.setProperty("delay.alert.tier.team.days", "20");
+        properties.setProperty("delay.alert.tier.team.email.addresses", "team@bar.com");
+        properties.setProperty("delay.alert.tier.team.eventId", "Warning_Email_Sent");
+        properties.setProperty("delay.alert.tier.lead.days", "40");
+        properties.setProperty("delay.alert.tier.lead.email.addresses", "lead@bar.com");
+        properties.setProperty("delay.alert.tier.lead.eventId", "Escalation_Email_Sent");
+        DelayAlerterComponent component = new DelayAlerterComponent(properties, mock(SimpleMailer.class));
+        List<AlertTier> tiers = component.getConfig().getTiers();
+        component.beginRun();
+        component.beginTier(tiers.get(1));
+        Batch batch = new Batch();
+        Event event = new Event();
+        event.setDate(new Date(System.currentTimeMillis() - 10*24*3600*1000L));  //ten days ago
+        event.setEventID("Data_Received");
+        batch.setEventList(new ArrayList<>(Arrays.asList(event)));
+        batch.setBatchID("B403485748392");
+        batch.setRoundTripNumber(4);
+        batch.setDomsID("uuid:2a4e4fe0-0000-0000-0000-000000000000");
+        component.doWorkOnItem(batch, new ResultCollector("foo", "bar"));
+        component.endRun(true);
+
+        assertTrue(component.isOpenRoundtrip("uuid:2a4e4fe0-0000-0000-0000-000000000000"));
+        assertFalse(component.isOpenRoundtrip("uuid:7d4c3e6a-0000-0000-0000-000000000000"));
+        assertEquals(component.firstOpenTier(new HashSet<>(Arrays.asList("uuid:2a4e4fe0-0000-0000-0000-000000000000",
+                "uuid:7d4c3e6a-0000-0000-0000-000000000000")), tiers), 1);
+        assertEquals(component.firstOpenTier(new HashSet<>(Arrays.asList("uuid:7d4c3e6a-0000-0000-0000-000000000000")),
+                tiers), -1);
 
+        component.beginRun();
+        component.endRun(false);
+        assertTrue(component.isOpenRoundtrip("uuid:2a4e4fe0-0000-0000-0000-000000000000"));
+        component.beginRun();
+        component.endRun(true);
+        assertFalse(component.isOpenRoundtrip("uuid:2a4e4fe0-0000-0000-0000-000000000000"));
+    }
 
+    /**
+     * Test that a run over many overdue roundtrips finishes in seconds when the smtp host accepts connections but never
+     * answers. Only the first mails wait for the timeout, the rest fail at once on the open circuit breaker, and
+     * none of the roundtrips are marked as alerted.
+     * @throws Exception
+     */
+    @Test
+    public void testdoWorkOnItemDeadRelay() throws Exception {
+        FaultySmtpServer relay = new FaultySmtpServer(FaultySmtpServer.Fault.SILENT);
+        try {
+            Properties properties = new Properties();
+            properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES, "foo@bar.com");
+            properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_DAYS, "20");
+            SimpleMailer simpleMailer = new SimpleMailer("me@test.com", "localhost", "" + relay.getPort(), 2, 60000L,
+                    500L, 500L);
+            CircuitBreaker breaker = new CircuitBreaker(3, 60000L);
+            simpleMailer.setCircuitBreaker(breaker);
+            DelayAlerterComponent component = new DelayAlerterComponent(properties, simpleMailer);
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < 50; i++) {
+                Batch batch = new Batch();
+                Event event = new Event();
+                event.setDate(new Date(start - 30*24*3600*1000L));  //30 days ago
+                event.setEventID("Data_Received");
+                batch.setEventList(new ArrayList<>(Arrays.asList(event)));
+                batch.setBatchID("B40348574" + (1000 + i));
+                batch.setRoundTripNumber(1);
+                ResultCollector resultCollector = new ResultCollector("foo", "bar");
+                try {
+                    component.doWorkOnItem(batch, resultCollector);
+                    fail("Should have thrown an exception here.");
+                } catch (MessagingException e) {
+                    //expected
+                }
+                assertFalse(resultCollector.isPreservable());
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            simpleMailer.close();
+            assertTrue(elapsed < 10000, "The run took " + elapsed + " ms");
+            assertEquals(relay.getAccepted(), 3);
+            assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+        } finally {
+            relay.stop();
+        }
+    }
+
+    /**
+     * Test that the decision to skip a run is made from the deadline index alone, as done before anything else is
+     * set up for a run from cron.
+     */
+    @Test
+    public void testIsRunDueFromIndex() {
+        long now = System.currentTimeMillis();
+        DeadlineIndex index = new DeadlineIndex();
+        assertTrue(DelayAlerterComponent.isRunDue(index, 3600000L, now));
+        index.beginRun(now - 1000);
+        index.put("B403485748392-RT4", now + 60000);
+        index.endRun();
+        assertFalse(DelayAlerterComponent.isRunDue(index, 3600000L, now));
+        assertTrue(DelayAlerterComponent.isRunDue(index, 3600000L, now + 60000));
+
+        DeadlineIndex idle = new DeadlineIndex();
+        idle.beginRun(now - 1000);
+        idle.endRun();
+        assertFalse(DelayAlerterComponent.isRunDue(idle, 3600000L, now));
+        assertTrue(DelayAlerterComponent.isRunDue(idle, 3600000L, now + 3600000));
+    }
+
+    /**
+     * Test that in digest mode two delayed roundtrips handled at the same time result in a single mail, and that
+     * both results are preserved.
+     * @throws Exception
+     */
+    @Test
+    public void testdoWorkOnItemDigest() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES, "foo@bar.com, bar@bar.com");
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_DAYS, "20");
+        properties.setProperty(DelayAlerterConfigConstants.DIGEST_ENABLED, "true");
+        properties.setProperty(DelayAlerterConfigConstants.DIGEST_MAX_ENTRIES, "2");
+        properties.setProperty(DelayAlerterConfigConstants.DIGEST_LINGER, "10000");
+        final SimpleMailer simpleMailer = mock(SimpleMailer.class);
+        final DelayAlerterComponent component = new DelayAlerterComponent(properties, simpleMailer);
+        final ResultCollector[] resultCollectors = new ResultCollector[2];
+        Thread[] workers = new Thread[2];
+        for (int i = 0; i < 2; i++) {
+            final Batch batch = new Batch();
+            Event event = new Event();
+            event.setDate(new Date(new Date().getTime() - 30*24*3600*1000L));  //30 days ago
+            event.setEventID("Data_Received");
+            List<Event> events = new ArrayList<>();
+            events.add(event);
+            batch.setEventList(events);
+            batch.setBatchID("B40348574839" + i);
+            batch.setRoundTripNumber(4);
+            final ResultCollector resultCollector = new ResultCollector("foo", "bar");
+            resultCollectors[i] = resultCollector;
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        component.doWorkOnItem(batch, resultCollector);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join(5000);
+        }
+        verify(simpleMailer, times(1)).sendMail(anyList(), anyString(), anyString());
+        assertTrue(resultCollectors[0].isPreservable());
+        assertTrue(resultCollectors[1].isPreservable());
+    }
+
+    /**
+     * Test that with a dedup file the workers queue their roundtrips in the digest without waiting, that the digest
+     * is sent as one mail at the end of the run, and that the next run records the events without mailing again.
+     * @throws Exception
+     */
+    @Test
+    public void testdoWorkOnItemDigestQueued() throws Exception {
+        File dedupFile = File.createTempFile("sent", ".alerts");
+        dedupFile.delete();
+        Properties properties = new Properties();
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES, "foo@bar.com");
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_DAYS, "20");
+        properties.setProperty(DelayAlerterConfigConstants.DIGEST_ENABLED, "true");
+        properties.setProperty(DelayAlerterConfigConstants.DIGEST_LINGER, "60000");
+        properties.setProperty(DelayAlerterConfigConstants.DEDUP_FILE, dedupFile.getPath());
+        SimpleMailer simpleMailer = mock(SimpleMailer.class);
+        DelayAlerterComponent component = new DelayAlerterComponent(properties, simpleMailer);
+        try {
+            List<Batch> batches = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Event event = new Event();
+                event.setDate(new Date(new Date().getTime() - 30*24*3600*1000L));  //30 days ago
+                event.setEventID("Data_Received");
+                Batch batch = new Batch();
+                batch.setEventList(new ArrayList<>(Arrays.asList(event)));
+                batch.setBatchID("B40348574839" + i);
+                batch.setRoundTripNumber(4);
+                batches.add(batch);
+                ResultCollector resultCollector = new ResultCollector("foo", "bar");
+                component.doWorkOnItem(batch, resultCollector);
+                assertFalse(resultCollector.isPreservable());
+            }
+            verify(simpleMailer, never()).sendMail(anyList(), anyString(), anyString());
+            component.endRun(true);
+            verify(simpleMailer, times(1)).sendMail(anyList(), anyString(), anyString());
+
+            component.beginRun();
+            for (Batch batch : batches) {
+                ResultCollector resultCollector = new ResultCollector("foo", "bar");
+                component.doWorkOnItem(batch, resultCollector);
+                assertTrue(resultCollector.isPreservable());
+            }
+            component.endRun(true);
+            verify(simpleMailer, times(1)).sendMail(anyList(), anyString(), anyString());
+        } finally {
+            component.close();
+            dedupFile.delete();
+        }
+    }
+
+    /**
+     * Test that only one mail is sent for a roundtrip with several Data_Received events.
+     * @throws Exception
+     */
+    @Test
+    public void testdoWorkOnItemRepeatedDataReceived() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES, "foo@bar.com, bar@bar.com");
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_DAYS, "20");
+        final SimpleMailer simpleMailer = mock(SimpleMailer.class);
+        DelayAlerterComponent component = new DelayAlerterComponent(properties, simpleMailer);
+        Batch batch = new Batch();
+        ResultCollector resultCollector = new ResultCollector("foo", "bar");
+        Date now = new Date();
+        List<Event> events = new ArrayList<>();
+        for (int days : new int[]{40, 30, 25}) {
+            Event event = new Event();
+            event.setDate(new Date(now.getTime() - days*24*3600*1000L));
+            event.setEventID("Data_Received");
+            events.add(event);
+        }
+        batch.setEventList(events);
+        batch.setBatchID("B403485748392");
+        batch.setRoundTripNumber(4);
+        component.doWorkOnItem(batch, resultCollector);
+        verify(simpleMailer, times(1)).sendMail(anyList(), anyString(), anyString());
+        assertTrue(resultCollector.isPreservable());
+        assertEquals(DelayAlerterComponent.findReceivedTime(events, false), events.get(0).getDate().getTime());
+        assertEquals(DelayAlerterComponent.findReceivedTime(events, true), events.get(2).getDate().getTime());
+    }
+
+    /**
+     * Test that the received time and the latest event are found when other events of the roundtrip, including a
+     * Data_Received event, have no date.
+     */
+    @Test
+    public void testEventsWithoutDate() {
+        List<Event> events = new ArrayList<>();
+        Event undated = new Event();
+        undated.setEventID("Metadata_Archived");
+        events.add(undated);
+        Event undatedReceived = new Event();
+        undatedReceived.setEventID("Data_Received");
+        events.add(undatedReceived);
+        Event received = new Event();
+        received.setEventID("Data_Received");
+        received.setDate(new Date(1000));
+        events.add(received);
+        assertEquals(DelayAlerterComponent.findReceivedTime(events, true), 1000L);
+        assertEquals(DelayAlerterComponent.findLastEvent(events), received);
+    }
+
+    /**
+     * Test that a roundtrip is alerted to the recipients of the tier being run, and that each tier only selects
+     * roundtrips due for it.
+     * @throws Exception
+     */
+    @Test
+    public void testdoWorkOnItemTiers() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES, "foo@bar.com");
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_DAYS, "20");
+        properties.setProperty(DelayAlerterConfigConstants.TIERS, "team,lead");
+        properties.setProperty("delay.alert.tier.team.days", "20");
+        properties.setProperty("delay.alert.tier.team.email.addresses", "team@bar.com");
+        properties.setProperty("delay.alert.tier.team.eventId", "Warning_Email_Sent");
+        properties.setProperty("delay.alert.tier.lead.days", "40");
+        properties.setProperty("delay.alert.tier.lead.email.addresses", "lead@bar.com");
+        properties.setProperty("delay.alert.tier.lead.eventId", "Escalation_Email_Sent");
+        properties.setProperty(DelayAlerterComponent.PAST_SUCCESSFUL_EVENTS, "Data_Received");
+        properties.setProperty(DelayAlerterComponent.FUTURE_EVENTS, "Roundtrip_Approved,Warning_Email_Sent");
+        final SimpleMailer simpleMailer = mock(SimpleMailer.class);
+        DelayAlerterComponent component = new DelayAlerterComponent(properties, simpleMailer);
+        List<AlertTier> tiers = component.getConfig().getTiers();
+
+        Properties teamProperties = DelayAlerterComponent.tierProperties(properties, tiers, 0);
+        assertEquals(teamProperties.getProperty(DelayAlerterComponent.PAST_SUCCESSFUL_EVENTS), "Data_Received");
+        assertEquals(teamProperties.getProperty(DelayAlerterComponent.FUTURE_EVENTS),
+                "Roundtrip_Approved,Warning_Email_Sent,Escalation_Email_Sent");
+        Properties leadProperties = DelayAlerterComponent.tierProperties(properties, tiers, 1);
+        assertEquals(leadProperties.getProperty(DelayAlerterComponent.PAST_SUCCESSFUL_EVENTS),
+                "Data_Received,Warning_Email_Sent");
+        assertEquals(leadProperties.getProperty(DelayAlerterComponent.FUTURE_EVENTS),
+                "Roundtrip_Approved,Escalation_Email_Sent");
+
+        Batch batch = new Batch();
+        Event event = new Event();
+        event.setDate(new Date(System.currentTimeMillis() - 30*24*3600*1000L));  //30 days ago
+        event.setEventID("Data_Received");
+        List<Event> events = new ArrayList<>();
+        events.add(event);
+        batch.setEventList(events);
+        batch.setBatchID("B403485748392");
+        batch.setRoundTripNumber(4);
+
+        component.beginRun();
+        component.beginTier(tiers.get(0));
+        assertEquals(component.getEventID(), "Warning_Email_Sent");
+        ResultCollector resultCollector = new ResultCollector("foo", "bar");
+        component.doWorkOnItem(batch, resultCollector);
+        assertTrue(resultCollector.isPreservable());
+        verify(simpleMailer).sendMail(eq(Arrays.asList("team@bar.com")), anyString(), anyString());
+
+        component.beginTier(tiers.get(1));
+        assertEquals(component.getEventID(), "Escalation_Email_Sent");
+        resultCollector = new ResultCollector("foo", "bar");
+        component.doWorkOnItem(batch, resultCollector);
+        assertFalse(resultCollector.isPreservable());
+        verify(simpleMailer, never()).sendMail(eq(Arrays.asList("lead@bar.com")), anyString(), anyString());
+    }
+
+    /**
+     * Test that with adaptive delays a roundtrip is alerted when it has taken longer than most roundtrips of its
+     * group, before the configured delay, and that a group which has not learned enough uses the configured delay.
+     * @throws Exception
+     */
+    @Test
+    public void testdoWorkOnItemAdaptiveDelay() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES, "foo@bar.com, bar@bar.com");
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_DAYS, "20");
+        properties.setProperty(DelayAlerterConfigConstants.ADAPTIVE_ENABLED, "true");
+        properties.setProperty(DelayAlerterConfigConstants.ADAPTIVE_PREFIX_LENGTH, "4");
+        final SimpleMailer simpleMailer = mock(SimpleMailer.class);
+        DelayAlerterComponent component = new DelayAlerterComponent(properties, simpleMailer);
+        ProcessingTimes processingTimes = new ProcessingTimes(4);
+        for (int i = 1; i <= 100; i++) {
+            processingTimes.add("B403" + i, i * 24 * 3600 * 1000L / 12);
+        }
+        component.setProcessingTimes(processingTimes);
+
+        Batch batch = new Batch();
+        ResultCollector resultCollector = new ResultCollector("foo", "bar");
+        Event event = new Event();
+        event.setDate(new Date(System.currentTimeMillis() - 10*24*3600*1000L));  //ten days ago
+        event.setEventID("Data_Received");
+        batch.setEventList(Arrays.asList(event));
+        batch.setBatchID("B403485748392");
+        batch.setRoundTripNumber(4);
+        component.doWorkOnItem(batch, resultCollector);
+        verify(simpleMailer, times(1)).sendMail(anyList(), anyString(), anyString());
+
+        Batch unknown = new Batch();
+        unknown.setEventList(Arrays.asList(event));
+        unknown.setBatchID("B500485748392");
+        unknown.setRoundTripNumber(1);
+        component.doWorkOnItem(unknown, new ResultCollector("foo", "bar"));
+        verify(simpleMailer, times(1)).sendMail(anyList(), anyString(), anyString());
+    }
 }
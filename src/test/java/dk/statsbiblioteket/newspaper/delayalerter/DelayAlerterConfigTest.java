@@ -0,0 +1,151 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+/**
+ *
+ */
+public class DelayAlerterConfigTest {
+
+    /**
+     * Test that the configuration is parsed into typed values.
+     */
+    @Test
+    public void testParse() {
+        Properties properties = new Properties();
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES, "foo@bar.com, bar@bar.com");
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_DAYS, "20");
+        DelayAlerterConfig config = new DelayAlerterConfig(properties);
+        assertEquals(config.getAlertPeriod(), 20 * 24 * 3600 * 1000L);
+        assertEquals(config.getRecipients(), Arrays.asList("foo@bar.com", "bar@bar.com"));
+    }
+
+    /**
+     * Test that a malformed number of days is rejected.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMalformedDays() {
+        Properties properties = new Properties();
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES, "foo@bar.com");
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_DAYS, "twenty");
+        new DelayAlerterConfig(properties);
+    }
+
+    /**
+     * Test that a malformed recipient address is rejected.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMalformedRecipient() {
+        Properties properties = new Properties();
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES, "foo@bar.com, not an address");
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_DAYS, "20");
+        new DelayAlerterConfig(properties);
+    }
+
+    /**
+     * Test that tiers must be listed in order of increasing days.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testTiersOutOfOrder() {
+        Properties properties = new Properties();
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES, "foo@bar.com");
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_DAYS, "20");
+        properties.setProperty(DelayAlerterConfigConstants.TIERS, "lead,team");
+        properties.setProperty("delay.alert.tier.lead.days", "40");
+        properties.setProperty("delay.alert.tier.lead.email.addresses", "lead@bar.com");
+        properties.setProperty("delay.alert.tier.lead.eventId", "Escalation_Email_Sent");
+        properties.setProperty("delay.alert.tier.team.days", "20");
+        properties.setProperty("delay.alert.tier.team.email.addresses", "team@bar.com");
+        properties.setProperty("delay.alert.tier.team.eventId", "Warning_Email_Sent");
+        new DelayAlerterConfig(properties);
+    }
+
+    /**
+     * Test that the first tier may not have a negative delay.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testFirstTierNegativeDays() {
+        Properties properties = new Properties();
+        properties.setProperty(DelayAlerterConfigConstants.TIERS, "team");
+        properties.setProperty("delay.alert.tier.team.days", "-1");
+        properties.setProperty("delay.alert.tier.team.email.addresses", "team@bar.com");
+        properties.setProperty("delay.alert.tier.team.eventId", "Warning_Email_Sent");
+        new DelayAlerterConfig(properties);
+    }
+
+    /**
+     * Test that the digest must be sent before the longest wait, even when alerts keep coming.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDigestLingerNotBelowMaxWait() {
+        Properties properties = new Properties();
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES, "foo@bar.com");
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_DAYS, "20");
+        properties.setProperty(DelayAlerterConfigConstants.DIGEST_LINGER, "60000");
+        properties.setProperty(DelayAlerterConfigConstants.DIGEST_MAX_WAIT, "60000");
+        new DelayAlerterConfig(properties);
+    }
+
+    /**
+     * Test that with tiers the delay and recipients of a single tier are not required, and default to those of the
+     * first tier.
+     */
+    @Test
+    public void testTiersWithoutSingleTierProperties() {
+        Properties properties = new Properties();
+        properties.setProperty(DelayAlerterConfigConstants.TIERS, "team,lead");
+        properties.setProperty("delay.alert.tier.team.days", "20");
+        properties.setProperty("delay.alert.tier.team.email.addresses", "team@bar.com");
+        properties.setProperty("delay.alert.tier.team.eventId", "Warning_Email_Sent");
+        properties.setProperty("delay.alert.tier.lead.days", "40");
+        properties.setProperty("delay.alert.tier.lead.email.addresses", "lead@bar.com");
+        properties.setProperty("delay.alert.tier.lead.eventId", "Escalation_Email_Sent");
+        DelayAlerterConfig config = new DelayAlerterConfig(properties);
+        assertEquals(config.getTiers().size(), 2);
+        assertEquals(config.getDelayDays(), 20);
+        assertEquals(config.getRecipients(), Arrays.asList("team@bar.com"));
+    }
+
+    /**
+     * Test that the smtp port is trimmed and must be a port number.
+     */
+    @Test
+    public void testSmtpPort() {
+        Properties properties = new Properties();
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES, "foo@bar.com");
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_DAYS, "20");
+        properties.setProperty(DelayAlerterConfigConstants.SMTP_PORT, " 2525 ");
+        assertEquals(new DelayAlerterConfig(properties).getSmtpPort(), "2525");
+        properties.setProperty(DelayAlerterConfigConstants.SMTP_PORT, "70000");
+        try {
+            new DelayAlerterConfig(properties);
+            fail("Port out of range was accepted");
+        } catch (IllegalArgumentException e) {
+            //Expected
+        }
+    }
+
+    /**
+     * Test that the io execution mode raises the number of workers of the framework.
+     */
+    @Test
+    public void testIoExecutionMode() {
+        Properties properties = new Properties();
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES, "foo@bar.com");
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_DAYS, "20");
+        properties.setProperty(DelayAlerterComponent.MAX_THREADS, "10");
+        properties.setProperty(DelayAlerterConfigConstants.EXECUTION_MODE, "io");
+        properties.setProperty(DelayAlerterConfigConstants.IO_MAX_THREADS, "150");
+        DelayAlerterConfig config = new DelayAlerterConfig(properties);
+        Properties execution = DelayAlerterComponent.executionProperties(properties, config);
+        assertEquals(execution.getProperty(DelayAlerterComponent.MAX_THREADS), "150");
+        assertEquals(execution.getProperty(DelayAlerterComponent.WORK_QUEUE_SIZE), "150");
+        assertEquals(properties.getProperty(DelayAlerterComponent.MAX_THREADS), "10");
+    }
+}
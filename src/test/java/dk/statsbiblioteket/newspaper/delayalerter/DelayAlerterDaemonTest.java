@@ -0,0 +1,214 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests of the polling, the requested polls and the shutdown of {@link DelayAlerterDaemon}.
+ */
+public class DelayAlerterDaemonTest {
+
+    /**
+     * Test that a poll started while another is running is skipped, so polls never overlap.
+     * @throws Exception
+     */
+    @Test
+    public void testSlowPollIsNotOverlapped() throws Exception {
+        SlowComponent component = new SlowComponent(500);
+        DelayAlerterDaemon daemon = new DelayAlerterDaemon(new Properties(), component, mock(SimpleMailer.class),
+                null, 10, 5000);
+        try {
+            daemon.start();
+            assertTrue(component.started.await(5, TimeUnit.SECONDS));
+            daemon.poll();
+            daemon.poll();
+            assertEquals(component.polls.get(), 1);
+        } finally {
+            daemon.shutdown();
+        }
+        assertEquals(component.maxConcurrent.get(), 1);
+    }
+
+    /**
+     * Test that a burst of requested polls results in a single complete poll after the request delay.
+     * @throws Exception
+     */
+    @Test
+    public void testRequestedPollsAreMerged() throws Exception {
+        SlowComponent component = new SlowComponent(0);
+        DelayAlerterDaemon daemon = new DelayAlerterDaemon(new Properties(), component, mock(SimpleMailer.class),
+                null, 60000, 5000);
+        daemon.setRequestDelay(200);
+        try {
+            for (int i = 0; i < 5; i++) {
+                daemon.requestPoll();
+            }
+            assertEquals(component.polls.get(), 0);
+            assertTrue(component.started.await(5, TimeUnit.SECONDS));
+            Thread.sleep(400);
+            assertEquals(component.polls.get(), 1);
+            assertEquals(component.completeRunsRequested.get(), 1);
+        } finally {
+            daemon.shutdown();
+        }
+    }
+
+    /**
+     * Test that changes to objects which are not open roundtrips are ignored, that changes to open roundtrips are
+     * merged into a single poll re-checking only them, and that a further change is not polled for until the poll
+     * delay has passed since the previous requested poll.
+     * @throws Exception
+     */
+    @Test
+    public void testRequestedChangesAreRechecked() throws Exception {
+        SlowComponent component = new SlowComponent(0);
+        DelayAlerterDaemon daemon = new DelayAlerterDaemon(new Properties(), component, mock(SimpleMailer.class),
+                null, 60000, 5000);
+        daemon.setRequestDelay(200);
+        try {
+            daemon.requestPoll("uuid:other");
+            Thread.sleep(400);
+            assertTrue(component.rechecked.isEmpty());
+
+            daemon.requestPoll("uuid:open-1");
+            daemon.requestPoll("uuid:other");
+            daemon.requestPoll("uuid:open-2");
+            Thread.sleep(400);
+            Set<String> changed = new HashSet<>(Arrays.asList("uuid:open-1", "uuid:open-2"));
+            assertEquals(component.rechecked, Collections.singletonList(changed));
+
+            daemon.requestPoll("uuid:open-3");
+            Thread.sleep(400);
+            assertEquals(component.rechecked.size(), 1);
+            assertEquals(component.polls.get(), 0);
+            assertEquals(component.completeRunsRequested.get(), 0);
+        } finally {
+            daemon.shutdown();
+        }
+    }
+
+    /**
+     * Test that shutting down does not wait for a hanging poll longer than the shutdown timeout.
+     * @throws Exception
+     */
+    @Test
+    public void testShutdownTimeout() throws Exception {
+        SlowComponent component = new SlowComponent(60000);
+        DelayAlerterDaemon daemon = new DelayAlerterDaemon(new Properties(), component, mock(SimpleMailer.class),
+                null, 10, 300);
+        daemon.start();
+        assertTrue(component.started.await(5, TimeUnit.SECONDS));
+        long start = System.currentTimeMillis();
+        daemon.shutdown();
+        long millis = System.currentTimeMillis() - start;
+        assertTrue(millis >= 300 && millis < 2000, "Shutdown took " + millis + " ms");
+    }
+
+    /**
+     * Test that the shutdown hook waits for the resources to be closed after the daemon has stopped, but no longer
+     * than the timeout.
+     * @throws Exception
+     */
+    @Test
+    public void testShutdownHookWaitsForCleanup() throws Exception {
+        DelayAlerterDaemon daemon = new DelayAlerterDaemon(new Properties(), new SlowComponent(0),
+                mock(SimpleMailer.class), null, 60000, 1000);
+        final CountDownLatch cleanedUp = new CountDownLatch(1);
+        Thread cleanup = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                cleanedUp.countDown();
+            }
+        });
+        cleanup.start();
+        long start = System.currentTimeMillis();
+        DelayAlerterComponent.shutdownHook(daemon, cleanedUp, 5000).run();
+        long millis = System.currentTimeMillis() - start;
+        assertTrue(millis >= 250 && millis < 2000, "Shutdown hook took " + millis + " ms");
+
+        start = System.currentTimeMillis();
+        DelayAlerterComponent.shutdownHook(daemon, new CountDownLatch(1), 300).run();
+        millis = System.currentTimeMillis() - start;
+        assertTrue(millis >= 300 && millis < 2000, "Shutdown hook took " + millis + " ms");
+    }
+
+    private static Properties properties() {
+        Properties properties = new Properties();
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES, "foo@bar.com");
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_DAYS, "20");
+        return properties;
+    }
+
+    /**
+     * A component whose check for a due run takes a given time and then skips the run, so a poll takes that time
+     * without querying SBOI.
+     */
+    private static class SlowComponent extends DelayAlerterComponent {
+
+        private final long millis;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final AtomicInteger polls = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+        private final AtomicInteger completeRunsRequested = new AtomicInteger();
+        private final List<Set<String>> rechecked = Collections.synchronizedList(new ArrayList<Set<String>>());
+
+        SlowComponent(long millis) {
+            super(properties(), mock(SimpleMailer.class));
+            this.millis = millis;
+        }
+
+        @Override
+        public boolean isRunDue() {
+            polls.incrementAndGet();
+            int concurrent = running.incrementAndGet();
+            synchronized (maxConcurrent) {
+                maxConcurrent.set(Math.max(maxConcurrent.get(), concurrent));
+            }
+            started.countDown();
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+            return false;
+        }
+
+        @Override
+        public void requestCompleteRun() {
+            completeRunsRequested.incrementAndGet();
+        }
+
+        @Override
+        public boolean isOpenRoundtrip(String pid) {
+            return pid.startsWith("uuid:open");
+        }
+
+        @Override
+        int firstOpenTier(Set<String> pids, List<AlertTier> tiers) {
+            rechecked.add(new HashSet<>(pids));
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A stand-in for a broken smtp host. It accepts connections, and then either never answers them, like a relay which
+ * has hung, or closes them at once, like a relay which is restarting.
+ */
+class FaultySmtpServer {
+
+    /**
+     * The faults the server can inject.
+     */
+    enum Fault {
+        SILENT, DISCONNECT
+    }
+
+    private final ServerSocket serverSocket;
+    private final List<Socket> connections = new ArrayList<>();
+    private volatile Fault fault;
+    private volatile int accepted = 0;
+
+    /**
+     * Start the server on a free port.
+     * @param fault the fault to inject.
+     * @throws IOException if the server could not be started.
+     */
+    FaultySmtpServer(Fault fault) throws IOException {
+        this.fault = fault;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "FaultySmtpServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                accepted++;
+                if (fault == Fault.DISCONNECT) {
+                    socket.close();
+                } else {
+                    synchronized (connections) {
+                        connections.add(socket);
+                    }
+                }
+            } catch (IOException e) {
+                //The server has been stopped
+            }
+        }
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the number of connections made to the server.
+     */
+    int getAccepted() {
+        return accepted;
+    }
+
+    void setFault(Fault fault) {
+        this.fault = fault;
+    }
+
+    void stop() throws IOException {
+        serverSocket.close();
+        synchronized (connections) {
+            for (Socket socket : connections) {
+                socket.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.annotations.Test;
+
+import javax.mail.MessagingException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ *
+ */
+public class NotifierDispatcherTest {
+
+    private static final List<String> TO = Arrays.asList("foo@bar.com");
+    private static final AlertMessage MESSAGE = new AlertMessage("[Newspaper Delay Alert]B403485748392-RT4",
+            "Batch roundtrip B403485748392-RT4 was \"received\"\n but has not yet been approved or rejected.", null);
+
+    /**
+     * Test that the webhook channel posts the alert as JSON, using a local http server as the webhook.
+     * @throws Exception
+     */
+    @Test
+    public void testWebhook() throws Exception {
+        final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/hook", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                received.add(exchange.getRequestMethod() + " " + read(exchange.getRequestBody()));
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            Properties properties = new Properties();
+            properties.setProperty("url", "http://localhost:" + server.getAddress().getPort() + "/hook");
+            Notifier webhook = NotifierDispatcher.createNotifier("webhook", properties);
+            NotifierDispatcher dispatcher = new NotifierDispatcher(Collections.singletonList(webhook), false,
+                    Collections.<String, Long>emptyMap(), 1);
+            dispatcher.dispatch(TO, MESSAGE, null);
+            dispatcher.close();
+            assertEquals(received.poll(10, TimeUnit.SECONDS), "POST {\"text\":\"[Newspaper Delay Alert]B403485748392-RT4\\n"
+                    + "Batch roundtrip B403485748392-RT4 was \\\"received\\\"\\n but has not yet been approved or rejected.\","
+                    + "\"subject\":\"[Newspaper Delay Alert]B403485748392-RT4\",\"body\":\"Batch roundtrip "
+                    + "B403485748392-RT4 was \\\"received\\\"\\n but has not yet been approved or rejected.\","
+                    + "\"recipients\":[\"foo@bar.com\"]}");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Test that the channels send at the same time, so sending takes as long as the slowest channel.
+     * @throws Exception
+     */
+    @Test
+    public void testFanOut() throws Exception {
+        NotifierDispatcher dispatcher = new NotifierDispatcher(
+                Arrays.asList(new SlowNotifier("a", 500), new SlowNotifier("b", 500)), true,
+                Collections.<String, Long>emptyMap(), 3);
+        long start = System.currentTimeMillis();
+        dispatcher.dispatch(TO, MESSAGE, new SlowNotifier(NotifierDispatcher.MAIL, 500));
+        long elapsed = System.currentTimeMillis() - start;
+        dispatcher.close();
+        assertTrue(elapsed >= 500 && elapsed < 1400, "Sending took " + elapsed + " ms");
+    }
+
+    /**
+     * Test that a channel which times out or fails counts against the quorum.
+     * @throws Exception
+     */
+    @Test
+    public void testQuorum() throws Exception {
+        Map<String, Long> timeouts = new HashMap<>();
+        timeouts.put("slow", 100L);
+        List<Notifier> notifiers = Arrays.<Notifier>asList(new SlowNotifier("slow", 10000), new SlowNotifier("fast", 0),
+                new SlowNotifier("failing", -1));
+        NotifierDispatcher dispatcher = new NotifierDispatcher(notifiers, false, timeouts, 1);
+        long start = System.currentTimeMillis();
+        dispatcher.dispatch(TO, MESSAGE, null);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        dispatcher.close();
+
+        dispatcher = new NotifierDispatcher(notifiers, false, timeouts, 2);
+        try {
+            dispatcher.dispatch(TO, MESSAGE, null);
+            fail("Only one of three channels succeeded, but the quorum of two was met");
+        } catch (MessagingException e) {
+            //expected
+        } finally {
+            dispatcher.close();
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A channel which takes a fixed time to send, or fails if the time is negative.
+     */
+    private static class SlowNotifier implements Notifier {
+        private final String name;
+        private final long millis;
+
+        private SlowNotifier(String name, long millis) {
+            this.name = name;
+            this.millis = millis;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void send(List<String> to, AlertMessage message) throws IOException {
+            if (millis < 0) {
+                throw new IOException("Channel " + name + " is down");
+            }
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted", e);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import dk.statsbiblioteket.medieplatform.autonomous.Batch;
+import dk.statsbiblioteket.medieplatform.autonomous.Event;
+import org.testng.annotations.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ *
+ */
+public class OverdueReportTest {
+
+    private static final long DAY = 24 * 3600 * 1000L;
+
+    /**
+     * Test that only overdue roundtrips are reported, with their days overdue, latest event and alerted tier.
+     * @throws Exception
+     */
+    @Test
+    public void testCsv() throws Exception {
+        long now = System.currentTimeMillis();
+        StringWriter out = new StringWriter();
+        OverdueReport report = new OverdueReport(out, OverdueReport.Format.CSV, config(), now);
+        assertTrue(report.add(batch("B403485748392", 4, now - 30 * DAY, now - 5 * DAY)));
+        assertFalse(report.add(batch("B403485748393", 1, now - 10 * DAY, 0)));
+        assertEquals(report.getCount(), 1);
+        String[] lines = out.toString().split("\n");
+        assertEquals(lines.length, 2);
+        assertEquals(lines[0], "batchId,roundtrip,received,daysOverdue,lastEvent,lastEventDate,alertedTier");
+        assertTrue(lines[1].startsWith("B403485748392,B403485748392-RT4,"), lines[1]);
+        assertTrue(lines[1].contains(",10,Warning_Email_Sent,"), lines[1]);
+        assertTrue(lines[1].endsWith(",default"), lines[1]);
+    }
+
+    /**
+     * Test that the JSON Lines report has a JSON object per roundtrip and no header.
+     * @throws Exception
+     */
+    @Test
+    public void testJsonLines() throws Exception {
+        long now = System.currentTimeMillis();
+        StringWriter out = new StringWriter();
+        OverdueReport report = new OverdueReport(out, OverdueReport.Format.JSONL, config(), now);
+        report.add(batch("B403485748392", 4, now - 30 * DAY, 0));
+        String line = out.toString();
+        assertTrue(line.startsWith("{\"batchId\":\"B403485748392\",\"roundtrip\":\"B403485748392-RT4\","), line);
+        assertTrue(line.contains(",\"daysOverdue\":10,\"lastEvent\":\"Data_Received\","), line);
+        assertTrue(line.endsWith(",\"alertedTier\":\"\"}\n"), line);
+    }
+
+    private static DelayAlerterConfig config() {
+        Properties properties = new Properties();
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_EMAIL_ADDRESSES, "foo@bar.com");
+        properties.setProperty(DelayAlerterConfigConstants.DELAY_ALERT_DAYS, "20");
+        return new DelayAlerterConfig(properties);
+    }
+
+    /**
+     * A roundtrip which received data at a time, and was alerted at another time unless it is 0.
+     */
+    private static Batch batch(String batchId, int roundTrip, long received, long alerted) {
+        List<Event> events = new ArrayList<>();
+        events.add(event(DelayAlerterComponent.DATA_RECEIVED_EVENT, received));
+        if (alerted != 0) {
+            events.add(event(DelayAlerterComponent.EMAIL_SENT_EVENT, alerted));
+        }
+        Batch batch = new Batch();
+        batch.setEventList(events);
+        batch.setBatchID(batchId);
+        batch.setRoundTripNumber(roundTrip);
+        return batch;
+    }
+
+    private static Event event(String eventID, long time) {
+        Event event = new Event();
+        event.setEventID(eventID);
+        event.setDate(new Date(time));
+        return event;
+    }
+}
@@ -0,0 +1,135 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import dk.statsbiblioteket.medieplatform.autonomous.Batch;
+import dk.statsbiblioteket.medieplatform.autonomous.Event;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ *
+ */
+public class ProcessingTimesTest {
+
+    private static final long DAY = 24 * 3600 * 1000L;
+
+    /**
+     * Test that roundtrips are grouped by the prefix of their batch ID, and that a group is only used once it has
+     * learned from enough roundtrips.
+     */
+    @Test
+    public void testGroups() {
+        ProcessingTimes times = new ProcessingTimes(4);
+        for (int i = 1; i <= 100; i++) {
+            times.add("4000" + i, i * DAY / 4);
+            times.add("4001" + i, i * DAY / 2);
+        }
+        times.add("5000", 10 * DAY);
+        assertEquals(times.getGroupCount(), 3);
+        assertClose(times.getDelay("400022028241", 95, 20), 95 * DAY / 4);
+        assertClose(times.getDelay("400122028241", 95, 20), 95 * DAY / 2);
+        assertEquals(times.getDelay("500022028241", 95, 20), -1L);
+        assertEquals(times.getDelay("600022028241", 95, 20), -1L);
+    }
+
+    /**
+     * Test that only the watched roundtrips not seen since a complete run are read again, that the approved ones are
+     * learned and no longer watched, that the stopped ones are no longer watched, that the others stay watched, and
+     * that the processing times and the roundtrips watched are the same after being saved and loaded.
+     * @throws Exception
+     */
+    @Test
+    public void testLearnAndSave() throws Exception {
+        ProcessingTimes times = new ProcessingTimes(0);
+        Batch approved = roundtrip("4000", 0, 10 * DAY);
+        Batch approvedSooner = roundtrip("4001", DAY, 5 * DAY);
+        Batch stopped = roundtrip("4002", DAY, -1);
+        stopped.getEventList().add(event("Manually_stopped", 3 * DAY));
+        Batch alerted = roundtrip("4003", DAY, -1);
+        Batch seen = roundtrip("4004", DAY, -1);
+        for (Batch roundtrip : Arrays.asList(approved, approvedSooner, stopped, alerted)) {
+            times.watch(roundtrip.getFullID(), 0);
+        }
+        times.watch(seen.getFullID(), 20 * DAY);
+        assertEquals(new HashSet<>(times.getDeparted(20 * DAY)), new HashSet<>(Arrays.asList(approved.getFullID(),
+                approvedSooner.getFullID(), stopped.getFullID(), alerted.getFullID())));
+
+        int learned = times.learn(Arrays.asList(approved, approvedSooner, stopped, alerted).iterator(),
+                "Roundtrip_Approved", Collections.singleton("Manually_stopped"), false, 20 * DAY);
+        assertEquals(learned, 2);
+        assertEquals(times.getLastLearned(), 20 * DAY);
+        assertEquals(times.getWatchedCount(), 2);
+        assertEquals(new HashSet<>(times.getDeparted(30 * DAY)),
+                new HashSet<>(Arrays.asList(alerted.getFullID(), seen.getFullID())));
+
+        File file = File.createTempFile("processingTimes", ".state");
+        try {
+            times.save(file);
+            ProcessingTimes loaded = ProcessingTimes.load(file, 0);
+            assertEquals(loaded.getLastLearned(), 20 * DAY);
+            assertEquals(loaded.getWatchedCount(), 2);
+            assertEquals(loaded.getDelay("4005", 50, 2), times.getDelay("4005", 50, 2));
+            assertEquals(ProcessingTimes.load(file, 4).getGroupCount(), 0);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Test that events without a date are ignored when learning, and that an approved roundtrip whose approval has
+     * no date is no longer watched without being learned.
+     */
+    @Test
+    public void testLearnEventsWithoutDate() {
+        ProcessingTimes times = new ProcessingTimes(0);
+        Batch undated = roundtrip("4000", 0, 10 * DAY);
+        undated.getEventList().add(new Event());
+        Batch undatedApproval = roundtrip("4001", DAY, -1);
+        Event approval = new Event();
+        approval.setEventID("Roundtrip_Approved");
+        undatedApproval.getEventList().add(approval);
+        times.watch(undated.getFullID(), 0);
+        times.watch(undatedApproval.getFullID(), 0);
+        int learned = times.learn(Arrays.asList(undated, undatedApproval).iterator(), "Roundtrip_Approved",
+                Collections.<String>emptySet(), false, 20 * DAY);
+        assertEquals(learned, 1);
+        assertEquals(times.getWatchedCount(), 0);
+    }
+
+    private static void assertClose(long actual, long expected) {
+        assertTrue(Math.abs(actual - expected) <= expected * QuantileSketch.ACCURACY,
+                "Delay is " + actual + ", expected " + expected);
+    }
+
+    /**
+     * A roundtrip with data received, and approved unless the time of approval is negative.
+     */
+    private static Batch roundtrip(String batchID, long received, long approved) {
+        List<Event> events = new ArrayList<>();
+        events.add(event("Data_Received", received));
+        if (approved >= 0) {
+            events.add(event("Roundtrip_Approved", approved));
+        }
+        Batch batch = new Batch();
+        batch.setBatchID(batchID);
+        batch.setRoundTripNumber(1);
+        batch.setEventList(events);
+        return batch;
+    }
+
+    private static Event event(String eventID, long time) {
+        Event event = new Event();
+        event.setEventID(eventID);
+        event.setDate(new Date(time));
+        return event;
+    }
+}
@@ -0,0 +1,65 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ *
+ */
+public class QuantileSketchTest {
+
+    private static final long DAY = 24 * 3600 * 1000L;
+
+    /**
+     * Test that the quantiles are within the accuracy of the sketch of the exact quantiles, for processing times
+     * from hours to months.
+     */
+    @Test
+    public void testAccuracy() {
+        Random random = new Random(42);
+        long[] values = new long[10000];
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) (Math.exp(random.nextGaussian() * 0.8) * 15 * DAY);
+            sketch.add(values[i]);
+        }
+        Arrays.sort(values);
+        assertEquals(sketch.getCount(), (long) values.length);
+        for (double q : new double[]{0.0, 0.5, 0.9, 0.95, 0.99, 1.0}) {
+            long exact = values[(int) (q * (values.length - 1))];
+            long estimate = sketch.quantile(q);
+            assertTrue(Math.abs(estimate - exact) <= exact * QuantileSketch.ACCURACY * 1.001,
+                    "Quantile " + q + " is " + estimate + ", expected " + exact);
+        }
+        assertEquals(new QuantileSketch().quantile(0.95), -1L);
+    }
+
+    /**
+     * Test that merging two sketches gives the same sketch as adding all the values to one, and that a sketch is the
+     * same after being encoded and decoded.
+     */
+    @Test
+    public void testMergeAndEncode() {
+        QuantileSketch first = new QuantileSketch();
+        QuantileSketch second = new QuantileSketch();
+        QuantileSketch all = new QuantileSketch();
+        for (int i = 1; i <= 1000; i++) {
+            QuantileSketch half = i % 2 == 0 ? first : second;
+            half.add(i * 3600 * 1000L);
+            all.add(i * 3600 * 1000L);
+        }
+        first.merge(second);
+        assertEquals(first.encode(), all.encode());
+        assertEquals(first.getCount(), 1000L);
+
+        QuantileSketch decoded = QuantileSketch.decode(all.encode());
+        assertEquals(decoded.encode(), all.encode());
+        assertEquals(decoded.quantile(0.95), all.quantile(0.95));
+        assertEquals(QuantileSketch.decode("").getCount(), 0L);
+    }
+}
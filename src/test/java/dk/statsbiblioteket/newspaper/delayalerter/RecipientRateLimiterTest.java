@@ -0,0 +1,156 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.testng.annotations.Test;
+
+import javax.mail.MessagingException;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+
+/**
+ *
+ */
+public class RecipientRateLimiterTest {
+
+    /**
+     * Test that a recipient gets the burst at once, then alerts as the bucket is refilled, and that the alerts held
+     * back are counted for the summary.
+     */
+    @Test
+    public void testRateLimit() {
+        RecipientRateLimiter limiter = new RecipientRateLimiter(3600, 2, 3600000L);
+        List<String> to = Arrays.asList("foo@bar.com", "bar@bar.com");
+        Map<String, Object> values = new HashMap<>();
+        assertEquals(limiter.acquire(to, values, 0L), to);
+        assertEquals(limiter.acquire(Arrays.asList("foo@bar.com"), values, 0L), Arrays.asList("foo@bar.com"));
+        assertEquals(limiter.acquire(to, values, 0L), Arrays.asList("bar@bar.com"));
+        assertEquals(limiter.acquire(to, values, 500L).size(), 0);
+        assertEquals(limiter.acquire(to, values, 2000L), to);
+        assertEquals(limiter.getHeldBack().get("foo@bar.com"), Integer.valueOf(2));
+        assertEquals(limiter.getHeldBack().get("bar@bar.com"), Integer.valueOf(1));
+    }
+
+    /**
+     * Test that the buckets are the same after being saved and loaded, so a new run does not start with a full burst.
+     * @throws Exception
+     */
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        RecipientRateLimiter limiter = new RecipientRateLimiter(3600, 2, 3600000L);
+        List<String> to = Arrays.asList("foo@bar.com");
+        Map<String, Object> values = new HashMap<>();
+        assertEquals(limiter.acquire(to, values, 0L), to);
+        assertEquals(limiter.acquire(to, values, 0L), to);
+
+        File file = File.createTempFile("rateLimit", ".state");
+        try {
+            limiter.save(file);
+            RecipientRateLimiter loaded = new RecipientRateLimiter(3600, 2, 3600000L);
+            loaded.load(file);
+            assertEquals(loaded.acquire(to, values, 0L).size(), 0);
+            assertEquals(loaded.acquire(to, values, 1000L), to);
+            assertEquals(loaded.acquire(Arrays.asList("bar@bar.com"), values, 1000L), Arrays.asList("bar@bar.com"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Test that a recipient is sent at most one summary per summary interval, that the alerts held back within the
+     * interval are kept for the next summary, and that a roundtrip held back again is not summarised again while the
+     * store of sent alerts remembers it.
+     * @throws Exception
+     */
+    @Test
+    public void testSummaries() throws Exception {
+        SimpleMailer mailer = mock(SimpleMailer.class);
+        AlertRenderer renderer = new AlertRenderer(null, "en", false, null);
+        List<String> to = Collections.singletonList("foo@bar.com");
+        File file = File.createTempFile("dedup", ".state");
+        file.delete();
+        AlertDedupStore store = new AlertDedupStore(file, 24 * 3600000L);
+        try {
+            RecipientRateLimiter limiter = new RecipientRateLimiter(1, 1, 3600000L);
+            assertEquals(limiter.acquire(to, roundtrip("B400022028241-RT1"), 0L), to);
+            limiter.acquire(to, roundtrip("B400022028241-RT2"), 0L);
+            limiter.sendSummaries(mailer, renderer, store, 0L);
+            verify(mailer, times(1)).sendMail(eq(to), anyString(), anyString());
+
+            //Held back within the summary interval, and kept for the next summary
+            limiter.acquire(to, roundtrip("B400022028241-RT3"), 1000L);
+            limiter.sendSummaries(mailer, renderer, store, 1000L);
+            verify(mailer, times(1)).sendMail(eq(to), anyString(), anyString());
+            assertEquals(limiter.getHeldBack().get("foo@bar.com"), Integer.valueOf(1));
+
+            //After the summary interval, the kept alert is summarised, but not the one already summarised
+            limiter.acquire(to, roundtrip("B400022028241-RT2"), 3601000L);
+            limiter.acquire(to, roundtrip("B400022028241-RT2"), 3601000L);
+            limiter.sendSummaries(mailer, renderer, store, 3601000L);
+            verify(mailer, times(2)).sendMail(eq(to), anyString(), anyString());
+            verify(mailer, times(1)).sendMail(eq(to), anyString(), contains("B400022028241-RT3"));
+            assertEquals(limiter.getHeldBack().size(), 0);
+
+            limiter.acquire(to, roundtrip("B400022028241-RT3"), 3602000L);
+            limiter.sendSummaries(mailer, renderer, store, 3602000L);
+            verify(mailer, times(2)).sendMail(eq(to), anyString(), anyString());
+            verify(mailer, never()).sendMail(eq(Collections.singletonList("bar@bar.com")), anyString(), anyString());
+        } finally {
+            store.close();
+            file.delete();
+        }
+    }
+
+    /**
+     * Test that the alerts of a summary which could not be sent are kept, also across saving and loading the limiter,
+     * and are summarised once a summary can be sent.
+     * @throws Exception
+     */
+    @Test
+    public void testKeepUnsentSummary() throws Exception {
+        SimpleMailer mailer = mock(SimpleMailer.class);
+        AlertRenderer renderer = new AlertRenderer(null, "en", false, null);
+        List<String> to = Collections.singletonList("foo@bar.com");
+        File file = File.createTempFile("rateLimit", ".state");
+        try {
+            RecipientRateLimiter limiter = new RecipientRateLimiter(1, 1, 3600000L);
+            limiter.acquire(to, roundtrip("B400022028241-RT1"), 0L);
+            limiter.acquire(to, roundtrip("B400022028241-RT2"), 0L);
+            doThrow(new MessagingException("foobar")).when(mailer).sendMail(anyList(), anyString(), anyString());
+            limiter.sendSummaries(mailer, renderer, null, 0L);
+            assertEquals(limiter.getHeldBack().get("foo@bar.com"), Integer.valueOf(1));
+            limiter.save(file);
+
+            RecipientRateLimiter loaded = new RecipientRateLimiter(1, 1, 3600000L);
+            loaded.load(file);
+            assertEquals(loaded.getHeldBack().get("foo@bar.com"), Integer.valueOf(1));
+            mailer = mock(SimpleMailer.class);
+            //The failed summary does not count against the summary interval
+            loaded.sendSummaries(mailer, renderer, null, 1000L);
+            verify(mailer, times(1)).sendMail(eq(to), anyString(), contains("B400022028241-RT2"));
+            assertEquals(loaded.getHeldBack().size(), 0);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static Map<String, Object> roundtrip(String roundtrip) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("roundtrip", roundtrip);
+        values.put("tier", "default");
+        return values;
+    }
+}
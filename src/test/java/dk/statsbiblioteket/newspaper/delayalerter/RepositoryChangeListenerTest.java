@@ -0,0 +1,192 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.testng.annotations.Test;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ *
+ */
+public class RepositoryChangeListenerTest {
+
+    private static final String BROKER = "vm://delayalerter?broker.persistent=false&broker.useJmx=false";
+    private static final String TOPIC = "fedora.apim.update";
+    private static final String PID = "uuid:2a4e4fe0-0000-0000-0000-000000000000";
+
+    /**
+     * Test that changes to the events datastream are reported with the PID of the object changed, and changes to other
+     * datastreams are not, using an embedded broker.
+     * @throws Exception
+     */
+    @Test
+    public void testChanges() throws Exception {
+        Connection publisher = new ActiveMQConnectionFactory(BROKER).createConnection();
+        final Semaphore changes = new Semaphore(0);
+        final List<String> pids = Collections.synchronizedList(new ArrayList<String>());
+        RepositoryChangeListener listener = new RepositoryChangeListener(BROKER, TOPIC, "EVENTS",
+                record(changes, pids), 1000);
+        try {
+            publisher.start();
+            listener.start();
+            Session session = publisher.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(session.createTopic(TOPIC));
+            producer.send(session.createTextMessage(change("modifyDatastreamByValue", "MODS")));
+            producer.send(session.createTextMessage(change("modifyDatastreamByValue", "EVENTS")));
+            producer.send(session.createTextMessage(change("addDatastream", "EVENTS")));
+            assertTrue(changes.tryAcquire(2, 10, TimeUnit.SECONDS));
+            Thread.sleep(200);
+            assertEquals(changes.availablePermits(), 0);
+            assertEquals(pids, Arrays.asList(PID, PID));
+        } finally {
+            listener.close();
+            publisher.close();
+        }
+    }
+
+    /**
+     * Test that the listener keeps trying to connect to a broker which is not running when it starts, and reconnects
+     * when the broker goes away and comes back, reporting a change after every reconnect.
+     * @throws Exception
+     */
+    @Test
+    public void testBrokerGoesAway() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        String url = "tcp://localhost:" + port;
+        Semaphore changes = new Semaphore(0);
+        List<String> pids = Collections.synchronizedList(new ArrayList<String>());
+        RepositoryChangeListener listener = new RepositoryChangeListener(url, TOPIC, "EVENTS", record(changes, pids),
+                200);
+        BrokerService broker = null;
+        try {
+            listener.start();
+            assertFalse(listener.isConnected());
+
+            broker = startBroker(url);
+            awaitConnected(listener, true);
+            assertTrue(changes.tryAcquire(10, TimeUnit.SECONDS));
+            publish(url, change("modifyDatastreamByValue", "EVENTS"));
+            assertTrue(changes.tryAcquire(10, TimeUnit.SECONDS));
+
+            broker.stop();
+            broker.waitUntilStopped();
+            awaitConnected(listener, false);
+
+            broker = startBroker(url);
+            awaitConnected(listener, true);
+            assertTrue(changes.tryAcquire(10, TimeUnit.SECONDS));
+            publish(url, change("modifyDatastreamByValue", "EVENTS"));
+            assertTrue(changes.tryAcquire(10, TimeUnit.SECONDS));
+            assertEquals(pids, Arrays.asList(null, PID, null, PID));
+        } finally {
+            listener.close();
+            if (broker != null) {
+                broker.stop();
+            }
+        }
+    }
+
+    private static BrokerService startBroker(String url) throws Exception {
+        BrokerService broker = new BrokerService();
+        broker.setBrokerName("delayalerter-restarting");
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.addConnector(url);
+        broker.start();
+        broker.waitUntilStarted();
+        return broker;
+    }
+
+    private static void awaitConnected(RepositoryChangeListener listener, boolean connected) throws InterruptedException {
+        for (int i = 0; i < 100 && listener.isConnected() != connected; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(listener.isConnected(), connected);
+    }
+
+    private static void publish(String url, String text) throws Exception {
+        Connection publisher = new ActiveMQConnectionFactory(url).createConnection();
+        try {
+            Session session = publisher.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            session.createProducer(session.createTopic(TOPIC)).send(session.createTextMessage(text));
+        } finally {
+            publisher.close();
+        }
+    }
+
+    /**
+     * Test that the PID of the object changed is found in the category or the summary of a change message.
+     * @throws Exception
+     */
+    @Test
+    public void testFindPid() throws Exception {
+        assertEquals(RepositoryChangeListener.findPid(text(change("modifyDatastreamByValue", "EVENTS"))), PID);
+        assertEquals(RepositoryChangeListener.findPid(text("<entry><summary type=\"text\">" + PID
+                + "</summary></entry>")), PID);
+        assertNull(RepositoryChangeListener.findPid(text("<entry><title>purgeObject</title></entry>")));
+        assertNull(RepositoryChangeListener.findPid(mock(Message.class)));
+    }
+
+    private static TextMessage text(String text) throws Exception {
+        TextMessage message = mock(TextMessage.class);
+        when(message.getText()).thenReturn(text);
+        return message;
+    }
+
+    /**
+     * A handler recording the PIDs changed, and null for changes missed.
+     */
+    private static RepositoryChangeListener.ChangeHandler record(final Semaphore changes, final List<String> pids) {
+        return new RepositoryChangeListener.ChangeHandler() {
+            @Override
+            public void changed(String pid) {
+                pids.add(pid);
+                changes.release();
+            }
+
+            @Override
+            public void missed() {
+                pids.add(null);
+                changes.release();
+            }
+        };
+    }
+
+    /**
+     * An Atom entry as published by Fedora for a change to a datastream.
+     */
+    private static String change(String method, String datastream) {
+        return "<entry xmlns=\"http://www.w3.org/2005/Atom\" xmlns:fedora-types=\"http://www.fedora.info/definitions/1/0/types/\">"
+                + "<id>urn:uuid:7d4c3e6a-0000-0000-0000-000000000000</id>"
+                + "<updated>2014-01-01T12:00:00.000Z</updated>"
+                + "<author><name>fedoraAdmin</name><uri>http://localhost:7880/fedora</uri></author>"
+                + "<title type=\"text\">" + method + "</title>"
+                + "<category term=\"" + PID + "\" scheme=\"fedora-types:pid\" label=\"xsd:string\"></category>"
+                + "<category term=\"" + datastream + "\" scheme=\"fedora-types:dsID\" label=\"xsd:string\"></category>"
+                + "<summary type=\"text\">" + PID + "</summary>"
+                + "<content type=\"text\">2014-01-01T12:00:00.000Z</content>"
+                + "</entry>";
+    }
+}
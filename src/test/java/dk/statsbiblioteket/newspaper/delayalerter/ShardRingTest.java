@@ -0,0 +1,70 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ *
+ */
+public class ShardRingTest {
+
+    private static final int BATCHES = 10000;
+
+    /**
+     * Test that the batches are spread evenly over the nodes.
+     */
+    @Test
+    public void testBalance() {
+        ShardRing ring = new ShardRing(Arrays.asList("node1", "node2", "node3"), 100);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < BATCHES; i++) {
+            String owner = ring.owner(batchID(i));
+            counts.put(owner, counts.containsKey(owner) ? counts.get(owner) + 1 : 1);
+        }
+        assertEquals(counts.size(), 3);
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            assertTrue(count.getValue() > BATCHES / 5 && count.getValue() < BATCHES / 2,
+                    count.getKey() + " owns " + count.getValue() + " of " + BATCHES + " batches");
+        }
+    }
+
+    /**
+     * Test that a node joining only takes batches over, about a quarter of them when it is the fourth node, and
+     * that the other batches keep their owner.
+     */
+    @Test
+    public void testRebalance() {
+        ShardRing three = new ShardRing(Arrays.asList("node1", "node2", "node3"), 100);
+        ShardRing four = new ShardRing(Arrays.asList("node3", "node1", "node4", "node2"), 100);
+        int moved = 0;
+        for (int i = 0; i < BATCHES; i++) {
+            String before = three.owner(batchID(i));
+            String after = four.owner(batchID(i));
+            if (!before.equals(after)) {
+                assertEquals(after, "node4");
+                moved++;
+            }
+        }
+        assertTrue(moved > BATCHES / 6 && moved < BATCHES / 3, moved + " of " + BATCHES + " batches moved");
+    }
+
+    /**
+     * Test that a ring without nodes has no owners.
+     */
+    @Test
+    public void testEmpty() {
+        assertNull(new ShardRing(Collections.<String>emptyList(), 100).owner(batchID(1)));
+    }
+
+    private static String batchID(int i) {
+        return "" + (400022028241L + i);
+    }
+}
@@ -0,0 +1,94 @@
+package dk.statsbiblioteket.newspaper.delayalerter;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests of the smtp transport pool of {@link SimpleMailer} against a local GreenMail server.
+ */
+public class SimpleMailerTest {
+
+    private static Logger log = LoggerFactory.getLogger(SimpleMailerTest.class);
+
+    private static final int PORT = 40027;
+    private static final int MESSAGES = 50;
+
+    GreenMail greenMail;
+
+    @BeforeMethod
+    public void setUp() {
+        ServerSetup serverSetup = new ServerSetup(PORT, ServerSetup.SMTP.getBindAddress(), ServerSetup.SMTP.getProtocol());
+        this.greenMail = new GreenMail(serverSetup);
+        greenMail.start();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        greenMail.stop();
+    }
+
+    /**
+     * Send the same number of mails with and without a transport pool, check that the pool sends them all on one
+     * smtp session while the unpooled mailer opens a session per mail, and report the throughput of each.
+     * @throws Exception
+     */
+    @Test
+    public void testPooledThroughput() throws Exception {
+        CountingProxy proxy = new CountingProxy(PORT);
+        try {
+            SimpleMailer unpooled = new SimpleMailer("me@test.com", "localhost", "" + proxy.getPort(), 0, 0L);
+            long unpooledMillis = sendMails(unpooled);
+            assertEquals(proxy.getAccepted(), MESSAGES);
+            SimpleMailer pooled = new SimpleMailer("me@test.com", "localhost", "" + proxy.getPort(), 2, 60000L);
+            long pooledMillis = sendMails(pooled);
+            pooled.close();
+            assertEquals(proxy.getAccepted(), MESSAGES + 1);
+            log.info("Sent {} mails in {} ms without pool, {} ms with pool", MESSAGES, unpooledMillis, pooledMillis);
+            assertEquals(greenMail.getReceivedMessages().length, 2 * MESSAGES);
+        } finally {
+            proxy.stop();
+        }
+    }
+
+    /**
+     * Test that a pooled connection which has been dropped by the server is replaced by a new one, and the mail sent
+     * after the restart is received.
+     * @throws Exception
+     */
+    @Test
+    public void testReconnectAfterServerRestart() throws Exception {
+        SimpleMailer pooled = new SimpleMailer("me@test.com", "localhost", "" + PORT, 1, 60000L);
+        pooled.sendMail(Arrays.asList("foo@bar.com"), "before", "before restart");
+        greenMail.stop();
+        greenMail.start();
+        pooled.sendMail(Arrays.asList("foo@bar.com"), "after", "after restart");
+        pooled.close();
+        //Depending on whether the restart clears the mailbox the first mail may or may not still be there
+        List<String> subjects = new ArrayList<>();
+        for (MimeMessage message : greenMail.getReceivedMessages()) {
+            subjects.add(message.getSubject());
+        }
+        assertTrue(subjects.contains("after"), "Received " + subjects);
+    }
+
+    private long sendMails(SimpleMailer mailer) throws Exception {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < MESSAGES; i++) {
+            mailer.sendMail(Arrays.asList("foo@bar.com"), "Test " + i, "Message number " + i);
+        }
+        return System.currentTimeMillis() - start;
+    }
+}